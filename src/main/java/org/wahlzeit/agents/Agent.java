@@ -68,7 +68,7 @@ public abstract class Agent implements Runnable {
 		while(!isToStop) {
 			try {
 				SysLog.logSysInfo("going to sleep for: " + (period / 1000) + " seconds");
-				Thread.sleep(period);
+				doSleep();
 			} catch (Exception ex) {
 				// do nothing
 			}
@@ -77,6 +77,15 @@ public abstract class Agent implements Runnable {
 		}
 	}
 	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Waits until the task is due; being interrupted runs the task right away
+	 */
+	protected void doSleep() throws InterruptedException {
+		Thread.sleep(period);
+	}
+	
 	/**
 	 * @methodproperty hook
 	 */
@@ -24,6 +24,10 @@ public class AgentManager {
 	 */
 	protected static void initInstance() {
 		getInstance().addAgent(new NotifyAboutPraiseAgent());
+		getInstance().addAgent(new FlushPraiseAgent());
+		getInstance().addAgent(new WriteBehindAgent());
+		getInstance().addAgent(new SnapshotAgent());
+		getInstance().addAgent(new TemplateReloadAgent());
 	}
 	
 	/**
@@ -0,0 +1,38 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.*;
+import org.wahlzeit.services.*;
+
+/**
+ * The FlushPraiseAgent periodically writes the praise counted in memory to the photos table.
+ */
+public class FlushPraiseAgent extends Agent {
+
+	/**
+	 * 
+	 */
+	public static final String NAME = "FlushPraise";
+
+	/**
+	 * 
+	 */
+	public FlushPraiseAgent() {
+		initialize(NAME, 10 * 1000); // every ten seconds
+	}
+	
+	/**
+	 * 
+	 */
+	protected void doRun() {
+		int noPhotos = PhotoManager.getInstance().flushPraises();
+		if (noPhotos > 0) {
+			SysLog.logSysInfo("flushed praise of " + noPhotos + " photos");
+		}
+	}
+	
+}
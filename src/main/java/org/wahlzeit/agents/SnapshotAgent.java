@@ -0,0 +1,42 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.*;
+import org.wahlzeit.services.*;
+
+/**
+ * The SnapshotAgent periodically writes a model snapshot, so that a restart only replays recent changes.
+ * When stopped, it leaves the last snapshot to ModelMain, which writes it after saving all objects.
+ */
+public class SnapshotAgent extends Agent {
+
+	/**
+	 *
+	 */
+	public static final String NAME = "Snapshot";
+
+	/**
+	 *
+	 */
+	public SnapshotAgent() {
+		initialize(NAME, SysConfig.getSnapshotIntervalAsLong());
+	}
+
+	/**
+	 *
+	 */
+	protected void doRun() {
+		if (!isToStop) {
+			try {
+				ModelSnapshot.getInstance().write();
+			} catch (Exception ex) {
+				SysLog.logThrowable(ex);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,38 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.agents;
+
+import org.wahlzeit.services.*;
+import org.wahlzeit.webparts.*;
+
+/**
+ * The TemplateReloadAgent swaps in HTML templates whose files changed, so templates can be edited without a restart.
+ * It does nothing unless the WebPartTemplateService is watching the template directories.
+ */
+public class TemplateReloadAgent extends Agent {
+
+	/**
+	 *
+	 */
+	public static final String NAME = "TemplateReload";
+
+	/**
+	 *
+	 */
+	public TemplateReloadAgent() {
+		initialize(NAME, SysConfig.getTemplateReloadIntervalAsLong());
+	}
+
+	/**
+	 *
+	 */
+	protected void doRun() {
+		if (!isToStop) {
+			WebPartTemplateService.getInstance().reloadChangedTemplates();
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.agents;
+
+import org.wahlzeit.services.*;
+
+/**
+ * The WriteBehindAgent writes the objects of the WriteBehindQueue, every flush interval or as soon as
+ * enough objects are queued. When stopped, it drains the queue.
+ */
+public class WriteBehindAgent extends Agent {
+
+	/**
+	 * 
+	 */
+	public static final String NAME = "WriteBehind";
+
+	/**
+	 * 
+	 */
+	public WriteBehindAgent() {
+		initialize(NAME, SysConfig.getWriteBehindIntervalAsLong());
+		
+		int flushSize = SysConfig.getWriteBehindFlushSizeAsInt();
+		int maxSize = SysConfig.getWriteBehindMaxSizeAsInt();
+		long maxWait = SysConfig.getWriteBehindMaxWaitAsLong();
+		WriteBehindQueue.getInstance().setLimits(flushSize, maxSize, maxWait);
+		
+		ReadReplicaSet replicas = DatabaseConnection.getReplicas();
+		if (!replicas.isEmpty()) {
+			WriteBehindQueue.getInstance().setReadYourWritesWindow(replicas.getReadYourWritesWindow());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void doSleep() throws InterruptedException {
+		WriteBehindQueue.getInstance().awaitFlush(period);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void doRun() {
+		WriteBehindQueue queue = WriteBehindQueue.getInstance();
+		if (isToStop) {
+			queue.drain();
+			SysLog.logSysInfo("drained write-behind queue: " + queue.asStatisticsString());
+		} else if (queue.flush() > 0) {
+			SysLog.logSysInfo("write-behind queue: " + queue.asStatisticsString());
+		}
+	}
+	
+}
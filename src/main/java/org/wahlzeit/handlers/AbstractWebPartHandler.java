@@ -51,6 +51,15 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 		WebPartTemplate tmpl = wpts.getTemplate(us.cfg().getLanguageCode(), name);
 		return new WebPart(tmpl);
 	}
+	
+	/**
+	 * For parts without per-request values; returns the part as rendered once for the language of us
+	 * 
+	 * @methodtype factory
+	 */
+	protected final Writable createRenderedPart(UserSession us, String name) {
+		return RenderedPartCache.getInstance().getRenderedPart(us.cfg().getLanguageCode(), name);
+	}
 		
 	/**
 	 * 
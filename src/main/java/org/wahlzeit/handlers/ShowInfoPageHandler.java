@@ -32,7 +32,7 @@ public class ShowInfoPageHandler extends AbstractWebPageHandler {
 	 * 
 	 */
 	protected void makeWebPageBody(UserSession us, WebPart page) {
-		page.addWritable("info", createWebPart(us, infoTmplName));
+		page.addWritable("info", createRenderedPart(us, infoTmplName));
 	}
 
 }
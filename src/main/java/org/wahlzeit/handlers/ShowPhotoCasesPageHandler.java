@@ -23,6 +23,16 @@ import org.wahlzeit.webparts.WritableList;
  */
 public class ShowPhotoCasesPageHandler extends AbstractWebPageHandler {
 	
+	/**
+	 * Cursor of the last case shown on the previous page
+	 */
+	public static final String AFTER = "after";
+	
+	/**
+	 * 
+	 */
+	public static final int NO_CASES_PER_PAGE = 20;
+	
 	/**
 	 *
 	 */
@@ -30,6 +40,14 @@ public class ShowPhotoCasesPageHandler extends AbstractWebPageHandler {
 		initialize(PartUtil.SHOW_PHOTO_CASES_PAGE_FILE, AccessRights.MODERATOR);
 	}
 
+	/**
+	 * 
+	 */
+	protected String doHandleGet(UserSession us, String link, Map args) {
+		us.getAndSaveAsString(args, AFTER);
+		return link;
+	}
+
 	/**
 	 * 
 	 */
@@ -38,11 +56,18 @@ public class ShowPhotoCasesPageHandler extends AbstractWebPageHandler {
 		page.addStringFromArgs(args, UserSession.MESSAGE);
 		
 		PhotoCaseManager pcm = PhotoCaseManager.getInstance();
-		PhotoCase[] flaggedCases = pcm.getOpenPhotoCasesByAscendingAge();
-		if (flaggedCases.length != 0) {
+		List<PhotoCase> flaggedCases = pcm.getOpenPhotoCasesByAscendingAge(us.getAsString(args, AFTER), NO_CASES_PER_PAGE);
+		if (!flaggedCases.isEmpty()) {
 			WritableList openCases = new WritableList();
-			for (int i = 0; i < flaggedCases.length; i++) {
-				openCases.append(makePhotoCaseForm(us, flaggedCases[i]));
+			for (PhotoCase flaggedCase : flaggedCases) {
+				openCases.append(makePhotoCaseForm(us, flaggedCase));
+			}
+			
+			String cursor = PhotoCaseManager.getQueueCursor(flaggedCases.get(flaggedCases.size() - 1));
+			if (pcm.hasOpenPhotoCasesAfter(cursor)) {
+				String nextLink = getResourceAsRelativeHtmlPathString(PartUtil.SHOW_PHOTO_CASES_PAGE_NAME) + "?" + AFTER + "=" + cursor;
+				String nextParagraph = HtmlUtil.asP(HtmlUtil.asHref(nextLink, us.cfg().getMoreFlaggedPhotoCases()));
+				openCases.append(writer -> writer.write(nextParagraph));
 			}
 			page.addWritable("openCases", openCases);
 		} else {
@@ -96,14 +96,14 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		if (photo != null) {
 			parts.append(makePriorPhotoInfo(us));
 		} else {
-			parts.append(createWebPart(us, PartUtil.BLURP_INFO_FILE));
+			parts.append(createRenderedPart(us, PartUtil.BLURP_INFO_FILE));
 		}
 
 		WebFormHandler handler = getFormHandler(PartUtil.FILTER_PHOTOS_FORM_NAME);
 		Writable filterPhotos = handler.makeWebPart(us);
 		parts.append(filterPhotos);
 
-		parts.append(createWebPart(us, PartUtil.LINKS_INFO_FILE));
+		parts.append(createRenderedPart(us, PartUtil.LINKS_INFO_FILE));
 		
 		page.addWritable("sidebar", parts);
 	}
@@ -117,7 +117,7 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		Photo photo = us.getPhoto();
 		if (photo == null) {
 			page.addString("mainWidth", String.valueOf(pagePhotoSize.getMaxPhotoWidth()));
-			WebPart done = createWebPart(us, PartUtil.DONE_INFO_FILE);
+			Writable done = createRenderedPart(us, PartUtil.DONE_INFO_FILE);
 			page.addWritable(Photo.IMAGE, done);
 			return;
 		}
@@ -15,6 +15,7 @@ import org.wahlzeit.services.*;
 public abstract class AbstractMain {
 	
 	private static final String DB_HOST = Optional.ofNullable(System.getenv("WAHLZEIT_DB_HOST")).orElse("localhost");
+	private static final String DB_REPLICAS = Optional.ofNullable(System.getenv("WAHLZEIT_DB_REPLICAS")).orElse("");
 	
 	/**
 	 * 
@@ -33,6 +34,7 @@ public abstract class AbstractMain {
 	 */
 	protected void startUp(String rootDir) throws Exception {
 		SysConfig.setInstance(new SysConfig(rootDir, DB_HOST));
+		SysConfig.getInstance().setValue(SysConfig.DB_REPLICA_CONNECTIONS, DB_REPLICAS);
 		
 		boolean dbAvailable = DatabaseConnection.waitForDatabaseIsReady(30, 1000);
 		if (!dbAvailable) {
@@ -47,6 +49,11 @@ public abstract class AbstractMain {
 	 * 
 	 */
 	protected void shutDown() throws Exception {
+		if (mainSession != null) {
+			mainSession.returnDatabaseConnection();
+		}
+		DatabaseConnection.dropPool();
+		
 		SysConfig.dropInstance();
 	}
 	
@@ -7,7 +7,9 @@ package org.wahlzeit.main;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.lang.management.*;
 import java.sql.*;
+import java.util.*;
 
 import org.wahlzeit.model.*;
 import org.wahlzeit.model.extension.CatPhotoFactory;
@@ -25,11 +27,14 @@ public abstract class ModelMain extends AbstractMain {
 	 * 
 	 */
 	protected void startUp(String rootDir) throws Exception {
+		long startTime = System.currentTimeMillis();
 		super.startUp(rootDir);
 
 		if (!hasGlobals()) {
 			tearDownDatabase();
 			setUpDatabase();
+		} else {
+			migrateDatabase();
 		}
 		
  		loadGlobals();
@@ -41,8 +46,30 @@ public abstract class ModelMain extends AbstractMain {
 			PhotoFactory.initialize();
 			PhotoManager.initialize();
 		}
+		
+		if (!ModelSnapshot.getInstance().restore()) {
+			PhotoManager.getInstance().loadTagIndex();
+			PhotoCaseManager.getInstance().loadOpenPhotoCases();
+			UserManager.getInstance().loadUsers();
+		}
 
 		Tracer.initialize(ExtensionConfig.ACTIVE_TRACE_LEVEL);
+
+		long peakHeapSize = getPeakHeapSize() / (1024 * 1024);
+		SysLog.logSysInfo("ready after " + (System.currentTimeMillis() - startTime) + "ms, peak heap " + peakHeapSize + "MB");
+	}
+	
+	/**
+	 * Returns the sum of the peak usage of all heap memory pools in bytes
+	 */
+	protected long getPeakHeapSize() {
+		long result = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				result += pool.getPeakUsage().getUsed();
+			}
+		}
+		return result;
 	}
 	
 	/**
@@ -61,15 +88,107 @@ public abstract class ModelMain extends AbstractMain {
 	 */
 	protected void shutDown() throws Exception {
 		saveAll();
+		writeSnapshot();
 
 		super.shutDown();
 	}
 
+	/**
+	 * Writes a model snapshot, so that the next start can restore it instead of loading everything
+	 */
+	protected void writeSnapshot() {
+		try {
+			ModelSnapshot.getInstance().write();
+		} catch (Exception ex) {
+			SysLog.logThrowable(ex);
+		}
+	}
+	
 	/**
 	 * 
 	 */
 	public void setUpDatabase() throws SQLException {
 		runScript("CreateTables.sql");
+		migrateDatabase();
+	}
+	
+	/**
+	 * Migrations in order of version; CreateTables.sql is version 0
+	 */
+	protected List<SchemaMigration> getSchemaMigrations() {
+		List<SchemaMigration> result = new ArrayList<SchemaMigration>();
+		
+		result.add(new SchemaMigration(1, "Migration001.sql")
+			.addIndexCheck("DELETE FROM tags WHERE tag = 'un:x' AND photo_id = 1", "tags_pkey")
+			.addIndexCheck("DELETE FROM tags WHERE photo_id = 1", "tags_photo_id_idx"));
+		
+		result.add(new SchemaMigration(2, "Migration002.sql")
+			.addIndexCheck("SELECT * FROM photos WHERE owner_name = 'x'", "photos_owner_name_idx")
+			.addIndexCheck("UPDATE photos SET owner_language = 0 WHERE owner_id = 1", "photos_owner_id_idx")
+			.addIndexCheck("SELECT * FROM users WHERE name_as_tag = 'x'", "users_name_as_tag_idx")
+			.addIndexCheck("SELECT * FROM users WHERE email_address = 'x'", "users_email_address_idx")
+			.addIndexCheck("SELECT * FROM cases WHERE was_decided = FALSE", "cases_open_idx"));
+		
+		result.add(new SchemaMigration(3, "Migration003.sql")
+			.addIndexCheck("SELECT * FROM photos WHERE row_txid >= 1", "photos_row_txid_idx")
+			.addIndexCheck("SELECT * FROM users WHERE row_txid >= 1", "users_row_txid_idx")
+			.addIndexCheck("SELECT * FROM cases WHERE row_txid >= 1", "cases_row_txid_idx")
+			.addIndexCheck("SELECT * FROM row_changes WHERE txid >= 1", "row_changes_pkey"));
+		
+		return result;
+	}
+	
+	/**
+	 * Applies all migrations not yet recorded in the schema_version table, each in its own transaction
+	 */
+	public void migrateDatabase() throws SQLException {
+		Connection conn = SessionManager.getDatabaseConnection().getRdbmsConnection();
+		
+		String query = "CREATE TABLE IF NOT EXISTS schema_version (version integer PRIMARY KEY, script text, applied_on bigint)";
+		SysLog.logQuery(query);
+		Statement stmt = conn.createStatement();
+		stmt.execute(query);
+		stmt.close();
+		
+		for (SchemaMigration migration : getSchemaMigrations()) {
+			applyMigration(conn, migration);
+		}
+	}
+	
+	/**
+	 * Runs the script of migration and its index checks unless another node or an earlier start did already.
+	 * Locking the schema_version table keeps nodes starting at the same time from both applying it.
+	 */
+	protected void applyMigration(Connection conn, SchemaMigration migration) throws SQLException {
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			Statement stmt = conn.createStatement();
+			stmt.execute("LOCK TABLE schema_version IN EXCLUSIVE MODE");
+			ResultSet rset = stmt.executeQuery("SELECT version FROM schema_version WHERE version = " + migration.getVersion());
+			boolean isApplied = rset.next();
+			stmt.close();
+			
+			if (!isApplied) {
+				runScript(migration.getScriptName());
+				migration.checkIndexes(conn);
+				
+				PreparedStatement insert = conn.prepareStatement("INSERT INTO schema_version VALUES(?, ?, ?)");
+				insert.setInt(1, migration.getVersion());
+				insert.setString(2, migration.getScriptName());
+				insert.setLong(3, System.currentTimeMillis());
+				insert.executeUpdate();
+				insert.close();
+				SysLog.logSysInfo("migrated database schema to version " + migration.getVersion());
+			}
+			
+			conn.commit();
+		} catch (SQLException sex) {
+			conn.rollback();
+			throw sex;
+		} finally {
+			conn.setAutoCommit(wasAutoCommit);
+		}
 	}
 	
 	/**
@@ -129,6 +248,10 @@ public abstract class ModelMain extends AbstractMain {
 			int lastSessionId = result.getInt("last_session_id");
 			AbstractServlet.setLastSessionId(lastSessionId);		
 			SysLog.logSysInfo("loaded global variable lastSessionId: " + lastSessionId);
+
+			User.getIdAllocator().setLeasingFromDatabase(true);
+			PhotoId.getIdAllocator().setLeasingFromDatabase(true);
+			Case.getIdAllocator().setLeasingFromDatabase(true);
 		} else {
 			SysLog.logSysError("Could not load globals!");
 		}
@@ -137,31 +260,21 @@ public abstract class ModelMain extends AbstractMain {
 	}
 
 	/**
-	 *
+	 * Saves the globals not handed out by an IdAllocator; user, photo, and case ids advance the globals
+	 * with every block of ids leased, so saving is not needed when creating users, photos, or cases.
 	 */
 	public synchronized void saveGlobals() throws SQLException {
 		DatabaseConnection dbc = SessionManager.getDatabaseConnection();
 		Connection conn = dbc.getRdbmsConnection();
 
-		String query = "SELECT * FROM globals";
+		String query = "UPDATE globals SET last_session_id = ?";
 		SysLog.logQuery(query);
 
-		Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
-		ResultSet rset = stmt.executeQuery(query);
-		if (rset.next()) {
-			int lastUserId = User.getLastUserId();
-			rset.updateInt("last_user_id", lastUserId);
-			SysLog.logSysInfo("saved global variable lastUserId: " + lastUserId);
-			int lastPhotoId = PhotoId.getCurrentIdAsInt();
-			rset.updateInt("last_photo_id", lastPhotoId);
-			SysLog.logSysInfo("saved global variable lastPhotoId: " + lastPhotoId);
-			int lastCaseId = Case.getLastCaseId().asInt();
-			rset.updateInt("last_case_id", lastCaseId);
-			SysLog.logSysInfo("saved global variable lastCaseId: " + lastCaseId);
-			int lastSessionId = AbstractServlet.getLastSessionId();
-			rset.updateInt("last_session_id", lastSessionId);
+		PreparedStatement stmt = conn.prepareStatement(query);
+		int lastSessionId = AbstractServlet.getLastSessionId();
+		stmt.setInt(1, lastSessionId);
+		if (stmt.executeUpdate() > 0) {
 			SysLog.logSysInfo("saved global variable lastSessionId: " + lastSessionId);
-			rset.updateRow();
 		} else {
 			SysLog.logSysError("Could not save globals!");
 		}
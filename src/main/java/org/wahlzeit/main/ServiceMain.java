@@ -5,6 +5,9 @@
 
 package org.wahlzeit.main;
 
+import java.io.*;
+import java.util.*;
+
 import org.wahlzeit.agents.AgentManager;
 import org.wahlzeit.handlers.*;
 import org.wahlzeit.model.*;
@@ -69,9 +72,10 @@ public class ServiceMain extends ModelMain {
 		
 		super.startUp(rootDir);
 
+		configureLanguageModels();
 		configureWebPartTemplateService();
 		configureWebPartHandlers();
-		configureLanguageModels();
+		configureStaticFiles();
 
 		AgentManager am = AgentManager.getInstance();
 		am.startAllThreads();
@@ -83,16 +87,44 @@ public class ServiceMain extends ModelMain {
 	public void shutDown() throws Exception {
 		AgentManager am = AgentManager.getInstance();
 		am.stopAllThreads();
+		
+		WebPartTemplateService.getInstance().stopWatching();
 				
 		super.shutDown();
 	}
 	
 	/**
-	 * 
+	 * Preloads the templates of all configured languages; needs the language models
 	 */
 	public void configureWebPartTemplateService() {
 		ConfigDir templatesDir = SysConfig.getTemplatesDir();
-		WebPartTemplateService.getInstance().setTemplatesDir(templatesDir);
+		WebPartTemplateService wpts = WebPartTemplateService.getInstance();
+		wpts.setTemplatesDir(templatesDir);
+
+		List<String> langs = new ArrayList<String>();
+		for (ModelConfig config : LanguageConfigs.getAll()) {
+			langs.add(config.getLanguageCode());
+		}
+		
+		wpts.preloadTemplates(langs);
+		try {
+			wpts.startWatching(langs);
+		} catch (IOException ioex) {
+			SysLog.logThrowable(ioex);
+		}
+	}
+	
+	/**
+	 * Writes compressed siblings of static files, served by PrecompressedFileFilter
+	 */
+	public void configureStaticFiles() {
+		try {
+			File staticDir = new File(SysConfig.getStaticDir().asString());
+			int noFiles = PrecompressedFiles.compressAll(staticDir, SysConfig.getCompressionThresholdAsInt());
+			SysLog.logSysInfo("compressed " + noFiles + " static files");
+		} catch (IOException ioex) {
+			SysLog.logThrowable(ioex);
+		}
 	}
 	
 	/**
@@ -542,6 +542,13 @@ public abstract class AbstractModelConfig extends AbstractConfig implements Mode
 		return doGetValue("NoFlaggedPhotoCases"); 
 	}
 
+	/**
+	 * 
+	 */
+	public String getMoreFlaggedPhotoCases() {
+		return doGetValue("MoreFlaggedPhotoCases"); 
+	}
+
 	/**
 	 * 
 	 */
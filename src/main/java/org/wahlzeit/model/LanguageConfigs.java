@@ -34,5 +34,12 @@ public class LanguageConfigs {
 	public static void put(Language language, ModelConfig config) {
 		configurations.put(language, config);
 	}
+	
+	/**
+	 * 
+	 */
+	public static Collection<ModelConfig> getAll() {
+		return Collections.unmodifiableCollection(configurations.values());
+	}
 
 }
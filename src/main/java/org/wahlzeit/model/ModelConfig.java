@@ -139,6 +139,7 @@ public interface ModelConfig extends Configuration {
 
 	// SHOW_PHOTO_CASE_FORM
 	public String getNoFlaggedPhotoCases();
+	public String getMoreFlaggedPhotoCases();
 
 	// SHOW_ADMIN_MENU_FORM
 	public String getPhotoIsUnknown();
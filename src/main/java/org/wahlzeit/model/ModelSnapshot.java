@@ -0,0 +1,424 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+import org.wahlzeit.services.*;
+
+/**
+ * A ModelSnapshot is a SnapshotFile of the tag index, the open photo cases, and the cached photos and users.
+ * The tag index is copied from memory, as photos update it before their changes are written; the rows are read
+ * from the database by id in one repeatable-read transaction, whose transaction snapshot it records.
+ * Restoring it replays only rows written by transactions not visible to that snapshot; the row_txid columns
+ * and the row_changes table of schema version 3 track these. A snapshot of another database, another schema
+ * version, or older than the changes still tracked is not restored.
+ */
+public class ModelSnapshot {
+
+	/**
+	 *
+	 */
+	public static final String FILE_NAME = "model.snapshot";
+
+	/**
+	 * Rows fetched per round trip while writing a snapshot
+	 */
+	protected static final int FETCH_SIZE = 1000;
+
+	/**
+	 *
+	 */
+	protected static ModelSnapshot instance = null;
+
+	/**
+	 *
+	 */
+	public static synchronized ModelSnapshot getInstance() {
+		if (instance == null) {
+			instance = new ModelSnapshot();
+		}
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	protected ModelSnapshot() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public File getFile() {
+		return new File(SysConfig.getBackupDir().asString(), FILE_NAME);
+	}
+
+	/**
+	 * Writes a new snapshot, replacing the previous one, and stops tracking changes older than it.
+	 */
+	public synchronized void write() throws SQLException, IOException {
+		long startTime = System.currentTimeMillis();
+		Connection conn = SessionManager.getDatabaseConnection().getRdbmsConnection();
+		boolean wasAutoCommit = conn.getAutoCommit();
+		int isolationLevel = conn.getTransactionIsolation();
+
+		String txidSnapshot = null;
+		SnapshotFile.Writer writer = new SnapshotFile.Writer(getFile());
+		try {
+			conn.setAutoCommit(false);
+			conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+			
+			Statement stmt = conn.createStatement();
+			stmt.setFetchSize(FETCH_SIZE);
+			ResultSet rset = stmt.executeQuery("SELECT txid_current_snapshot()::text, database_id, (SELECT max(version) FROM schema_version) FROM globals");
+			if (!rset.next()) {
+				throw new SQLException("no globals row to take snapshot of");
+			}
+			txidSnapshot = rset.getString(1);
+			writer.writeLong(rset.getLong(2));
+			writer.writeInt(rset.getInt(3));
+			writer.writeString(txidSnapshot);
+			writer.writeLong(startTime);
+			stmt.close();
+
+			// taken after the transaction snapshot, so that it has all changes visible to it; later ones are replayed
+			PhotoTagIndex index = PhotoTagIndex.getInstance();
+			index.writeOn(writer);
+
+			int noPhotos = writeRows(writer, conn, "SELECT * FROM photos WHERE id = ANY(?)", getCachedPhotoIds());
+			int noUsers = writeRows(writer, conn, "SELECT * FROM users WHERE id = ANY(?)", getCachedUserIds());
+			int noCases = writeRows(writer, conn, "SELECT * FROM cases WHERE was_decided = FALSE", null);
+
+			conn.commit();
+			writer.commit();
+			SysLog.logSysInfo("wrote model snapshot of " + index.getNoPhotos() + " indexed photos, " + noPhotos + " photos, " + noUsers + " users, " + noCases + " open cases in " + (System.currentTimeMillis() - startTime) + "ms");
+		} catch (SQLException | IOException ex) {
+			conn.rollback();
+			throw ex;
+		} finally {
+			writer.close();
+			conn.setTransactionIsolation(isolationLevel);
+			conn.setAutoCommit(wasAutoCommit);
+		}
+
+		forgetChangesBefore(conn, txidSnapshot);
+	}
+
+	/**
+	 * @return number of rows written
+	 */
+	protected int writeRows(SnapshotFile.Writer writer, Connection conn, String query, Integer[] ids) throws SQLException, IOException {
+		PreparedStatement stmt = conn.prepareStatement(query);
+		try {
+			stmt.setFetchSize(FETCH_SIZE);
+			if (ids != null) {
+				stmt.setArray(1, conn.createArrayOf("integer", ids));
+			}
+			return writer.writeRows(stmt.executeQuery());
+		} finally {
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Changes of transactions that ended before the snapshot was taken will never be replayed by it.
+	 * Older snapshots that may still need them are recognized by the snapshot horizon.
+	 */
+	protected void forgetChangesBefore(Connection conn, String txidSnapshot) throws SQLException {
+		PreparedStatement stmt = conn.prepareStatement("DELETE FROM row_changes WHERE txid < txid_snapshot_xmin(?::txid_snapshot)");
+		stmt.setString(1, txidSnapshot);
+		stmt.executeUpdate();
+		stmt.close();
+
+		stmt = conn.prepareStatement("UPDATE globals SET snapshot_horizon = GREATEST(snapshot_horizon, txid_snapshot_xmin(?::txid_snapshot))");
+		stmt.setString(1, txidSnapshot);
+		stmt.executeUpdate();
+		stmt.close();
+	}
+
+	/**
+	 *
+	 */
+	protected Integer[] getCachedPhotoIds() {
+		List<Photo> photos = PhotoManager.getInstance().getPhotoCache().values();
+		Integer[] result = new Integer[photos.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = photos.get(i).getId().asInt();
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected Integer[] getCachedUserIds() {
+		List<User> users = UserManager.getInstance().getUserCache().values();
+		Integer[] result = new Integer[users.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = users.get(i).getId();
+		}
+		return result;
+	}
+
+	/**
+	 * Restores the tag index, open photo cases, and cached photos and users from the snapshot file.
+	 * Nothing is restored if the file is missing, does not match the database, or cannot be read.
+	 *
+	 * @return true if restored
+	 */
+	public synchronized boolean restore() {
+		File file = getFile();
+		if (!file.exists()) {
+			SysLog.logSysInfo("no model snapshot to restore");
+			return false;
+		}
+
+		long startTime = System.currentTimeMillis();
+		try {
+			SnapshotFile.Reader reader = new SnapshotFile.Reader(file);
+			long databaseId = reader.readLong();
+			int schemaVersion = reader.readInt();
+			String txidSnapshot = reader.readString();
+			long createdTime = reader.readLong();
+
+			Connection conn = SessionManager.getDatabaseConnection().getRdbmsConnection();
+			String mismatch = getMismatch(conn, databaseId, schemaVersion, txidSnapshot);
+			if (mismatch != null) {
+				SysLog.logSysInfo("not restoring model snapshot: " + mismatch);
+				return false;
+			}
+
+			Changes changes = new Changes();
+			changes.read(conn, txidSnapshot);
+
+			PhotoTagIndex index = new PhotoTagIndex();
+			for (int id = reader.readInt(); id >= 0; id = reader.readInt()) {
+				boolean isVisible = reader.readBoolean();
+				if (!changes.photos.containsKey(id) && !changes.deletedPhotoIds.contains(id)) {
+					index.addPhotoId(id, isVisible);
+				}
+			}
+			while (reader.readBoolean()) {
+				String tag = reader.readString();
+				for (int id = reader.readInt(); id >= 0; id = reader.readInt()) {
+					if (!changes.taggedPhotoIds.contains(id) && !changes.deletedPhotoIds.contains(id)) {
+						index.addTag(tag, id);
+					}
+				}
+			}
+
+			PhotoManager photoManager = PhotoManager.getInstance();
+			List<Photo> photos = new ArrayList<Photo>();
+			SQLException[] failure = { null };
+			reader.readRows(row -> {
+				int id = ((Number) row.getValue("id")).intValue();
+				if (!changes.photos.containsKey(id) && !changes.deletedPhotoIds.contains(id)) {
+					try {
+						photos.add(photoManager.createObject(row.asResultSet()));
+					} catch (SQLException sex) {
+						failure[0] = sex;
+					}
+				}
+			});
+
+			UserManager userManager = UserManager.getInstance();
+			List<User> users = new ArrayList<User>();
+			reader.readRows(row -> {
+				int id = ((Number) row.getValue("id")).intValue();
+				if (!changes.users.containsKey(id) && !changes.deletedUserIds.contains(id)) {
+					try {
+						users.add(userManager.createObject(row.asResultSet()));
+					} catch (SQLException sex) {
+						failure[0] = sex;
+					}
+				}
+			});
+
+			PhotoCaseManager caseManager = PhotoCaseManager.getInstance();
+			List<PhotoCase> cases = new ArrayList<PhotoCase>();
+			reader.readRows(row -> {
+				int id = ((Number) row.getValue("id")).intValue();
+				if (!changes.cases.containsKey(id) && !changes.deletedCaseIds.contains(id)) {
+					try {
+						cases.add(caseManager.createObject(row.asResultSet()));
+					} catch (SQLException sex) {
+						failure[0] = sex;
+					}
+				}
+			});
+
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+
+			for (Photo photo : changes.photos.values()) {
+				index.addPhotoId(photo.getId().asInt(), photo.isVisible());
+				photos.add(photo);
+			}
+			changes.readTags(conn, index);
+			users.addAll(changes.users.values());
+			for (PhotoCase photoCase : changes.cases.values()) {
+				if (!photoCase.wasDecided()) {
+					cases.add(photoCase);
+				}
+			}
+
+			PhotoTagIndex.setInstance(index);
+			for (Photo photo : photos) {
+				photoManager.doAddPhoto(photo);
+			}
+			for (User user : users) {
+				userManager.doAddUser(user);
+			}
+			for (PhotoCase photoCase : cases) {
+				caseManager.doAddOpenPhotoCase(photoCase);
+			}
+
+			long age = (startTime - createdTime) / 1000;
+			SysLog.logSysInfo("restored model snapshot taken " + age + "s ago in " + (System.currentTimeMillis() - startTime) + "ms: "
+				+ index.getNoPhotos() + " indexed photos, " + photos.size() + " photos, " + users.size() + " users, " + cases.size() + " open cases; "
+				+ changes.getNoChanges() + " changes replayed");
+			return true;
+		} catch (Exception ex) {
+			SysLog.logSysError("could not restore model snapshot " + file);
+			SysLog.logThrowable(ex);
+			return false;
+		}
+	}
+
+	/**
+	 * @return reason why snapshot cannot be restored or null
+	 */
+	protected String getMismatch(Connection conn, long databaseId, int schemaVersion, String txidSnapshot) throws SQLException {
+		String query = "SELECT database_id, (SELECT max(version) FROM schema_version), snapshot_horizon <= txid_snapshot_xmin(?::txid_snapshot) FROM globals";
+		PreparedStatement stmt = conn.prepareStatement(query);
+		try {
+			stmt.setString(1, txidSnapshot);
+			ResultSet rset = stmt.executeQuery();
+			if (!rset.next()) {
+				return "no globals";
+			} else if (rset.getLong(1) != databaseId) {
+				return "taken of another database";
+			} else if (rset.getInt(2) != schemaVersion) {
+				return "taken of schema version " + schemaVersion + " instead of " + rset.getInt(2);
+			} else if (!rset.getBoolean(3)) {
+				return "older than the changes still tracked";
+			}
+			return null;
+		} finally {
+			stmt.close();
+		}
+	}
+
+	/**
+	 * The rows written by transactions not visible to a snapshot, read from the database
+	 */
+	protected static class Changes {
+
+		/**
+		 *
+		 */
+		protected Map<Integer, Photo> photos = new HashMap<Integer, Photo>();
+		protected Map<Integer, User> users = new HashMap<Integer, User>();
+		protected Map<Integer, PhotoCase> cases = new HashMap<Integer, PhotoCase>();
+
+		/**
+		 * Ids from the row_changes table
+		 */
+		protected Set<Integer> deletedPhotoIds = new HashSet<Integer>();
+		protected Set<Integer> deletedUserIds = new HashSet<Integer>();
+		protected Set<Integer> deletedCaseIds = new HashSet<Integer>();
+		protected Set<Integer> taggedPhotoIds = new HashSet<Integer>();
+
+		/**
+		 *
+		 */
+		protected void read(Connection conn, String txidSnapshot) throws SQLException {
+			String condition = " >= txid_snapshot_xmin(?::txid_snapshot) AND NOT txid_visible_in_snapshot(";
+			PhotoManager photoManager = PhotoManager.getInstance();
+			readRows(conn, "SELECT * FROM photos WHERE row_txid" + condition + "row_txid, ?::txid_snapshot)", txidSnapshot, rset -> {
+				Photo photo = photoManager.createObject(rset);
+				photos.put(photo.getId().asInt(), photo);
+			});
+
+			UserManager userManager = UserManager.getInstance();
+			readRows(conn, "SELECT * FROM users WHERE row_txid" + condition + "row_txid, ?::txid_snapshot)", txidSnapshot, rset -> {
+				User user = userManager.createObject(rset);
+				users.put(user.getId(), user);
+			});
+
+			PhotoCaseManager caseManager = PhotoCaseManager.getInstance();
+			readRows(conn, "SELECT * FROM cases WHERE row_txid" + condition + "row_txid, ?::txid_snapshot)", txidSnapshot, rset -> {
+				PhotoCase photoCase = caseManager.createObject(rset);
+				cases.put(photoCase.getId().asInt(), photoCase);
+			});
+
+			readRows(conn, "SELECT table_name, id FROM row_changes WHERE txid" + condition + "txid, ?::txid_snapshot)", txidSnapshot, rset -> {
+				String tableName = rset.getString(1);
+				int id = rset.getInt(2);
+				if (tableName.equals("photos")) {
+					deletedPhotoIds.add(id);
+				} else if (tableName.equals("users")) {
+					deletedUserIds.add(id);
+				} else if (tableName.equals("cases")) {
+					deletedCaseIds.add(id);
+				} else if (tableName.equals("tags")) {
+					taggedPhotoIds.add(id);
+				}
+			});
+		}
+
+		/**
+		 * Adds the current tags of all photos whose tags changed to index
+		 */
+		protected void readTags(Connection conn, PhotoTagIndex index) throws SQLException {
+			taggedPhotoIds.removeAll(deletedPhotoIds);
+			if (taggedPhotoIds.isEmpty()) {
+				return;
+			}
+
+			PreparedStatement stmt = conn.prepareStatement("SELECT tag, photo_id FROM tags WHERE photo_id = ANY(?)");
+			try {
+				stmt.setArray(1, conn.createArrayOf("integer", taggedPhotoIds.toArray()));
+				ResultSet rset = stmt.executeQuery();
+				while (rset.next()) {
+					index.addTag(rset.getString(1), rset.getInt(2));
+				}
+			} finally {
+				stmt.close();
+			}
+		}
+
+		/**
+		 *
+		 */
+		protected void readRows(Connection conn, String query, String txidSnapshot, ObjectManager.RowHandler handler) throws SQLException {
+			PreparedStatement stmt = conn.prepareStatement(query);
+			try {
+				stmt.setString(1, txidSnapshot);
+				stmt.setString(2, txidSnapshot);
+				ResultSet rset = stmt.executeQuery();
+				while (rset.next()) {
+					handler.handleRow(rset);
+				}
+			} finally {
+				stmt.close();
+			}
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected int getNoChanges() {
+			return photos.size() + users.size() + cases.size() + deletedPhotoIds.size() + deletedUserIds.size() + deletedCaseIds.size() + taggedPhotoIds.size();
+		}
+	}
+
+}
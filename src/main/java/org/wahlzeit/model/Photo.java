@@ -7,6 +7,8 @@ package org.wahlzeit.model;
 
 import java.sql.*;
 import java.net.*;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.wahlzeit.services.*;
 import org.wahlzeit.utils.*;
@@ -34,6 +36,14 @@ public class Photo extends DataObject {
 	public static final String IS_INVISIBLE = "isInvisible";
 	public static final String UPLOADED_ON = "uploadedOn";
 	
+	/**
+	 * Columns written by writeOn, besides id, so that setters can mark what changed
+	 */
+	protected static final ColumnMask COLUMNS = new ColumnMask(
+		"owner_id", "owner_name", "owner_notify_about_praise", "owner_email_address", "owner_language", "owner_home_page",
+		"width", "height", "tags", "status", "creation_time", "x_coordinate", "y_coordinate", "z_coordinate"
+	);
+	
 	/**
 	 * 
 	 */
@@ -81,11 +91,22 @@ public class Photo extends DataObject {
 	protected PhotoStatus status = PhotoStatus.VISIBLE;
 	
 	/**
-	 * 
+	 * Praise as read from the database or as initially stored
 	 */
 	protected int praiseSum = 10;
 	protected int noVotes = 1;
 	
+	/**
+	 * Praise added since; the praise columns are advanced by PhotoManager.flushPraises, not by writeOn
+	 */
+	protected transient LongAdder addedPraiseSum = new LongAdder();
+	protected transient LongAdder addedNoVotes = new LongAdder();
+	
+	/**
+	 * Tags as currently stored in the tags table, or null if unknown; maintained by PhotoManager
+	 */
+	protected transient volatile Set<String> persistedTags = null;
+	
 	/**
 	 * 
 	 */
@@ -125,6 +146,13 @@ public class Photo extends DataObject {
 		return String.valueOf(id.asInt());
 	}
 	
+	/**
+	 * 
+	 */
+	protected ColumnMask getColumnMask() {
+		return COLUMNS;
+	}
+	
 	/**
 	 * 
 	 */
@@ -177,8 +205,6 @@ public class Photo extends DataObject {
 		rset.updateInt("height", height);
 		rset.updateString("tags", tags.asString());
 		rset.updateInt("status", status.asInt());
-		rset.updateInt("praise_sum", praiseSum);
-		rset.updateInt("no_votes", noVotes);
 		rset.updateLong("creation_time", creationTime);
 
 		this.location.writeOn(rset);
@@ -213,7 +239,7 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerId(int newId) {
 		ownerId = newId;
-		incWriteCount();
+		incWriteCount(COLUMNS.get("owner_id"));
 	}
 	
 	/**
@@ -229,8 +255,12 @@ public class Photo extends DataObject {
 	 * @methodtype set
 	 */
 	public void setOwnerName(String newName) {
+		boolean isIndexed = PhotoTagIndex.getInstance().removePhoto(this);
 		ownerName = newName;
-		incWriteCount();
+		if (isIndexed) {
+			PhotoTagIndex.getInstance().addPhoto(this);
+		}
+		incWriteCount(COLUMNS.get("owner_name"));
 	}
 	
 	/**
@@ -263,7 +293,7 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerNotifyAboutPraise(boolean newNotifyAboutPraise) {
 		ownerNotifyAboutPraise = newNotifyAboutPraise;
-		incWriteCount();
+		incWriteCount(COLUMNS.get("owner_notify_about_praise"));
 	}
 
 	/**
@@ -280,7 +310,7 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerEmailAddress(EmailAddress newEmailAddress) {
 		ownerEmailAddress = newEmailAddress;
-		incWriteCount();
+		incWriteCount(COLUMNS.get("owner_email_address"));
 	}
 
 	/**
@@ -295,7 +325,7 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerLanguage(Language newLanguage) {
 		ownerLanguage = newLanguage;
-		incWriteCount();
+		incWriteCount(COLUMNS.get("owner_language"));
 	}
 
 	/**
@@ -312,7 +342,21 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerHomePage(URL newHomePage) {
 		ownerHomePage = newHomePage;
-		incWriteCount();
+		incWriteCount(COLUMNS.get("owner_home_page"));
+	}
+	
+	/**
+	 * Copies the owner attributes of owner without marking this photo dirty;
+	 * UserManager updates these columns for all photos of an owner with one statement.
+	 * 
+	 * @methodtype set
+	 * @methodproperties primitive
+	 */
+	protected void doSetOwnerAttributes(User owner) {
+		ownerNotifyAboutPraise = owner.getNotifyAboutPraise();
+		ownerEmailAddress = owner.getEmailAddress();
+		ownerLanguage = owner.getLanguage();
+		ownerHomePage = owner.getHomePage();
 	}
 	
 	/**
@@ -373,7 +417,7 @@ public class Photo extends DataObject {
 
 		maxPhotoSize = PhotoSize.getFromWidthHeight(width, height);
 
-		incWriteCount();
+		incWriteCount(COLUMNS.get("width", "height"));
 	}
 
 	public Location getLocation() {
@@ -382,6 +426,7 @@ public class Photo extends DataObject {
 
 	public void setLocation(Location location) {
 		this.location = location;
+		incWriteCount(COLUMNS.get("x_coordinate", "y_coordinate", "z_coordinate"));
 	}
 	
 	/**
@@ -406,7 +451,21 @@ public class Photo extends DataObject {
 	 * @methodtype get
 	 */
 	public double getPraise() {
-		return (double) praiseSum / noVotes;
+		return (double) getPraiseSum() / getNoVotes();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getPraiseSum() {
+		return praiseSum + addedPraiseSum.sum();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoVotes() {
+		return noVotes + addedNoVotes.sum();
 	}
 	
 	/**
@@ -418,12 +477,12 @@ public class Photo extends DataObject {
 	}
 	
 	/**
-	 * 
+	 * Counts a vote without making the photo dirty; PhotoManager writes it with the next flush of pending praise.
 	 */
 	public void addToPraise(int value) {
-		praiseSum += value;
-		noVotes += 1;
-		incWriteCount();
+		addedPraiseSum.add(value);
+		addedNoVotes.increment();
+		PhotoManager.getInstance().addPendingPraise(id, value);
 	}
 	
 	/**
@@ -448,7 +507,8 @@ public class Photo extends DataObject {
 	 */
 	public void setStatus(PhotoStatus newStatus) {
 		status = newStatus;
-		incWriteCount();
+		PhotoTagIndex.getInstance().updateVisibility(this);
+		incWriteCount(COLUMNS.get("status"));
 	}
 	
 	/**
@@ -466,14 +526,32 @@ public class Photo extends DataObject {
 	public Tags getTags() {
 		return tags;
 	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public Set<String> getPersistedTags() {
+		return persistedTags;
+	}
+	
+	/**
+	 * @methodtype set
+	 */
+	public void setPersistedTags(Set<String> newPersistedTags) {
+		persistedTags = newPersistedTags;
+	}
 
 	/**
 	 * 
 	 * @methodtype set
 	 */
 	public void setTags(Tags newTags) {
+		boolean isIndexed = PhotoTagIndex.getInstance().removePhoto(this);
 		tags = newTags;
-		incWriteCount();
+		if (isIndexed) {
+			PhotoTagIndex.getInstance().addPhoto(this);
+		}
+		incWriteCount(COLUMNS.get("tags"));
 	}
 	
 	/**
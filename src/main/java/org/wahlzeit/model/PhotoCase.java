@@ -7,6 +7,7 @@ package org.wahlzeit.model;
 
 import java.sql.*;
 
+import org.wahlzeit.services.*;
 
 /**
  * A photo case is a case where someone flagged a photo as inappropriate.
@@ -22,6 +23,13 @@ public class PhotoCase extends Case {
 	public static final String CREATED_ON = "createdOn";
 	public static final String WAS_DECIDED = "wasDecided";
 	public static final String DECIDED_ON = "decidedOn";
+	
+	/**
+	 * Columns written by writeOn, besides id, so that setters can mark what changed
+	 */
+	protected static final ColumnMask COLUMNS = new ColumnMask(
+		"photo", "creation_time", "flagger", "reason", "explanation", "was_decided", "decision_time"
+	);
 
 	/**
 	 * 
@@ -60,6 +68,13 @@ public class PhotoCase extends Case {
 		return String.valueOf(id);
 	}
 	
+	/**
+	 * 
+	 */
+	protected ColumnMask getColumnMask() {
+		return COLUMNS;
+	}
+	
 	/**
 	 * 
 	 */
@@ -132,7 +147,7 @@ public class PhotoCase extends Case {
 =	 */
 	public void setFlagger(String newFlagger) {
 		flagger = newFlagger;
-		incWriteCount();
+		incWriteCount(COLUMNS.get("flagger"));
 	}
 	
 	/**
@@ -147,7 +162,7 @@ public class PhotoCase extends Case {
 =	 */
 	public void setReason(FlagReason newReason) {
 		reason = newReason;
-		incWriteCount();
+		incWriteCount(COLUMNS.get("reason"));
 	}
 	
 	/**
@@ -162,7 +177,7 @@ public class PhotoCase extends Case {
 =	 */
 	public void setExplanation(String newExplanation) {
 		explanation = newExplanation;
-		incWriteCount();
+		incWriteCount(COLUMNS.get("explanation"));
 	}
 	
 	/**
@@ -178,7 +193,7 @@ public class PhotoCase extends Case {
 	public void setDecided() {
 		wasDecided = true;
 		decidedOn = System.currentTimeMillis();
-		incWriteCount();
+		incWriteCount(COLUMNS.get("was_decided", "decision_time"));
 	}
 	
 	/**
@@ -7,18 +7,32 @@ package org.wahlzeit.model;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.wahlzeit.services.*;
 
 /**
  * The photo case manager provides access to and manages persistent photo cases.
+ * Open photo cases are kept in a queue ordered by creation time, newest first, and indexed by photo and flagger,
+ * so moderation pages can be read page by page and deciding a case does not touch the other cases.
  */
 public class PhotoCaseManager extends ObjectManager {
 	
 	/**
 	 * 
 	 */
-	protected Map<CaseId, PhotoCase> openPhotoCases = new HashMap<CaseId, PhotoCase>();
+	protected Map<CaseId, PhotoCase> openPhotoCases = new ConcurrentHashMap<CaseId, PhotoCase>();
+	
+	/**
+	 * 
+	 */
+	protected NavigableMap<QueueKey, PhotoCase> openPhotoCaseQueue = new ConcurrentSkipListMap<QueueKey, PhotoCase>();
+	
+	/**
+	 * 
+	 */
+	protected Map<PhotoId, Set<PhotoCase>> openPhotoCasesByPhoto = new ConcurrentHashMap<PhotoId, Set<PhotoCase>>();
+	protected Map<String, Set<PhotoCase>> openPhotoCasesByFlagger = new ConcurrentHashMap<String, Set<PhotoCase>>();
 
 	/**
 	 * 
@@ -46,13 +60,68 @@ public class PhotoCaseManager extends ObjectManager {
 	 * @methodproperty regular
 	 */
 	protected void initialize() {
+		WriteBehindQueue.getInstance().setWriter(PhotoCase.class, objects -> updateObjects(objects, "cases"));
+	}
+	
+	/**
+	 * @methodtype command
+	 * 
+	 * Loads all open photo cases, unless restored from a ModelSnapshot. Executed when Wahlzeit is started.
+	 */
+	public void loadOpenPhotoCases() {
 		Collection<PhotoCase> opc = new LinkedList<PhotoCase>();
 		loadOpenPhotoCases(opc);
 		for (PhotoCase pc : opc) {
-			openPhotoCases.put(pc.getId(), pc);
+			doAddOpenPhotoCase(pc);
+		}
+	}
+	
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doAddOpenPhotoCase(PhotoCase myCase) {
+		if (openPhotoCases.putIfAbsent(myCase.getId(), myCase) != null) {
+			return;
+		}
+		
+		openPhotoCaseQueue.put(new QueueKey(myCase), myCase);
+		if (myCase.getPhoto() != null) {
+			openPhotoCasesByPhoto.computeIfAbsent(myCase.getPhoto().getId(), key -> ConcurrentHashMap.newKeySet()).add(myCase);
+		}
+		if (myCase.getFlagger() != null) {
+			openPhotoCasesByFlagger.computeIfAbsent(myCase.getFlagger(), key -> ConcurrentHashMap.newKeySet()).add(myCase);
 		}
 	}
 	
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doRemoveOpenPhotoCase(PhotoCase myCase) {
+		if (openPhotoCases.remove(myCase.getId()) == null) {
+			return;
+		}
+		
+		openPhotoCaseQueue.remove(new QueueKey(myCase));
+		if (myCase.getPhoto() != null) {
+			removeFromIndex(openPhotoCasesByPhoto, myCase.getPhoto().getId(), myCase);
+		}
+		if (myCase.getFlagger() != null) {
+			removeFromIndex(openPhotoCasesByFlagger, myCase.getFlagger(), myCase);
+		}
+	}
+	
+	/**
+	 * @methodtype helper
+	 */
+	protected static <K> void removeFromIndex(Map<K, Set<PhotoCase>> index, K key, PhotoCase myCase) {
+		index.computeIfPresent(key, (k, cases) -> {
+			cases.remove(myCase);
+			return cases.isEmpty() ? null : cases;
+		});
+	}
+	
 	/**
 	 * 
 	 * @methodtype factory
@@ -66,10 +135,10 @@ public class PhotoCaseManager extends ObjectManager {
 	 * @methodtype get
 	 */
 	public PhotoCase getPhotoCase(int id) {
-		PhotoCase result = openPhotoCases.get(id);
+		PhotoCase result = openPhotoCases.get(new CaseId(id));
 		if (result == null) {
 			try {
-				PreparedStatement stmt = getReadingStatement("SELECT * FROM cases WHERE id = ?");
+				PreparedStatement stmt = getReadingStatement("SELECT * FROM cases WHERE id = ?", PhotoCase.class, String.valueOf(id));
 				result = (PhotoCase) readObject(stmt, id);
 			} catch (SQLException sex) {
 				SysLog.logThrowable(sex);
@@ -84,12 +153,11 @@ public class PhotoCaseManager extends ObjectManager {
 	 * @methodtype command
 	 */
 	public void addPhotoCase(PhotoCase myCase) {
-		openPhotoCases.put(myCase.getId(), myCase);
+		doAddOpenPhotoCase(myCase);
 		try {
 			PreparedStatement stmt1 = getReadingStatement("INSERT INTO cases(id) VALUES(?)");
 			createObject(myCase, stmt1, myCase.getId().asInt());
-			PreparedStatement stmt2 = getUpdatingStatement("SELECT * FROM cases WHERE id = ?");
-			updateObject(myCase, stmt2);
+			updateObject(myCase, "cases");
 			// @FIXME Main.saveGlobals();
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
@@ -101,10 +169,9 @@ public class PhotoCaseManager extends ObjectManager {
 	 * @methodtype command
 	 */
 	public void removePhotoCase(PhotoCase myCase) {
-		openPhotoCases.remove(myCase.getId());
+		doRemoveOpenPhotoCase(myCase);
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM cases WHERE id = ?");
-			updateObject(myCase, stmt);
+			updateObject(myCase, "cases");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -131,23 +198,80 @@ public class PhotoCaseManager extends ObjectManager {
 	 */
 	public void savePhotoCases() {
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM cases WHERE id = ?");
-			updateObjects(openPhotoCases.values(), stmt);
+			updateObjects(openPhotoCases.values(), "cases");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
 	}
 	
+	/**
+	 * 
+	 * @methodtype get
+	 */
+	public int getNoOpenPhotoCases() {
+		return openPhotoCases.size();
+	}
+	
 	/**
 	 * 
 	 * @methodtype get
 	 */
 	public PhotoCase[] getOpenPhotoCasesByAscendingAge() {
-		PhotoCase[] resultArray = openPhotoCases.values().toArray(new PhotoCase[0]);
-		Arrays.sort(resultArray, getPhotoCasesByAscendingAgeComparator());
-		return resultArray;
+		return openPhotoCaseQueue.values().toArray(new PhotoCase[0]);
+	}
+	
+	/**
+	 * Returns at most maxNoCases open photo cases, newest first, that follow the case of cursor.
+	 * An empty or unknown cursor starts with the newest case; the cursor of a case is getQueueCursor(case).
+	 * 
+	 * @methodtype get
+	 */
+	public List<PhotoCase> getOpenPhotoCasesByAscendingAge(String cursor, int maxNoCases) {
+		QueueKey after = QueueKey.fromCursor(cursor);
+		Collection<PhotoCase> cases = (after == null) ? openPhotoCaseQueue.values() : openPhotoCaseQueue.tailMap(after, false).values();
+		
+		List<PhotoCase> result = new ArrayList<PhotoCase>(Math.min(maxNoCases, openPhotoCases.size()));
+		for (Iterator<PhotoCase> i = cases.iterator(); i.hasNext() && (result.size() < maxNoCases); ) {
+			result.add(i.next());
+		}
+		
+		return result;
 	}
 	
+	/**
+	 * @methodtype get
+	 */
+	public boolean hasOpenPhotoCasesAfter(String cursor) {
+		QueueKey after = QueueKey.fromCursor(cursor);
+		return (after == null) ? !openPhotoCaseQueue.isEmpty() : (openPhotoCaseQueue.higherKey(after) != null);
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public static String getQueueCursor(PhotoCase myCase) {
+		return new QueueKey(myCase).asCursor();
+	}
+	
+	/**
+	 * 
+	 * @methodtype get
+	 */
+	public Set<PhotoCase> getOpenPhotoCasesOfPhoto(PhotoId photoId) {
+		Set<PhotoCase> result = openPhotoCasesByPhoto.get(photoId);
+		return (result == null) ? Collections.<PhotoCase>emptySet() : Collections.unmodifiableSet(result);
+	}
+	
+	/**
+	 * 
+	 * @methodtype get
+	 */
+	public Set<PhotoCase> getOpenPhotoCasesOfFlagger(String flagger) {
+		Set<PhotoCase> result = (flagger == null) ? null : openPhotoCasesByFlagger.get(flagger);
+		return (result == null) ? Collections.<PhotoCase>emptySet() : Collections.unmodifiableSet(result);
+	}
+	
+	
 	/**
 	 * @methodtype get
 	 */
@@ -166,4 +290,79 @@ public class PhotoCaseManager extends ObjectManager {
 			}
 		};
 	}
+	
+	/**
+	 * Position of an open photo case in the queue: newest first, cases of the same creation time by id.
+	 * Creation time and id of a case never change, so its key can be recomputed to remove it.
+	 */
+	protected static class QueueKey implements Comparable<QueueKey> {
+		
+		/**
+		 * 
+		 */
+		protected final long creationTime;
+		protected final int id;
+		
+		/**
+		 * 
+		 */
+		protected QueueKey(long myCreationTime, int myId) {
+			creationTime = myCreationTime;
+			id = myId;
+		}
+		
+		/**
+		 * 
+		 */
+		protected QueueKey(PhotoCase myCase) {
+			this(myCase.getCreationTime(), myCase.getId().asInt());
+		}
+		
+		/**
+		 * @return null if cursor is empty or malformed
+		 */
+		protected static QueueKey fromCursor(String cursor) {
+			if ((cursor == null) || cursor.isEmpty()) {
+				return null;
+			}
+			
+			int separator = cursor.indexOf('-');
+			try {
+				return new QueueKey(Long.parseLong(cursor.substring(0, separator)), Integer.parseInt(cursor.substring(separator + 1)));
+			} catch (RuntimeException ex) {
+				return null;
+			}
+		}
+		
+		/**
+		 * 
+		 */
+		protected String asCursor() {
+			return creationTime + "-" + id;
+		}
+		
+		/**
+		 * 
+		 */
+		public int compareTo(QueueKey other) {
+			int result = Long.compare(other.creationTime, creationTime);
+			return (result != 0) ? result : Integer.compare(id, other.id);
+		}
+		
+		/**
+		 * 
+		 */
+		public boolean equals(Object obj) {
+			return (obj instanceof QueueKey) && (compareTo((QueueKey) obj) == 0);
+		}
+		
+		/**
+		 * 
+		 */
+		public int hashCode() {
+			return Long.hashCode(creationTime) * 31 + id;
+		}
+		
+	}
+	
 }
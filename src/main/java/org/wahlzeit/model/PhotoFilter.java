@@ -7,6 +7,7 @@ package org.wahlzeit.model;
 
 import java.util.*;
 
+import org.wahlzeit.utils.CompressedBitmap;
 import org.wahlzeit.utils.StringUtil;
 
 /**
@@ -30,8 +31,19 @@ public class PhotoFilter {
 	/**
 	 * 
 	 */
-	protected List<PhotoId> displayablePhotoIds = new LinkedList<PhotoId>();
-	protected List<PhotoId> processedPhotoIds = new LinkedList<PhotoId>();
+	protected static final int[] NO_PHOTO_IDS = new int[0];
+	
+	/**
+	 * Pool of candidate photo ids; only the first noDisplayablePhotoIds entries are valid.
+	 * Processed ids are removed lazily, when they are drawn.
+	 */
+	protected int[] displayablePhotoIds = NO_PHOTO_IDS;
+	protected int noDisplayablePhotoIds = 0;
+	
+	/**
+	 * 
+	 */
+	protected CompressedBitmap processedPhotoIds = new CompressedBitmap();
 	
 	/**
 	 * 
@@ -58,7 +70,7 @@ public class PhotoFilter {
 	public void clear() {
         setUserName("");
         setTags(Tags.EMPTY_TAGS);
-		displayablePhotoIds.clear();
+		resetDisplayablePhotoIds();
 		processedPhotoIds.clear();
 	}
 	
@@ -114,40 +126,58 @@ public class PhotoFilter {
 	 * 
 	 */
 	public PhotoId getRandomDisplayablePhotoId() {
-		if (!displayablePhotoIds.isEmpty()) {
-			int size = displayablePhotoIds.size();
-			int index = ((randomNumber.nextInt() % size) + size) / 2;
-			return displayablePhotoIds.get(index);
-		} else {
-			return PhotoId.NULL_ID;
+		int id = getRandomDisplayablePhotoIdAsInt();
+		return (id != 0) ? PhotoId.getIdFromInt(id) : PhotoId.NULL_ID;
+	}
+	
+	/**
+	 * Draws uniformly from all displayable photo ids not yet processed, dropping processed ones on the way.
+	 * 
+	 * @return photo id or 0 if there is none
+	 */
+	protected int getRandomDisplayablePhotoIdAsInt() {
+		while (noDisplayablePhotoIds > 0) {
+			int index = randomNumber.nextInt(noDisplayablePhotoIds);
+			int id = displayablePhotoIds[index];
+			if (!processedPhotoIds.contains(id)) {
+				return id;
+			}
+
+			// swap-remove: move last id into the hole
+			noDisplayablePhotoIds--;
+			displayablePhotoIds[index] = displayablePhotoIds[noDisplayablePhotoIds];
 		}
+		
+		return 0;
 	}
 
 	/**
 	 * 
 	 */
-	public List<PhotoId> getDisplayablePhotoIds() {
-		return displayablePhotoIds;
+	public int getNoDisplayablePhotoIds() {
+		return noDisplayablePhotoIds;
 	}
 	
 	/**
 	 * 
 	 */
-	public void setDisplayablePhotoIds(List<PhotoId> newPhotoIds) {
-		displayablePhotoIds = newPhotoIds;
+	public void setDisplayablePhotoIds(CompressedBitmap newPhotoIds) {
+		displayablePhotoIds = newPhotoIds.asArray();
+		noDisplayablePhotoIds = displayablePhotoIds.length;
 	}
 	
 	/**
 	 * 
 	 */
 	public void resetDisplayablePhotoIds() {
-		displayablePhotoIds = new LinkedList<PhotoId>();
+		displayablePhotoIds = NO_PHOTO_IDS;
+		noDisplayablePhotoIds = 0;
 	}
 	
 	/**
 	 * 
 	 */
-	public List<PhotoId> getProcessedPhotoIds() {
+	public CompressedBitmap getProcessedPhotoIds() {
 		return processedPhotoIds;
 	}
 	
@@ -155,17 +185,14 @@ public class PhotoFilter {
 	 * 
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
-		return processedPhotoIds.contains(photoId);
+		return processedPhotoIds.contains(photoId.asInt());
 	}
 	
 	/**
 	 * 
 	 */
 	public void addProcessedPhoto(Photo photo) {
-		processedPhotoIds.add(photo.getId());
-		if (displayablePhotoIds != null) {
-			displayablePhotoIds.remove(photo.getId());
-		}
+		processedPhotoIds.add(photo.getId().asInt());
 	}
 	
 }
@@ -7,6 +7,8 @@ package org.wahlzeit.model;
 
 import java.util.Random;
 
+import org.wahlzeit.services.IdAllocator;
+
 /**
  * A photo id identifies a photo with a unique number.
  * The number has an equivalent string for web access. 
@@ -17,22 +19,28 @@ public class PhotoId {
 	/**
 	 * 0 is never returned from nextValue; first value is 1
 	 */
-	protected static int currentId = 0;
+	protected static final IdAllocator idAllocator = new IdAllocator("last_photo_id", 256);
 	
 	/**
 	 * 
 	 */
 	public static final int BUFFER_SIZE_INCREMENT = 64;
 	
+	/**
+	 * How far beyond the ids leased by this node the id buffer grows for ids leased by other nodes
+	 */
+	public static final int MAX_BUFFER_HEADROOM = 1 << 20;
+	
 	/**
 	 * 
 	 */
 	public static final PhotoId NULL_ID = new PhotoId(0);
 	
 	/**
-	 * 
+	 * Interned ids by value; replaced when growing, so only changed while holding idsLock
 	 */
-	protected static PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
+	protected static volatile PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
+	protected static final Object idsLock = new Object();
 	
 	/**
 	 * What a hack :-)
@@ -48,43 +56,81 @@ public class PhotoId {
 	 * 
 	 */
 	public static int getCurrentIdAsInt() {
-		return currentId;
+		return idAllocator.getLastId();
 	}
 	
 	/**
 	 * 
 	 */
-	public static synchronized void setCurrentIdFromInt(int id) {
-		currentId = id;
-		ids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-		ids[0] = NULL_ID;
+	public static void setCurrentIdFromInt(int id) {
+		synchronized (idsLock) {
+			idAllocator.setLastId(id);
+			PhotoId[] nids = new PhotoId[id + BUFFER_SIZE_INCREMENT];
+			nids[0] = NULL_ID;
+			ids = nids;
+		}
 	}
 	
 	/**
-	 * 
+	 * @methodtype get
 	 */
-	public static synchronized int getNextIdAsInt() {
-		currentId += 1;
-		if (currentId >= ids.length) {
-			PhotoId[] nids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-			System.arraycopy(ids, 0, nids, 0, currentId);
-			ids = nids;
+	public static IdAllocator getIdAllocator() {
+		return idAllocator;
+	}
+	
+	/**
+	 * Hands out ids from the current block without locking; only growing the id buffer is synchronized.
+	 */
+	public static int getNextIdAsInt() {
+		int result = idAllocator.getNextId();
+		if (result >= ids.length) {
+			ensureCapacity(result);
 		}
-		return currentId;
+		return result;
 	}
-
+	
+	/**
+	 * Grows the id buffer so that it can hold id, by at least half of its size to keep copying rare
+	 */
+	protected static void ensureCapacity(int id) {
+		synchronized (idsLock) {
+			PhotoId[] oids = ids;
+			if (id >= oids.length) {
+				int length = Math.max(id + BUFFER_SIZE_INCREMENT, oids.length + oids.length / 2);
+				PhotoId[] nids = new PhotoId[length];
+				System.arraycopy(oids, 0, nids, 0, oids.length);
+				ids = nids;
+			}
+		}
+	}
+	
 	/**
+	 * @methodtype boolean-query
 	 * 
+	 * Ids may have been leased by other nodes sharing the globals table, so there is no exact upper bound;
+	 * the headroom only keeps made-up ids, e.g. from URLs, from growing the buffer without limit.
+	 */
+	protected static boolean isInternableId(int id) {
+		return id < Math.max(ids.length, idAllocator.getLastLeasedId() + MAX_BUFFER_HEADROOM);
+	}
+
+	/**
+	 * Returns the interned id for id; ids too far beyond the leased ones are equal but not interned
 	 */
 	public static PhotoId getIdFromInt(int id) {
-		if ((id < 0) || (id > currentId)) {
+		if (id <= 0) {
 			return NULL_ID;
 		}
 		
-		// @FIXME http://en.wikipedia.org/wiki/Double-checked_locking
-		PhotoId result = ids[id];
+		if (!isInternableId(id)) {
+			return new PhotoId(id);
+		}
+		
+		PhotoId[] cids = ids;
+		PhotoId result = (id < cids.length) ? cids[id] : null;
 		if (result == null) {
-			synchronized(ids) {
+			synchronized (idsLock) {
+				ensureCapacity(id);
 				result = ids[id];
 				if (result == null) {
 					result = new PhotoId(id);
@@ -124,8 +170,8 @@ public class PhotoId {
 	/**
 	 * 
 	 */
-	protected int value = 0;
-	protected String stringValue = null;
+	protected final int value;
+	protected final String stringValue;
 
 	/**
 	 * 
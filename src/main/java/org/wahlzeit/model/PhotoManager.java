@@ -8,9 +8,11 @@ package org.wahlzeit.model;
 import java.io.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.wahlzeit.main.*;
 import org.wahlzeit.services.*;
+import org.wahlzeit.utils.*;
 
 /**
  * A photo manager provides access to and manages photos.
@@ -35,15 +37,22 @@ public class PhotoManager extends ObjectManager {
 	protected static PhotoManager instance;
 
 	/**
-	 * In-memory cache for photos
+	 * In-memory cache for photos; dirty photos stay cached until saved.
+	 * There is at most one Photo per id: users, sessions, and cases hold photos directly,
+	 * so evicted photos they still reference are revived instead of being read again.
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	protected BoundedCache<PhotoId, Photo> photoCache = null;
 
 	/**
 	 * 
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
 	
+	/**
+	 * Praise counted in memory but not yet added to the praise columns of the photos table
+	 */
+	protected ConcurrentMap<PhotoId, PraiseDelta> pendingPraises = new ConcurrentHashMap<PhotoId, PraiseDelta>();
+	
 	/**
 	 * 
 	 */
@@ -86,7 +95,10 @@ public class PhotoManager extends ObjectManager {
 	 * 
 	 */
 	public PhotoManager() {
+		photoCache = new BoundedCache<PhotoId, Photo>(SysConfig.getPhotoCacheSizeAsInt(), this::isPinned);
+		photoCache.setKeepingEvictedValues(true);
 		photoTagCollector = PhotoFactory.getInstance().createPhotoTagCollector();
+		WriteBehindQueue.getInstance().setWriter(Photo.class, objects -> updateObjects(objects, "photos"));
 	}
 	
 	/**
@@ -109,13 +121,13 @@ public class PhotoManager extends ObjectManager {
 		
 		if (result == null) {
 			try {
-				PreparedStatement stmt = getReadingStatement("SELECT * FROM photos WHERE id = ?");
+				PreparedStatement stmt = getReadingStatement("SELECT * FROM photos WHERE id = ?", Photo.class, String.valueOf(id.asInt()));
 				result = (Photo) readObject(stmt, id.asInt());
 			} catch (SQLException sex) {
 				SysLog.logThrowable(sex);
 			}
 			if (result != null) {
-				doAddPhoto(result);
+				result = doAddPhoto(result);
 			}
 		}
 		
@@ -134,7 +146,9 @@ public class PhotoManager extends ObjectManager {
 	 * 
 	 */
 	protected Photo createObject(ResultSet rset) throws SQLException {
-		return PhotoFactory.getInstance().createPhoto(rset);
+		Photo result = PhotoFactory.getInstance().createPhoto(rset);
+		result.setPersistedTags(collectTags(result));
+		return result;
 	}
 	
 	/**
@@ -146,11 +160,14 @@ public class PhotoManager extends ObjectManager {
 		PhotoId id = photo.getId();
 		assertIsNewPhoto(id);
 		doAddPhoto(photo);
+		PhotoTagIndex.getInstance().addPhoto(photo);
 
 		try {
-			PreparedStatement stmt = getReadingStatement("INSERT INTO photos(id) VALUES(?)");
+			PreparedStatement stmt = getReadingStatement("INSERT INTO photos(id, praise_sum, no_votes) VALUES(?, ?, ?)");
+			stmt.setLong(2, photo.praiseSum);
+			stmt.setLong(3, photo.noVotes);
 			createObject(photo, stmt, id.asInt());
-			ServiceMain.getInstance().saveGlobals();
+			photo.setPersistedTags(Collections.<String>emptySet());
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -159,31 +176,64 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 * @methodproperties primitive
+	 * 
+	 * @return the photo cached for myPhoto's id, which is myPhoto unless another thread was faster
+	 */
+	protected Photo doAddPhoto(Photo myPhoto) {
+		Photo result = photoCache.putIfAbsent(myPhoto.getId(), myPhoto);
+		return (result != null) ? result : myPhoto;
+	}
+	
+	/**
+	 * @methodtype get
 	 */
-	protected void doAddPhoto(Photo myPhoto) {
-		photoCache.put(myPhoto.getId(), myPhoto);
+	public BoundedCache<PhotoId, Photo> getPhotoCache() {
+		return photoCache;
 	}
 
 	/**
 	 * @methodtype command
+	 *
+	 * Loads all photos with a single query and groups them by the id of their owner.
 	 */
-	public void loadPhotos(Collection<Photo> result) {
+	public Map<Integer, Set<Photo>> loadPhotosByOwnerId() {
+		Map<Integer, Set<Photo>> result = new ConcurrentHashMap<Integer, Set<Photo>>();
+		
+		int noPhotos = 0;
 		try {
-			PreparedStatement stmt = getReadingStatement("SELECT * FROM photos");
-			readObjects(result, stmt);
-			for (Iterator<Photo> i = result.iterator(); i.hasNext(); ) {
-				Photo photo = i.next();
-				if (!doHasPhoto(photo.getId())) {
-					doAddPhoto(photo);
-				} else {
-					SysLog.logSysInfo("photo", photo.getId().asString(), "photo had already been loaded");
-				}
-			}
+			noPhotos = this.<Photo>loadObjects("SELECT * FROM photos", photo -> {
+				Photo cachedPhoto = doAddPhoto(photo);
+				result.computeIfAbsent(cachedPhoto.getOwnerId(), ownerId -> ConcurrentHashMap.<Photo>newKeySet()).add(cachedPhoto);
+			});
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
 		
-		SysLog.logSysInfo("loaded all photos");
+		SysLog.logSysInfo("loaded " + noPhotos + " photos of " + result.size() + " owners");
+		return result;
+	}
+	
+	/**
+	 * @methodtype command
+	 *
+	 * Builds the in-memory tag index from the photos and tags tables. Executed when Wahlzeit is started.
+	 */
+	public void loadTagIndex() {
+		PhotoTagIndex index = PhotoTagIndex.getInstance();
+		index.clear();
+		
+		try {
+			scanRows("SELECT id, status FROM photos", rset -> {
+				boolean isVisible = PhotoStatus.getFromInt(rset.getInt("status")).isDisplayable();
+				index.addPhotoId(rset.getInt("id"), isVisible);
+			});
+			
+			scanRows("SELECT tag, photo_id FROM tags", rset -> index.addTag(rset.getString("tag"), rset.getInt("photo_id")));
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+		
+		SysLog.logSysInfo("loaded tag index: " + index.getNoPhotos() + " photos (" + index.getNoVisiblePhotos() + " visible), " + index.getNoTags() + " tags, " + index.getSizeInBytes() + " bytes");
 	}
 	
 	/**
@@ -191,42 +241,162 @@ public class PhotoManager extends ObjectManager {
 	 */
 	public void savePhoto(Photo photo) {
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM photos WHERE id = ?");
-			updateObject(photo, stmt);
+			updateObject(photo, "photos");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
 	}
 	
+	/**
+	 * Returns the cached photos of an owner, without reading any photos from the database
+	 */
+	public List<Photo> getCachedPhotosByOwner(int ownerId) {
+		List<Photo> result = new ArrayList<Photo>();
+		for (Photo photo : photoCache.values()) {
+			if (photo.getOwnerId() == ownerId) {
+				result.add(photo);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 * 
+	 * Dirty photos and photos with pending praise must not be evicted from the photo cache
+	 */
+	protected boolean isPinned(Photo photo) {
+		return photo.isDirty() || pendingPraises.containsKey(photo.getId());
+	}
+	
+	/**
+	 * @methodtype command
+	 * 
+	 * Counts one vote of value for the photo until the next flush of pending praise
+	 */
+	public void addPendingPraise(PhotoId id, int value) {
+		pendingPraises.compute(id, (key, delta) -> {
+			PraiseDelta result = (delta == null) ? new PraiseDelta() : delta;
+			result.add(value, 1);
+			return result;
+		});
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasPendingPraise(PhotoId id) {
+		return pendingPraises.containsKey(id);
+	}
+	
+	/**
+	 * @methodtype command
+	 * 
+	 * Adds all pending praise to the praise columns of the photos table, using one UPDATE ... SET praise_sum = praise_sum + ?
+	 * per photo in JDBC batches, so that concurrent votes never overwrite each other. Pending praise that cannot be written
+	 * is kept for the next flush.
+	 * 
+	 * @return number of photos whose praise was written
+	 */
+	public int flushPraises() {
+		Map<PhotoId, PraiseDelta> praises = new LinkedHashMap<PhotoId, PraiseDelta>();
+		for (PhotoId id : pendingPraises.keySet()) {
+			// removing a delta makes sure no vote gets added to it afterwards
+			PraiseDelta delta = pendingPraises.remove(id);
+			if (delta != null) {
+				praises.put(id, delta);
+			}
+		}
+		
+		if (praises.isEmpty()) {
+			return 0;
+		}
+		
+		try {
+			writePraises(praises);
+			return praises.size();
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+			for (Map.Entry<PhotoId, PraiseDelta> entry : praises.entrySet()) {
+				pendingPraises.merge(entry.getKey(), entry.getValue(), PraiseDelta::merge);
+			}
+			return 0;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void writePraises(Map<PhotoId, PraiseDelta> praises) throws SQLException {
+		String query = "UPDATE photos SET praise_sum = praise_sum + ?, no_votes = no_votes + ? WHERE id = ?";
+		Connection conn = getDatabaseConnection().getRdbmsConnection();
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			PreparedStatement stmt = getReadingStatement(query);
+			int noBatched = 0;
+			for (Map.Entry<PhotoId, PraiseDelta> entry : praises.entrySet()) {
+				PraiseDelta delta = entry.getValue();
+				stmt.setLong(1, delta.praiseSum);
+				stmt.setLong(2, delta.noVotes);
+				stmt.setInt(3, entry.getKey().asInt());
+				stmt.addBatch();
+				if (++noBatched == batchSize) {
+					stmt.executeBatch();
+					noBatched = 0;
+				}
+			}
+			
+			if (noBatched > 0) {
+				stmt.executeBatch();
+			}
+			
+			SysLog.logQuery(query + " [" + praises.size() + " photos]");
+			conn.commit();
+		} catch (SQLException sex) {
+			conn.rollback();
+			throw sex;
+		} finally {
+			conn.setAutoCommit(wasAutoCommit);
+		}
+	}
+	
 	/**
 	 * 
 	 */
 	public void savePhotos() {
+		flushPraises();
+
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM photos WHERE id = ?");
-			updateObjects(photoCache.values(), stmt);
+			updateObjects(photoCache.values(), "photos");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
+		
+		SysLog.logSysInfo("photo cache: " + photoCache.asStatisticsString());
 	}
 	
 	/**
 	 * @methodtype command
 	 *
-	 * Persists all available sizes of the Photo. If one size exceeds the limit of the persistence layer, e.g. > 1MB for
-	 * the Datastore, it is simply not persisted.
+	 * Returns the photos of an owner, preferring already cached, possibly modified photos;
+	 * includes cached photos that were given to the owner but not yet written.
 	 */
-	public Set<Photo> findPhotosByOwner(String ownerName) {
-		Set<Photo> result = new HashSet<Photo>();
+	public Set<Photo> findPhotosByOwner(int ownerId) {
+		Set<Photo> photos = new HashSet<Photo>();
 		try {
-			PreparedStatement stmt = getReadingStatement("SELECT * FROM photos WHERE owner_name = ?");
-			readObjects(result, stmt, ownerName);
+			PreparedStatement stmt = getReadingStatement("SELECT * FROM photos WHERE owner_id = ?");
+			readObjects(photos, stmt, ownerId);
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
 		
-		for (Iterator<Photo> i = result.iterator(); i.hasNext(); ) {
-			doAddPhoto(i.next());
+		Set<Photo> result = new HashSet<Photo>(getCachedPhotosByOwner(ownerId));
+		for (Iterator<Photo> i = photos.iterator(); i.hasNext(); ) {
+			Photo photo = doAddPhoto(i.next());
+			if (photo.getOwnerId() == ownerId) {
+				result.add(photo);
+			}
 		}
 
 		return result;
@@ -239,8 +409,7 @@ public class PhotoManager extends ObjectManager {
 		Photo result = getPhotoFromFilter(filter);
 		
 		if(result == null) {
-			java.util.List<PhotoId> list = getFilteredPhotoIds(filter);
-			filter.setDisplayablePhotoIds(list);
+			filter.setDisplayablePhotoIds(getFilteredPhotoIds(filter));
 			result = getPhotoFromFilter(filter);
 		}
 
@@ -254,11 +423,10 @@ public class PhotoManager extends ObjectManager {
 		PhotoId id = filter.getRandomDisplayablePhotoId();
 		Photo result = getPhotoFromId(id);
 		while((result != null) && !result.isVisible()) {
+			// displayable ids only contain visible photos; photo was hidden after filter was set up
+			filter.addProcessedPhoto(result);
 			id = filter.getRandomDisplayablePhotoId();
 			result = getPhotoFromId(id);
-			if ((result != null) && !result.isVisible()) {
-				filter.addProcessedPhoto(result);
-			}
 		}
 		
 		return result;
@@ -267,80 +435,80 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * 
 	 */
-	protected java.util.List<PhotoId> getFilteredPhotoIds(PhotoFilter filter) {
-		java.util.List<PhotoId> result = new LinkedList<PhotoId>();
-
-		try {
-			java.util.List<String> filterConditions = filter.getFilterConditions();
-
-			int noFilterConditions = filterConditions.size();
-			PreparedStatement stmt = getUpdatingStatementFromConditions(noFilterConditions);
-			for (int i = 0; i < noFilterConditions; i++) {
-				stmt.setString(i + 1, filterConditions.get(i));
-			}
-			
-			SysLog.logQuery(stmt);
-			ResultSet rset = stmt.executeQuery();
-
-			if (noFilterConditions == 0) {
-				noFilterConditions++;
-			}
-
-			int[] ids = new int[PhotoId.getCurrentIdAsInt() + 1];
-			while(rset.next()) {
-				int id = rset.getInt("photo_id");
-				if (++ids[id] == noFilterConditions) {
-					PhotoId photoId = PhotoId.getIdFromInt(id);
-					if (!filter.isProcessedPhotoId(photoId)) {
-						result.add(photoId);
-					}
-				}
-			}
-		} catch (SQLException sex) {
-			SysLog.logThrowable(sex);
-		}
-		
-		return result;
+	protected CompressedBitmap getFilteredPhotoIds(PhotoFilter filter) {
+		CompressedBitmap ids = PhotoTagIndex.getInstance().getVisiblePhotoIds(filter.getFilterConditions());
+		return CompressedBitmap.andNot(ids, filter.getProcessedPhotoIds());
 	}
 		
 	/**
 	 * 
 	 */
-	protected PreparedStatement getUpdatingStatementFromConditions(int no) throws SQLException {
-		String query = "SELECT * FROM tags";
-		if (no > 0) {
-			query += " WHERE";
+	protected void updateDependents(Persistent obj) throws SQLException {
+		Photo photo = (Photo) obj;
+		PhotoId id = photo.getId();
+		
+		Set<String> tags = collectTags(photo);
+		Set<String> lastTags = photo.getPersistedTags();
+		if (tags.equals(lastTags)) {
+			return; // e.g. only praise or status changed
 		}
 
-		for (int i = 0; i < no; i++) {
-			if (i > 0) {
-				query += " OR";
-			}
-			query += " (tag = ?)";
+		Set<String> removedTags = Collections.emptySet();
+		if (lastTags == null) {
+			deleteTags(photo);
+			lastTags = Collections.emptySet();
+		} else {
+			removedTags = new HashSet<String>(lastTags);
+			removedTags.removeAll(tags);
 		}
 		
-		return getUpdatingStatement(query);
+		Set<String> addedTags = new HashSet<String>(tags);
+		addedTags.removeAll(lastTags);
+		
+		writeTags("DELETE FROM tags WHERE photo_id = ? AND tag = ANY(?)", removedTags, id);
+		writeTags("INSERT INTO tags(photo_id, tag) SELECT ?, tag FROM unnest(?::text[]) AS tag", addedTags, id);
+		
+		photo.setPersistedTags(tags);
 	}
 	
 	/**
-	 * 
+	 * Deletes all tags of photo, e.g. if it is not known which are stored
 	 */
-	protected void updateDependents(Persistent obj) throws SQLException {
-		Photo photo = (Photo) obj;
-		
+	protected void deleteTags(Photo photo) throws SQLException {
 		PreparedStatement stmt = getReadingStatement("DELETE FROM tags WHERE photo_id = ?");
-		deleteObject(obj, stmt);
-		
-		stmt = getReadingStatement("INSERT INTO tags VALUES(?, ?)");
-		Set<String> tags = new HashSet<String>();
-		photoTagCollector.collect(tags, photo);
-		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
-			String tag = i.next();
-			stmt.setString(1, tag);
-			stmt.setInt(2, photo.getId().asInt());
-			SysLog.logQuery(stmt);
-			stmt.executeUpdate();					
+		deleteObject(photo, stmt);
+	}
+	
+	/**
+	 * Executes query once for all tags, passed as one array parameter; 
+	 * so each query has one shape and one prepared statement, whatever the number of tags.
+	 */
+	protected void writeTags(String query, Set<String> tags, PhotoId id) throws SQLException {
+		if (tags.isEmpty()) {
+			return;
 		}
+		
+		PreparedStatement stmt = getReadingStatement(query);
+		stmt.setInt(1, id.asInt());
+		stmt.setArray(2, stmt.getConnection().createArrayOf("text", tags.toArray()));
+		SysLog.logQuery(query + " [" + tags.size() + " tags]");
+		stmt.executeUpdate();
+	}
+	
+	/**
+	 * 
+	 */
+	protected void forgetDependents(Persistent obj) {
+		((Photo) obj).setPersistedTags(null); // forces full rewrite of tags with next save
+	}
+	
+	/**
+	 * 
+	 */
+	protected Set<String> collectTags(Photo photo) {
+		Set<String> result = new HashSet<String>();
+		photoTagCollector.collect(result, photo);
+		return result;
 	}
 		
 	/**
@@ -362,4 +530,32 @@ public class PhotoManager extends ObjectManager {
 		}
 	}
 
+	/**
+	 * Praise counted for one photo since the last flush; guarded by the pendingPraises map
+	 */
+	protected static class PraiseDelta {
+		
+		/**
+		 * 
+		 */
+		protected long praiseSum = 0;
+		protected long noVotes = 0;
+		
+		/**
+		 * 
+		 */
+		protected void add(long myPraiseSum, long myNoVotes) {
+			praiseSum += myPraiseSum;
+			noVotes += myNoVotes;
+		}
+		
+		/**
+		 * 
+		 */
+		protected PraiseDelta merge(PraiseDelta other) {
+			add(other.praiseSum, other.noVotes);
+			return this;
+		}
+	}
+	
 }
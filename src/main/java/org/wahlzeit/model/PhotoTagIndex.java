@@ -0,0 +1,364 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+import org.wahlzeit.services.*;
+import org.wahlzeit.utils.*;
+
+/**
+ * A PhotoTagIndex is an in-memory inverted index from tags ("un:..." and "tg:...") to the ids of all photos with that tag.
+ * Filter conditions are answered by intersecting the compressed bitmaps of their tags without querying the database.
+ * The index is loaded at startup from the tags table and then kept up to date as photos change.
+ * It also tracks which photos are displayable, so that filters only ever return visible photos.
+ */
+public class PhotoTagIndex {
+
+	/**
+	 * Estimated heap memory per indexed tag, not counting its characters and its bitmap
+	 */
+	protected static final int TAG_ENTRY_OVERHEAD = 80;
+
+	/**
+	 *
+	 */
+	protected static PhotoTagIndex instance = null;
+
+	/**
+	 *
+	 */
+	public static synchronized PhotoTagIndex getInstance() {
+		if (instance == null) {
+			instance = new PhotoTagIndex();
+		}
+		return instance;
+	}
+
+	/**
+	 * Replaces the index, e.g. by one restored from a ModelSnapshot
+	 *
+	 * @methodtype set
+	 */
+	protected static synchronized void setInstance(PhotoTagIndex index) {
+		instance = index;
+	}
+
+	/**
+	 *
+	 */
+	protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 *
+	 */
+	protected Map<String, CompressedBitmap> photoIdsByTag = new HashMap<String, CompressedBitmap>();
+	protected CompressedBitmap allPhotoIds = new CompressedBitmap();
+	protected CompressedBitmap visiblePhotoIds = new CompressedBitmap();
+
+	/**
+	 * Created lazily, as the PhotoFactory is only known after startup
+	 */
+	protected PhotoTagCollector photoTagCollector = null;
+
+	/**
+	 *
+	 */
+	protected PhotoTagIndex() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasPhoto(PhotoId id) {
+		lock.readLock().lock();
+		try {
+			return allPhotoIds.contains(id.asInt());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addPhotoId(int id, boolean isVisible) {
+		lock.writeLock().lock();
+		try {
+			allPhotoIds.add(id);
+			doSetVisible(id, isVisible);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addTag(String tag, int id) {
+		lock.writeLock().lock();
+		try {
+			doAddTag(tag, id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds photo with all its current tags to the index
+	 */
+	public void addPhoto(Photo photo) {
+		Set<String> tags = collectTags(photo);
+		int id = photo.getId().asInt();
+
+		lock.writeLock().lock();
+		try {
+			allPhotoIds.add(id);
+			doSetVisible(id, photo.isVisible());
+			for (String tag : tags) {
+				doAddTag(tag, id);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes photo with all its current tags from the index; call before changing a photo's tags.
+	 *
+	 * @return true if photo had been indexed
+	 */
+	public boolean removePhoto(Photo photo) {
+		int id = photo.getId().asInt();
+		if (!hasPhoto(photo.getId())) {
+			return false;
+		}
+
+		Set<String> tags = collectTags(photo);
+
+		lock.writeLock().lock();
+		try {
+			for (String tag : tags) {
+				CompressedBitmap photoIds = photoIdsByTag.get(tag);
+				if ((photoIds != null) && photoIds.remove(id) && photoIds.isEmpty()) {
+					photoIdsByTag.remove(tag);
+				}
+			}
+			visiblePhotoIds.remove(id);
+			return allPhotoIds.remove(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Updates the visibility of photo if it is indexed; call after changing its status.
+	 */
+	public void updateVisibility(Photo photo) {
+		int id = photo.getId().asInt();
+
+		lock.writeLock().lock();
+		try {
+			if (allPhotoIds.contains(id)) {
+				doSetVisible(id, photo.isVisible());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the ids of all visible photos that have all tags of the filter conditions.
+	 */
+	public CompressedBitmap getVisiblePhotoIds(List<String> filterConditions) {
+		CompressedBitmap result = getPhotoIds(filterConditions);
+
+		lock.readLock().lock();
+		try {
+			return CompressedBitmap.and(result, visiblePhotoIds);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the ids of all photos that have all tags of the filter conditions; no conditions return all photos.
+	 */
+	public CompressedBitmap getPhotoIds(List<String> filterConditions) {
+		lock.readLock().lock();
+		try {
+			if (filterConditions.isEmpty()) {
+				return allPhotoIds.copy();
+			}
+
+			List<CompressedBitmap> photoIds = new ArrayList<CompressedBitmap>(filterConditions.size());
+			for (String condition : filterConditions) {
+				CompressedBitmap tagPhotoIds = photoIdsByTag.get(condition);
+				if (tagPhotoIds == null) {
+					return new CompressedBitmap();
+				}
+				photoIds.add(tagPhotoIds);
+			}
+
+			// start with the smallest bitmap, keeping intermediate results small
+			photoIds.sort(Comparator.comparingInt(CompressedBitmap::getCardinality));
+			CompressedBitmap result = photoIds.get(0).copy();
+			for (int i = 1; (i < photoIds.size()) && !result.isEmpty(); i++) {
+				result = CompressedBitmap.and(result, photoIds.get(i));
+			}
+
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPhotos() {
+		lock.readLock().lock();
+		try {
+			return allPhotoIds.getCardinality();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoVisiblePhotos() {
+		lock.readLock().lock();
+		try {
+			return visiblePhotoIds.getCardinality();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoTags() {
+		lock.readLock().lock();
+		try {
+			return photoIdsByTag.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns an estimate of the heap memory used by the index
+	 */
+	public long getSizeInBytes() {
+		lock.readLock().lock();
+		try {
+			long result = allPhotoIds.getSizeInBytes() + visiblePhotoIds.getSizeInBytes();
+			for (Map.Entry<String, CompressedBitmap> entry : photoIdsByTag.entrySet()) {
+				result += TAG_ENTRY_OVERHEAD + entry.getKey().length() + entry.getValue().getSizeInBytes();
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes all photo ids with their visibility and then each tag with its photo ids, each list ended by -1, as ModelSnapshot restores them.
+	 * The bitmaps are copied under the read lock, so that writing the file does not block changes to the index.
+	 */
+	public void writeOn(SnapshotFile.Writer writer) throws IOException {
+		CompressedBitmap photoIds;
+		CompressedBitmap visibleIds;
+		Map<String, CompressedBitmap> tagPhotoIds = new HashMap<String, CompressedBitmap>();
+		lock.readLock().lock();
+		try {
+			photoIds = allPhotoIds.copy();
+			visibleIds = visiblePhotoIds.copy();
+			for (Map.Entry<String, CompressedBitmap> entry : photoIdsByTag.entrySet()) {
+				tagPhotoIds.put(entry.getKey(), entry.getValue().copy());
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		for (int id : photoIds.asArray()) {
+			writer.writeInt(id);
+			writer.writeBoolean(visibleIds.contains(id));
+		}
+		writer.writeInt(-1);
+
+		for (Map.Entry<String, CompressedBitmap> entry : tagPhotoIds.entrySet()) {
+			writer.writeBoolean(true);
+			writer.writeString(entry.getKey());
+			for (int id : entry.getValue().asArray()) {
+				writer.writeInt(id);
+			}
+			writer.writeInt(-1);
+		}
+		writer.writeBoolean(false);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			photoIdsByTag.clear();
+			allPhotoIds.clear();
+			visiblePhotoIds.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doAddTag(String tag, int id) {
+		CompressedBitmap photoIds = photoIdsByTag.get(tag);
+		if (photoIds == null) {
+			photoIds = new CompressedBitmap();
+			photoIdsByTag.put(tag, photoIds);
+		}
+
+		photoIds.add(id);
+		allPhotoIds.add(id);
+	}
+
+	/**
+	 * @methodtype set
+	 * @methodproperties primitive
+	 */
+	protected void doSetVisible(int id, boolean isVisible) {
+		if (isVisible) {
+			visiblePhotoIds.add(id);
+		} else {
+			visiblePhotoIds.remove(id);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected Set<String> collectTags(Photo photo) {
+		if (photoTagCollector == null) {
+			photoTagCollector = PhotoFactory.getInstance().createPhotoTagCollector();
+		}
+
+		Set<String> result = new HashSet<String>();
+		photoTagCollector.collect(result, photo);
+		return result;
+	}
+
+}
@@ -6,6 +6,7 @@
 package org.wahlzeit.model;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.net.*;
 import java.sql.*;
 
@@ -45,33 +46,53 @@ public class User extends Client implements Persistent {
 	/**
 	 * 0 is never returned, first value is 1
 	 */
-	protected static int lastUserId = 0;
+	protected static final IdAllocator idAllocator = new IdAllocator("last_user_id", IdAllocator.DEFAULT_BLOCK_SIZE);
 	
 	/**
 	 * 
 	 */
 	public static int getLastUserId() {
-		return lastUserId;
+		return idAllocator.getLastId();
 	}
 	
 	/**
 	 * 
 	 */
-	public static synchronized void setLastUserId(int newId) {
-		lastUserId = newId;
+	public static void setLastUserId(int newId) {
+		idAllocator.setLastId(newId);
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public static IdAllocator getIdAllocator() {
+		return idAllocator;
 	}
 	
 	/**
 	 * 
 	 */
-	public static synchronized int getNextUserId() {
-		return ++lastUserId;
+	public static int getNextUserId() {
+		return idAllocator.getNextId();
 	}
 
 	/**
-	 * 
+	 * Columns written by writeOn, besides id, so that setters can mark what changed
+	 */
+	protected static final ColumnMask COLUMNS = new ColumnMask(
+		"name", "name_as_tag", "email_address", "password", "rights", "language", "notify_about_praise",
+		"home_page", "gender", "status", "confirmation_code", "photo", "creation_time"
+	);
+
+	/**
+	 * Changed by servlet threads and reset by the write-behind flusher; updates hold the monitor of this object
+	 */
+	protected transient volatile int writeCount = 0;
+	
+	/**
+	 * Columns changed since the last write, as bits of COLUMNS
 	 */
-	protected transient int writeCount = 0;
+	protected transient volatile long changedColumns = ColumnMask.NO_COLUMNS;
 	
 	/**
 	 * 
@@ -95,7 +116,13 @@ public class User extends Client implements Persistent {
 	 * 
 	 */
 	protected Photo userPhoto = null;
-	protected Set<Photo> photos = new HashSet<Photo>();
+	protected int userPhotoId = 0; // of userPhoto while it has not been looked up yet
+	
+	/**
+	 * Photos of users read from the database are loaded on first access
+	 */
+	protected Set<Photo> photos = ConcurrentHashMap.<Photo>newKeySet();
+	protected boolean hasLoadedPhotos = true;
 	
 	/**
 	 * 
@@ -167,14 +194,58 @@ public class User extends Client implements Persistent {
 	 * 
 	 */
 	public final void incWriteCount() {
-		writeCount++;
+		incWriteCount(ColumnMask.ALL_COLUMNS);
+	}
+	
+	/**
+	 * @param columns mask of the changed columns, from COLUMNS
+	 */
+	protected final void incWriteCount(long columns) {
+		synchronized (this) {
+			changedColumns |= columns;
+			writeCount++;
+		}
+		WriteBehindQueue.getInstance().add(this);
 	}
 	
 	/**
 	 * 
 	 */
 	public void resetWriteCount() {
-		writeCount = 0;
+		synchronized (this) {
+			writeCount = 0;
+			changedColumns = ColumnMask.NO_COLUMNS;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public WriteState getWriteState() {
+		synchronized (this) {
+			return new WriteState(writeCount, changedColumns);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void resetWriteCount(WriteState written) {
+		synchronized (this) {
+			if (writeCount == written.getWriteCount()) {
+				writeCount = 0;
+				changedColumns &= ~written.getChangedColumns();
+			} else {
+				writeCount = Math.max(writeCount - written.getWriteCount(), 1);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public boolean isChangedColumn(String columnName) {
+		return COLUMNS.isChanged(changedColumns, columnName);
 	}
 	
 	/**
@@ -201,8 +272,10 @@ public class User extends Client implements Persistent {
 		gender = Gender.getFromInt(rset.getInt("gender"));
 		status = UserStatus.getFromInt(rset.getInt("status"));
 		confirmationCode = rset.getLong("confirmation_code");
-		photos = PhotoManager.getInstance().findPhotosByOwner(name);
-		userPhoto = PhotoManager.getPhoto(PhotoId.getIdFromInt(rset.getInt("photo")));
+		photos = ConcurrentHashMap.<Photo>newKeySet();
+		hasLoadedPhotos = false;
+		userPhoto = null;
+		userPhotoId = rset.getInt("photo");
 		creationTime = rset.getLong("creation_time");
 	}
 	
@@ -222,7 +295,7 @@ public class User extends Client implements Persistent {
 		rset.updateInt("gender", gender.asInt());
 		rset.updateInt("status", status.asInt());
 		rset.updateLong("confirmation_code", confirmationCode);
-		rset.updateInt("photo", (userPhoto == null) ? 0 : userPhoto.getId().asInt());
+		rset.updateInt("photo", (userPhoto == null) ? userPhotoId : userPhoto.getId().asInt());
 		rset.updateLong("creation_time", creationTime);
 	}
 
@@ -237,13 +310,11 @@ public class User extends Client implements Persistent {
 	 * 
 	 */
 	public void setEmailAddress(EmailAddress myEmailAddress) {
+		EmailAddress oldEmailAddress = emailAddress;
 		super.setEmailAddress(myEmailAddress);
-		incWriteCount();
-		
-		for (Iterator<Photo> i = photos.iterator(); i.hasNext(); ) {
-			Photo photo = i.next();
-			photo.setOwnerEmailAddress(emailAddress);
-		}
+		incWriteCount(COLUMNS.get("email_address"));
+		UserManager.getInstance().updateEmailAddress(this, oldEmailAddress);
+		updatePhotoOwnerAttributes();
 	}
 	
 	/**
@@ -272,7 +343,7 @@ public class User extends Client implements Persistent {
 	 */
 	public void setPassword(String newPassword) {
 		password = newPassword;
-		incWriteCount();
+		incWriteCount(COLUMNS.get("password"));
 	}
 	
 	/**
@@ -294,12 +365,8 @@ public class User extends Client implements Persistent {
 	 */
 	public void setLanguage(Language newLanguage) {
 		language = newLanguage;
-		incWriteCount();
-		
-		for (Iterator<Photo> i = photos.iterator(); i.hasNext(); ) {
-			Photo photo = i.next();
-			photo.setOwnerLanguage(language);
-		}
+		incWriteCount(COLUMNS.get("language"));
+		updatePhotoOwnerAttributes();
 	}
 	
 	/**
@@ -328,12 +395,8 @@ public class User extends Client implements Persistent {
 	 */
 	public void setNotifyAboutPraise(boolean notify) {
 		notifyAboutPraise = notify;
-		incWriteCount();
-
-		for (Iterator<Photo> i = photos.iterator(); i.hasNext(); ) {
-			Photo photo = i.next();
-			photo.setOwnerNotifyAboutPraise(notifyAboutPraise);
-		}
+		incWriteCount(COLUMNS.get("notify_about_praise"));
+		updatePhotoOwnerAttributes();
 	}
 	
 	/**
@@ -348,11 +411,25 @@ public class User extends Client implements Persistent {
 	 */
 	public void setHomePage(URL newHomePage) {
 		homePage = newHomePage;
-		incWriteCount();
+		incWriteCount(COLUMNS.get("home_page"));
+		updatePhotoOwnerAttributes();
+	}
+	
+	/**
+	 * Patches the owner attributes of those photos of this user that are in memory, without making them dirty.
+	 * Saving this user updates the photos table for all its photos with one statement, see UserManager.
+	 */
+	protected void updatePhotoOwnerAttributes() {
+		Collection<Photo> photosInMemory;
+		synchronized (this) {
+			photosInMemory = hasLoadedPhotos ? new ArrayList<Photo>(photos) : null;
+		}
+		if (photosInMemory == null) {
+			photosInMemory = PhotoManager.getInstance().getCachedPhotosByOwner(id);
+		}
 		
-		for (Iterator<Photo> i = photos.iterator(); i.hasNext(); ) {
-			Photo photo = i.next();
-			photo.setOwnerHomePage(homePage);
+		for (Photo photo : photosInMemory) {
+			photo.doSetOwnerAttributes(this);
 		}
 	}
 	
@@ -382,7 +459,7 @@ public class User extends Client implements Persistent {
 	 */
 	public void setGender(Gender newGender) {
 		gender = newGender;
-		incWriteCount();
+		incWriteCount(COLUMNS.get("gender"));
 	}
 
 	/**
@@ -398,7 +475,7 @@ public class User extends Client implements Persistent {
 	 */
 	public void setStatus(UserStatus newStatus) {
 		status = newStatus;
-		incWriteCount();
+		incWriteCount(COLUMNS.get("status"));
 	}
 
 	/**
@@ -413,20 +490,25 @@ public class User extends Client implements Persistent {
 	 */
 	public void setConfirmed() {
 		setStatus(status.asConfirmed());
-		incWriteCount();
+		incWriteCount(COLUMNS.get("status"));
 	}
 	
 	/**
 	 * 
 	 */
 	public boolean hasUserPhoto() {
-		return userPhoto != null;
+		return getUserPhoto() != null;
 	}
 	
 	/**
 	 * 
 	 */
 	public Photo getUserPhoto() {
+		if ((userPhoto == null) && (userPhotoId != 0)) {
+			userPhoto = PhotoManager.getPhoto(PhotoId.getIdFromInt(userPhotoId));
+			userPhotoId = 0;
+		}
+		
 		return userPhoto;
 	}
 			
@@ -435,7 +517,8 @@ public class User extends Client implements Persistent {
 	 */
 	public void setUserPhoto(Photo newPhoto) {
 		userPhoto = newPhoto;
-		incWriteCount();
+		userPhotoId = 0;
+		incWriteCount(COLUMNS.get("photo"));
 	}
 	
 	/**
@@ -449,8 +532,8 @@ public class User extends Client implements Persistent {
 	 * 
 	 */
 	public void addPhoto(Photo newPhoto) {
-		photos.add(newPhoto);
-		incWriteCount();
+		doGetPhotos().add(newPhoto);
+		incWriteCount(ColumnMask.NO_COLUMNS);
 
 		newPhoto.setOwnerId(id);
 		newPhoto.setOwnerName(name);
@@ -464,15 +547,40 @@ public class User extends Client implements Persistent {
 	 * 
 	 */
 	public void removePhoto(Photo notMyPhoto) {
-		photos.remove(notMyPhoto);
-		incWriteCount();
+		doGetPhotos().remove(notMyPhoto);
+		incWriteCount(ColumnMask.NO_COLUMNS);
 	}
 	
 	/**
 	 * 
 	 */
 	public int getNoPhotos() {
-		return photos.size();
+		return doGetPhotos().size();
+	}
+	
+	/**
+	 * Sets photos, e.g. after loading the photos of many users at once
+	 * 
+	 * @methodtype initialization
+	 * @param myPhotos a concurrent set, as photos are added and removed without locking
+	 */
+	public synchronized void initializePhotos(Set<Photo> myPhotos) {
+		photos = myPhotos;
+		hasLoadedPhotos = true;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	protected synchronized Set<Photo> doGetPhotos() {
+		if (!hasLoadedPhotos) {
+			Set<Photo> result = ConcurrentHashMap.<Photo>newKeySet();
+			result.addAll(PhotoManager.getInstance().findPhotosByOwner(id));
+			photos = result;
+			hasLoadedPhotos = true;
+		}
+		
+		return photos;
 	}
 	
 	/**
@@ -486,7 +594,7 @@ public class User extends Client implements Persistent {
 	 * 
 	 */
 	public Photo[] getPhotosReverseOrderedByPraise() {
-		Photo[] result = photos.toArray(new Photo[0]);
+		Photo[] result = doGetPhotos().toArray(new Photo[0]);
 		Arrays.sort(result, getPhotoByPraiseReverseComparator());
 		return result;
 	}
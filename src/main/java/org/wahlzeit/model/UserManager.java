@@ -6,6 +6,8 @@
 package org.wahlzeit.model;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.sql.*;
 
 import org.wahlzeit.services.*;
@@ -26,6 +28,21 @@ public class UserManager extends ObjectManager {
 		"flickr"
 	);
 	
+	/**
+	 * Maximum number of users kept in memory; users with unsaved changes are kept in addition
+	 */
+	public static final int DEFAULT_USER_CACHE_SIZE = 10000;
+	
+	/**
+	 * Time a name is remembered as not belonging to any user
+	 */
+	public static final long UNKNOWN_NAME_TTL = 10 * 1000; // in millis
+	
+	/**
+	 * 
+	 */
+	protected static final int MAX_NO_UNKNOWN_NAMES = 10000;
+
 	/**
 	 *
 	 */
@@ -39,14 +56,43 @@ public class UserManager extends ObjectManager {
 	}
 	
 	/**
-	 * Maps nameAsTag to user of that name (as tag)
+	 * Maps nameAsTag to user of that name (as tag).
+	 * There is at most one User per name: sessions hold their user directly, so evicted users
+	 * that are still logged in are revived instead of being read again.
+	 */
+	protected BoundedCache<String, User> users = createUserCache(DEFAULT_USER_CACHE_SIZE);
+	
+	/**
+	 * Secondary index of cached users by email address
+	 */
+	protected Map<EmailAddress, User> usersByEmailAddress = new ConcurrentHashMap<EmailAddress, User>();
+	
+	/**
+	 * Maps name tags found not to belong to any user to the time until which this is assumed to hold
 	 */
-	protected Map<String, User> users = new HashMap<String, User>();
+	protected Map<String, Long> unknownNameTags = new ConcurrentHashMap<String, Long>();
 	
 	/**
 	 * 
 	 */
 	protected Random codeGenerator = new Random(System.currentTimeMillis());
+	
+	/**
+	 * 
+	 */
+	public UserManager() {
+		WriteBehindQueue.getInstance().setWriter(User.class, objects -> updateObjects(objects, "users"));
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected BoundedCache<String, User> createUserCache(int maxSize) {
+		BoundedCache<String, User> result = new BoundedCache<String, User>(maxSize, User::isDirty);
+		result.setKeepingEvictedValues(true);
+		result.setEvictionListener((nameAsTag, user) -> doRemoveEmailAddress(user, user.getEmailAddress()));
+		return result;
+	}
 
 	/**
 	 * 
@@ -86,7 +132,7 @@ public class UserManager extends ObjectManager {
 
 		User result = doGetUserByTag(tag);
 
-		if (result == null) {
+		if ((result == null) && !isKnownAsUnknownNameTag(tag)) {
 			try {
 				PreparedStatement stmt = getReadingStatement("SELECT * FROM users WHERE name_as_tag = ?");
 				result = (User) readObject(stmt, tag);
@@ -95,7 +141,9 @@ public class UserManager extends ObjectManager {
 			}
 			
 			if (result != null) {
-				doAddUser(result);
+				result = doAddUser(result);
+			} else {
+				addUnknownNameTag(tag);
 			}
 		}
 		
@@ -116,6 +164,32 @@ public class UserManager extends ObjectManager {
 		return users.get(tag);
 	}
 	
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isKnownAsUnknownNameTag(String tag) {
+		Long expiryTime = unknownNameTags.get(tag);
+		if (expiryTime == null) {
+			return false;
+		} else if (expiryTime < System.currentTimeMillis()) {
+			unknownNameTags.remove(tag, expiryTime);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @methodtype command
+	 */
+	protected void addUnknownNameTag(String tag) {
+		if (unknownNameTags.size() >= MAX_NO_UNKNOWN_NAMES) {
+			unknownNameTags.clear(); // cheap bound; entries are short-lived anyway
+		}
+
+		unknownNameTags.put(tag, System.currentTimeMillis() + UNKNOWN_NAME_TTL);
+	}
+	
 	/**
 	 * 
 	 * @methodtype factory
@@ -159,10 +233,20 @@ public class UserManager extends ObjectManager {
 	}
 	
 	/**
-	 * 
+	 * @return the user cached for user's name, which is user unless another thread was faster
 	 */
-	protected void doAddUser(User user) {
-		users.put(user.getNameAsTag(), user);
+	protected User doAddUser(User user) {
+		String nameAsTag = user.getNameAsTag();
+		unknownNameTags.remove(nameAsTag);
+		
+		User result = users.putIfAbsent(nameAsTag, user);
+		if (result != null) {
+			doAddEmailAddress(result, result.getEmailAddress()); // if revived after eviction
+			return result;
+		}
+
+		doAddEmailAddress(user, user.getEmailAddress());
+		return user;
 	}
 	
 	/**
@@ -187,28 +271,77 @@ public class UserManager extends ObjectManager {
 	 */
 	protected void doDeleteUser(User user) {
 		users.remove(user.getNameAsTag());
+		doRemoveEmailAddress(user, user.getEmailAddress());
+	}
+	
+	/**
+	 * Keeps the email address index up to date; to be called after changing a user's email address
+	 */
+	public void updateEmailAddress(User user, EmailAddress oldEmailAddress) {
+		String nameAsTag = user.getNameAsTag();
+		if ((nameAsTag == null) || (users.peek(nameAsTag) != user)) {
+			return; // not (yet) managed, e.g. during construction
+		}
+		
+		doRemoveEmailAddress(user, oldEmailAddress);
+		doAddEmailAddress(user, user.getEmailAddress());
+	}
+	
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doAddEmailAddress(User user, EmailAddress emailAddress) {
+		if ((emailAddress != null) && !emailAddress.isEmpty()) {
+			usersByEmailAddress.put(emailAddress, user);
+		}
+	}
+	
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doRemoveEmailAddress(User user, EmailAddress emailAddress) {
+		if (emailAddress != null) {
+			usersByEmailAddress.remove(emailAddress, user);
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public BoundedCache<String, User> getUserCache() {
+		return users;
 	}
 	
 	/**
+	 * @methodtype command
+	 *
+	 * Loads all users and their photos with two queries, warming the user and photo caches.
+	 * Executed when Wahlzeit is started without a model snapshot; users beyond the cache size are evicted again.
 	 * 
+	 * @return number of users loaded
 	 */
-	public void loadUsers(Collection<User> result) {
+	public int loadUsers() {
+		Map<Integer, Set<Photo>> photosByOwnerId = PhotoManager.getInstance().loadPhotosByOwnerId();
+		AtomicInteger result = new AtomicInteger(0);
 		try {
-			PreparedStatement stmt = getReadingStatement("SELECT * FROM users");
-			readObjects(result, stmt);
-			for (Iterator<User> i = result.iterator(); i.hasNext(); ) {
-				User user = i.next();
+			this.<User>loadObjects("SELECT * FROM users", user -> {
 				if (!doHasUserByTag(user.getNameAsTag())) {
+					Set<Photo> photos = photosByOwnerId.get(user.getId());
+					user.initializePhotos((photos != null) ? photos : ConcurrentHashMap.<Photo>newKeySet());
 					doAddUser(user);
+					result.incrementAndGet();
 				} else {
 					SysLog.logSysInfo("user", user.getName(), "user had already been loaded");
 				}
-			}
+			});
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
 		
-		SysLog.logSysInfo("loaded all users");
+		SysLog.logSysInfo("loaded " + result.get() + " users");
+		return result.get();
 	}
 	
 	/**
@@ -259,8 +392,7 @@ public class UserManager extends ObjectManager {
 	 */
 	public void saveUser(User user) {
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM users WHERE id = ?");
-			updateObject(user, stmt);
+			updateObject(user, "users");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -271,7 +403,7 @@ public class UserManager extends ObjectManager {
 	 */
 	public void removeUser(User user) {
 		saveUser(user);
-		users.remove(user.getNameAsTag());
+		doDeleteUser(user);
 	}
 	
 	/**
@@ -279,11 +411,43 @@ public class UserManager extends ObjectManager {
 	 */
 	public void saveUsers() {
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM users WHERE id = ?");
-			updateObjects(users.values(), stmt);
+			updateObjects(users.values(), "users");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
+		
+		SysLog.logSysInfo("user cache: " + users.asStatisticsString());
+	}
+	
+	/**
+	 * Propagates changed owner attributes of a user to all its photos with one set-based statement,
+	 * instead of updating each photo; photos in memory have already been patched by the user.
+	 */
+	protected void updateDependents(Persistent obj) throws SQLException {
+		User user = (User) obj;
+		ColumnValues ownerValues = new ColumnValues();
+		if (user.isChangedColumn("email_address")) {
+			EmailAddress emailAddress = user.getEmailAddress();
+			ownerValues.setValue("owner_email_address", Types.VARCHAR, (emailAddress == null) ? "" : emailAddress.asString());
+		}
+		if (user.isChangedColumn("language")) {
+			ownerValues.setValue("owner_language", Types.INTEGER, user.getLanguage().asInt());
+		}
+		if (user.isChangedColumn("notify_about_praise")) {
+			ownerValues.setValue("owner_notify_about_praise", Types.BOOLEAN, user.getNotifyAboutPraise());
+		}
+		if (user.isChangedColumn("home_page")) {
+			ownerValues.setValue("owner_home_page", Types.VARCHAR, user.getHomePage().toString());
+		}
+		
+		List<String> columnNames = ownerValues.getColumnNames();
+		if (!columnNames.isEmpty()) {
+			PreparedStatement stmt = getReadingStatement(ColumnValues.asUpdateStatementString("photos", columnNames, "owner_id"));
+			int pos = ownerValues.writeOn(stmt, columnNames, 1);
+			stmt.setInt(pos, user.getId());
+			SysLog.logQuery(stmt);
+			stmt.executeUpdate();
+		}
 	}
 	
 	/**
@@ -297,7 +461,11 @@ public class UserManager extends ObjectManager {
 	 * 
 	 */
 	public User getUserByEmailAddress(EmailAddress emailAddress) {
-		User result = null;
+		User result = usersByEmailAddress.get(emailAddress);
+		if (result != null) {
+			return result;
+		}
+		
 		try {
 			PreparedStatement stmt = getReadingStatement("SELECT * FROM users WHERE email_address = ?");
 			result = (User) readObject(stmt, emailAddress.asString());
@@ -306,12 +474,7 @@ public class UserManager extends ObjectManager {
 		}
 		
 		if (result != null) {
-			User current = doGetUserByTag(result.getNameAsTag());
-			if (current == null) {
-				doAddUser(result);
-			} else {
-				result = current;
-			}
+			result = doAddUser(result);
 		}
 
 		return result;
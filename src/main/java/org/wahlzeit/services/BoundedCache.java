@@ -0,0 +1,619 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * A BoundedCache is a thread-safe map with a maximum number of entries, evicting by W-TinyLFU.
+ * New entries enter a small LRU window; when they fall out of it, they are admitted to the main area only
+ * if they were used more often than the main area's eviction victim, as estimated by a count-min sketch.
+ * The main area is a segmented LRU of a probation and a protected part. Pinned entries (e.g. dirty objects)
+ * are never evicted, so the cache may temporarily exceed its maximum size.
+ * If it keeps evicted values, evicted entries are remembered by weak reference and revived on lookup as long as
+ * their values are referenced elsewhere, so that there is never more than one value per key, as in an identity map.
+ * Lookups are lock-free; maintaining the eviction order is done under a lock and skipped under contention.
+ */
+public class BoundedCache<K, V> {
+
+	/**
+	 * Share of the maximum size used for the admission window, in percent
+	 */
+	protected static final int WINDOW_PERCENTAGE = 1;
+
+	/**
+	 * Share of the main area used for protected entries, in percent
+	 */
+	protected static final int PROTECTED_PERCENTAGE = 80;
+
+	/**
+	 *
+	 */
+	protected static final int WINDOW = 0;
+	protected static final int PROBATION = 1;
+	protected static final int PROTECTED = 2;
+
+	/**
+	 *
+	 */
+	protected final ConcurrentHashMap<K, Node<K, V>> entries;
+	protected final Predicate<V> isPinned;
+	protected BiConsumer<K, V> evictionListener = (key, value) -> { };
+
+	/**
+	 * Evicted values that may still be referenced elsewhere; only used if isKeepingEvictedValues
+	 */
+	protected final ConcurrentHashMap<K, EvictedValue<K, V>> evictedValues = new ConcurrentHashMap<K, EvictedValue<K, V>>();
+	protected final ReferenceQueue<V> collectedValues = new ReferenceQueue<V>();
+	protected volatile boolean isKeepingEvictedValues = false;
+
+	/**
+	 *
+	 */
+	protected final int maxSize;
+	protected final int maxWindowSize;
+	protected final int maxProtectedSize;
+
+	/**
+	 * Access order queues, least recently used first; guarded by lock
+	 */
+	protected final AccessQueue<K, V> window = new AccessQueue<K, V>();
+	protected final AccessQueue<K, V> probation = new AccessQueue<K, V>();
+	protected final AccessQueue<K, V> protectedQueue = new AccessQueue<K, V>();
+	protected final FrequencySketch sketch;
+	protected final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 *
+	 */
+	protected final LongAdder noHits = new LongAdder();
+	protected final LongAdder noMisses = new LongAdder();
+	protected final LongAdder noEvictions = new LongAdder();
+
+	/**
+	 *
+	 */
+	public BoundedCache(int myMaxSize) {
+		this(myMaxSize, value -> false);
+	}
+
+	/**
+	 * @param myIsPinned tells whether an entry's value must not be evicted
+	 */
+	public BoundedCache(int myMaxSize, Predicate<V> myIsPinned) {
+		if (myMaxSize < 1) {
+			throw new IllegalArgumentException("cache size must be at least 1: " + myMaxSize);
+		}
+
+		maxSize = myMaxSize;
+		maxWindowSize = Math.max(1, maxSize * WINDOW_PERCENTAGE / 100);
+		maxProtectedSize = (maxSize - maxWindowSize) * PROTECTED_PERCENTAGE / 100;
+		isPinned = myIsPinned;
+		entries = new ConcurrentHashMap<K, Node<K, V>>(Math.min(maxSize, 1 << 16));
+		sketch = new FrequencySketch(maxSize);
+	}
+
+	/**
+	 * @return value or null if not cached; counts as hit or miss
+	 */
+	public V get(K key) {
+		Node<K, V> node = entries.get(key);
+		if (node == null) {
+			V value = revive(key);
+			if (value == null) {
+				noMisses.increment();
+			} else {
+				noHits.increment();
+			}
+			return value;
+		}
+
+		noHits.increment();
+		if (lock.tryLock()) {
+			try {
+				onAccess(node);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		return node.value;
+	}
+
+	/**
+	 * @return value or null if not cached; neither counts as use nor as hit or miss
+	 */
+	public V peek(K key) {
+		Node<K, V> node = entries.get(key);
+		return (node != null) ? node.value : getEvictedValue(key);
+	}
+
+	/**
+	 * @return true if a value is cached for key or an evicted value is still referenced
+	 */
+	public boolean containsKey(K key) {
+		return entries.containsKey(key) || (getEvictedValue(key) != null);
+	}
+
+	/**
+	 * Adds or replaces the value for key
+	 */
+	public void put(K key, V value) {
+		lock.lock();
+		try {
+			Node<K, V> node = entries.get(key);
+			if (node != null) {
+				node.value = value;
+				onAccess(node);
+			} else {
+				evictedValues.remove(key);
+				doAdd(key, value);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds value unless key is already cached
+	 *
+	 * @return the value cached before, or null if value was added
+	 */
+	public V putIfAbsent(K key, V value) {
+		lock.lock();
+		try {
+			Node<K, V> node = entries.get(key);
+			if (node != null) {
+				onAccess(node);
+				return node.value;
+			}
+
+			V evictedValue = getEvictedValue(key);
+			evictedValues.remove(key);
+			if (evictedValue != null) {
+				doAdd(key, evictedValue);
+				return evictedValue;
+			}
+
+			doAdd(key, value);
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the value removed or null if none was cached
+	 */
+	public V remove(K key) {
+		lock.lock();
+		try {
+			Node<K, V> node = entries.remove(key);
+			EvictedValue<K, V> evictedValue = evictedValues.remove(key);
+			if (node == null) {
+				return (evictedValue != null) ? evictedValue.get() : null;
+			}
+
+			getQueue(node).remove(node);
+			node.queue = -1;
+			return node.value;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		lock.lock();
+		try {
+			entries.clear();
+			evictedValues.clear();
+			window.clear();
+			probation.clear();
+			protectedQueue.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of all cached values
+	 */
+	public List<V> values() {
+		List<V> result = new ArrayList<V>(entries.size());
+		for (Node<K, V> node : entries.values()) {
+			result.add(node.value);
+		}
+		return result;
+	}
+
+	/**
+	 * Sets a listener called (under the cache's lock) for each evicted entry; not called for removed entries
+	 * 
+	 * @methodtype set
+	 */
+	public void setEvictionListener(BiConsumer<K, V> newEvictionListener) {
+		evictionListener = newEvictionListener;
+	}
+
+	/**
+	 * Makes the cache remember evicted values for as long as they are referenced elsewhere
+	 * 
+	 * @methodtype set
+	 */
+	public void setKeepingEvictedValues(boolean isKeeping) {
+		isKeepingEvictedValues = isKeeping;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoHits() {
+		return noHits.sum();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoMisses() {
+		return noMisses.sum();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoEvictions() {
+		return noEvictions.sum();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public double getHitRate() {
+		long hits = getNoHits();
+		long requests = hits + getNoMisses();
+		return (requests == 0) ? 1.0 : (double) hits / requests;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asStatisticsString() {
+		return "size=" + size() + "/" + maxSize + ", hits=" + getNoHits() + ", misses=" + getNoMisses()
+			+ ", evictions=" + getNoEvictions() + ", hitRate=" + String.format(Locale.ENGLISH, "%.3f", getHitRate());
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doAdd(K key, V value) {
+		expungeCollectedValues();
+		Node<K, V> node = new Node<K, V>(key, value);
+		entries.put(key, node);
+		window.add(node);
+		sketch.increment(key);
+		evict();
+	}
+
+	/**
+	 * Moves node to the most recently used end of its queue, promoting probation entries; expects lock
+	 */
+	protected void onAccess(Node<K, V> node) {
+		if (node.queue < 0) {
+			return; // removed concurrently
+		}
+
+		sketch.increment(node.key);
+		if (node.queue == PROBATION) {
+			probation.remove(node);
+			node.queue = PROTECTED;
+			protectedQueue.add(node);
+			while (protectedQueue.size > maxProtectedSize) {
+				Node<K, V> demoted = protectedQueue.poll();
+				demoted.queue = PROBATION;
+				probation.add(demoted);
+			}
+		} else {
+			getQueue(node).moveToEnd(node);
+		}
+	}
+
+	/**
+	 * Moves entries beyond the window size to the main area, evicting the less frequently used of candidate and victim; expects lock
+	 */
+	protected void evict() {
+		while (window.size > maxWindowSize) {
+			Node<K, V> candidate = window.poll();
+			candidate.queue = PROBATION;
+			probation.add(candidate);
+
+			if (entries.size() > maxSize) {
+				Node<K, V> victim = findVictim(candidate);
+				if (victim == null) {
+					continue; // all other entries are pinned
+				}
+
+				if (!isPinned.test(candidate.value) && (sketch.frequency(candidate.key) <= sketch.frequency(victim.key))) {
+					victim = candidate;
+				}
+
+				doEvict(victim);
+			}
+		}
+
+		// catch up on entries that were pinned during earlier evictions
+		while (entries.size() > maxSize) {
+			Node<K, V> victim = findVictim(null);
+			if (victim == null) {
+				break;
+			}
+
+			doEvict(victim);
+		}
+	}
+
+	/**
+	 * Returns the least recently used unpinned entry of the main area other than candidate, or null if there is none
+	 */
+	protected Node<K, V> findVictim(Node<K, V> candidate) {
+		for (AccessQueue<K, V> queue : Arrays.asList(probation, protectedQueue, window)) {
+			for (Node<K, V> node = queue.head.next; node != queue.head; node = node.next) {
+				if ((node != candidate) && !isPinned.test(node.value)) {
+					return node;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doEvict(Node<K, V> node) {
+		getQueue(node).remove(node);
+		node.queue = -1;
+		entries.remove(node.key, node);
+		noEvictions.increment();
+		if (isKeepingEvictedValues) {
+			evictedValues.put(node.key, new EvictedValue<K, V>(node.key, node.value, collectedValues));
+		}
+		evictionListener.accept(node.key, node.value);
+	}
+
+	/**
+	 * @return the evicted value for key if it is still referenced, or null
+	 */
+	protected V getEvictedValue(K key) {
+		EvictedValue<K, V> evictedValue = evictedValues.get(key);
+		return (evictedValue != null) ? evictedValue.get() : null;
+	}
+
+	/**
+	 * Puts an evicted value for key that is still referenced back into the cache
+	 * 
+	 * @return the value now cached for key, or null if there is none
+	 */
+	protected V revive(K key) {
+		if (!evictedValues.containsKey(key)) {
+			return null;
+		}
+
+		lock.lock();
+		try {
+			Node<K, V> node = entries.get(key);
+			if (node != null) {
+				return node.value; // revived concurrently
+			}
+
+			EvictedValue<K, V> evictedValue = evictedValues.remove(key);
+			V value = (evictedValue != null) ? evictedValue.get() : null;
+			if (value != null) {
+				doAdd(key, value);
+			}
+			return value;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forgets evicted values that were garbage collected; expects lock
+	 */
+	protected void expungeCollectedValues() {
+		for (Reference<? extends V> ref = collectedValues.poll(); ref != null; ref = collectedValues.poll()) {
+			EvictedValue<?, ?> evictedValue = (EvictedValue<?, ?>) ref;
+			evictedValues.remove(evictedValue.key, evictedValue);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected AccessQueue<K, V> getQueue(Node<K, V> node) {
+		switch (node.queue) {
+			case WINDOW:
+				return window;
+			case PROBATION:
+				return probation;
+			default:
+				return protectedQueue;
+		}
+	}
+
+	/**
+	 * A cache entry, linked into exactly one access queue
+	 */
+	protected static class Node<K, V> {
+
+		final K key;
+		volatile V value;
+		int queue = WINDOW;
+		Node<K, V> prev;
+		Node<K, V> next;
+
+		Node(K myKey, V myValue) {
+			key = myKey;
+			value = myValue;
+		}
+
+	}
+
+	/**
+	 * A weak reference to an evicted value that knows its key
+	 */
+	protected static class EvictedValue<K, V> extends WeakReference<V> {
+
+		final K key;
+
+		EvictedValue(K myKey, V value, ReferenceQueue<V> queue) {
+			super(value, queue);
+			key = myKey;
+		}
+
+	}
+
+	/**
+	 * A doubly linked list of nodes with a sentinel head; least recently used first
+	 */
+	protected static class AccessQueue<K, V> {
+
+		final Node<K, V> head = new Node<K, V>(null, null);
+		int size = 0;
+
+		AccessQueue() {
+			head.prev = head;
+			head.next = head;
+		}
+
+		void add(Node<K, V> node) {
+			node.prev = head.prev;
+			node.next = head;
+			head.prev.next = node;
+			head.prev = node;
+			size++;
+		}
+
+		Node<K, V> poll() {
+			Node<K, V> result = head.next;
+			if (result == head) {
+				return null;
+			}
+			remove(result);
+			return result;
+		}
+
+		void remove(Node<K, V> node) {
+			node.prev.next = node.next;
+			node.next.prev = node.prev;
+			node.prev = null;
+			node.next = null;
+			size--;
+		}
+
+		void moveToEnd(Node<K, V> node) {
+			remove(node);
+			add(node);
+		}
+
+		void clear() {
+			for (Node<K, V> node = head.next; node != head; node = node.next) {
+				node.queue = -1;
+			}
+			head.prev = head;
+			head.next = head;
+			size = 0;
+		}
+
+	}
+
+	/**
+	 * A count-min sketch of 4-bit counters estimating how often keys were used recently.
+	 * All counters are halved periodically, so that old popularity fades.
+	 */
+	protected static class FrequencySketch {
+
+		static final int DEPTH = 4;
+		static final int[] SEEDS = { 0x97cb3127, 0xb0c8b0b5, 0x5bd1e995, 0x27d4eb2f };
+		static final int MAX_COUNT = 15;
+
+		final byte[][] counters;
+		final int mask;
+		final int sampleSize;
+		int noAdditions = 0;
+
+		FrequencySketch(int maxSize) {
+			int width = Integer.highestOneBit(4 * Math.max(16, Math.min(maxSize, 1 << 22)) - 1) << 1; // 4 counters per entry and row
+			counters = new byte[DEPTH][width];
+			mask = width - 1;
+			sampleSize = 10 * Math.max(maxSize, 16);
+		}
+
+		int frequency(Object key) {
+			int hash = key.hashCode();
+			int result = MAX_COUNT;
+			for (int i = 0; i < DEPTH; i++) {
+				result = Math.min(result, counters[i][indexOf(hash, i)]);
+			}
+			return result;
+		}
+
+		void increment(Object key) {
+			int hash = key.hashCode();
+			boolean isIncremented = false;
+			for (int i = 0; i < DEPTH; i++) {
+				int index = indexOf(hash, i);
+				if (counters[i][index] < MAX_COUNT) {
+					counters[i][index]++;
+					isIncremented = true;
+				}
+			}
+
+			if (isIncremented && (++noAdditions >= sampleSize)) {
+				reset();
+			}
+		}
+
+		int indexOf(int hash, int i) {
+			int h = (hash ^ (hash >>> 16)) * SEEDS[i];
+			return (h ^ (h >>> 15)) & mask;
+		}
+
+		void reset() {
+			for (byte[] row : counters) {
+				for (int i = 0; i < row.length; i++) {
+					row[i] >>= 1;
+				}
+			}
+			noAdditions /= 2;
+		}
+
+	}
+
+}
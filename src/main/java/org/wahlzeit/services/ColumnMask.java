@@ -0,0 +1,68 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import java.util.*;
+
+/**
+ * A ColumnMask assigns each column a Persistent class writes one bit of a long, so that objects
+ * can track which of their columns changed in a bitmask and updates only need to write those.
+ * Columns not known to the mask are considered always changed.
+ */
+public class ColumnMask {
+	
+	/**
+	 * Mask for changes that may affect any column
+	 */
+	public static final long ALL_COLUMNS = -1L;
+
+	/**
+	 * Mask for changes that do not affect any column
+	 */
+	public static final long NO_COLUMNS = 0L;
+	
+	/**
+	 * 
+	 */
+	protected Map<String, Long> columnBits = new HashMap<String, Long>();
+	
+	/**
+	 * 
+	 */
+	public ColumnMask(String... columnNames) {
+		if (columnNames.length >= Long.SIZE) {
+			throw new IllegalArgumentException("too many columns for a column mask: " + columnNames.length);
+		}
+		
+		for (int i = 0; i < columnNames.length; i++) {
+			columnBits.put(columnNames[i], 1L << i);
+		}
+	}
+	
+	/**
+	 * Returns the mask with the bits of all provided columns set
+	 */
+	public long get(String... columnNames) {
+		long result = NO_COLUMNS;
+		for (String columnName : columnNames) {
+			Long bit = columnBits.get(columnName);
+			if (bit == null) {
+				throw new IllegalArgumentException("unknown column: " + columnName);
+			}
+			result |= bit;
+		}
+		return result;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isChanged(long changedColumns, String columnName) {
+		Long bit = columnBits.get(columnName);
+		return (bit == null) || ((changedColumns & bit) != 0);
+	}
+	
+}
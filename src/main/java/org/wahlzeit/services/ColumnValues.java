@@ -0,0 +1,405 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * ColumnValues capture the column values a Persistent object writes on a ResultSet.
+ * This lets objects keep their writeOn(ResultSet) method while being written through a plain,
+ * parameterized UPDATE statement, which can be batched, instead of an updatable ResultSet.
+ * ColumnValues can also capture a row of a query result, so that objects can be read from it
+ * by their readFrom(ResultSet) method after the result has moved on, e.g. in another thread.
+ */
+public class ColumnValues {
+
+	/**
+	 * Maps the ResultSet methods ColumnValues support to their implementation in RowAccess
+	 */
+	protected static final Map<Method, Method> rowAccessMethods = new HashMap<Method, Method>();
+
+	static {
+		for (Method method : RowAccess.class.getDeclaredMethods()) {
+			try {
+				rowAccessMethods.put(ResultSet.class.getMethod(method.getName(), method.getParameterTypes()), method);
+			} catch (NoSuchMethodException ex) {
+				// helper method, not part of ResultSet
+			}
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static ColumnValues getFrom(Persistent obj) throws SQLException {
+		ColumnValues result = new ColumnValues();
+		obj.writeOn(result.asResultSet());
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 * 
+	 * Captures the id and those columns obj reports as changed, so that an update leaves all others alone
+	 */
+	public static ColumnValues getChangesFrom(Persistent obj) throws SQLException {
+		WriteState writeState = obj.getWriteState();
+		ColumnValues result = getFrom(obj);
+		result.writeState = writeState;
+		for (Iterator<String> i = result.columnNames.iterator(); i.hasNext(); ) {
+			String columnName = i.next();
+			if (!columnName.equals(DataObject.ID) && !obj.isChangedColumn(columnName)) {
+				i.remove();
+				result.values.remove(columnName);
+				result.types.remove(columnName);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @methodtype factory
+	 */
+	public static ColumnValues readFrom(ResultSet rset) throws SQLException {
+		ResultSetMetaData metaData = rset.getMetaData();
+		int noColumns = metaData.getColumnCount();
+		ColumnValues result = new ColumnValues();
+		for (int i = 1; i <= noColumns; i++) {
+			result.setValue(metaData.getColumnLabel(i).toLowerCase(), metaData.getColumnType(i), rset.getObject(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Column names in order of first write; later writes to the same column replace the value
+	 */
+	protected List<String> columnNames = new ArrayList<String>(16);
+	protected Map<String, Object> values = new HashMap<String, Object>();
+	protected Map<String, Integer> types = new HashMap<String, Integer>();
+
+	/**
+	 * Write state of the object when changes were captured, or null
+	 */
+	protected WriteState writeState = null;
+
+	/**
+	 *
+	 */
+	public ColumnValues() {
+		// do nothing
+	}
+
+	/**
+	 *
+	 */
+	public void setValue(String columnName, int sqlType, Object value) {
+		if (!values.containsKey(columnName)) {
+			columnNames.add(columnName);
+		}
+
+		values.put(columnName, value);
+		types.put(columnName, sqlType);
+	}
+
+	/**
+	 *
+	 */
+	public boolean hasColumn(String columnName) {
+		return values.containsKey(columnName);
+	}
+
+	/**
+	 *
+	 */
+	public Object getValue(String columnName) {
+		return values.get(columnName);
+	}
+
+	/**
+	 *
+	 */
+	public List<String> getColumnNames() {
+		return Collections.unmodifiableList(columnNames);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public WriteState getWriteState() {
+		return writeState;
+	}
+
+	/**
+	 * Returns the names of all columns to be set by an update, that is all columns but the id column.
+	 */
+	public List<String> getUpdateColumnNames() {
+		List<String> result = new ArrayList<String>(columnNames);
+		result.remove(DataObject.ID);
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asUpdateStatementString(String tableName) {
+		return asUpdateStatementString(tableName, getUpdateColumnNames());
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String asUpdateStatementString(String tableName, List<String> columnNames) {
+		return asUpdateStatementString(tableName, columnNames, DataObject.ID);
+	}
+	
+	/**
+	 * @methodtype conversion
+	 * 
+	 * @param keyColumnName column to select the rows to update by
+	 */
+	public static String asUpdateStatementString(String tableName, List<String> columnNames, String keyColumnName) {
+		StringBuffer result = new StringBuffer(32 + 16 * columnNames.size());
+		result.append("UPDATE ").append(tableName).append(" SET ");
+		for (int i = 0; i < columnNames.size(); i++) {
+			if (i > 0) {
+				result.append(", ");
+			}
+			result.append('"').append(columnNames.get(i)).append("\" = ?");
+		}
+		result.append(" WHERE ").append(keyColumnName).append(" = ?");
+		return result.toString();
+	}
+
+	/**
+	 * Binds the values of the provided columns, starting at position pos.
+	 *
+	 * @return position after the last bound value
+	 */
+	public int writeOn(PreparedStatement stmt, List<String> columnNames, int pos) throws SQLException {
+		for (String columnName : columnNames) {
+			Object value = values.get(columnName);
+			if (value == null) {
+				stmt.setNull(pos, types.get(columnName));
+			} else {
+				stmt.setObject(pos, value);
+			}
+			pos++;
+		}
+
+		return pos;
+	}
+
+	/**
+	 * Returns a ResultSet positioned on these values; it records all updateXXX(columnLabel, value) calls
+	 * and answers getXXX(column) calls, converting values like a JDBC driver would.
+	 */
+	public ResultSet asResultSet() {
+		final RowAccess rowAccess = new RowAccess();
+		InvocationHandler handler = (proxy, method, args) -> {
+			Method target = rowAccessMethods.get(method);
+			if (target != null) {
+				try {
+					return target.invoke(rowAccess, args);
+				} catch (InvocationTargetException ex) {
+					throw ex.getCause();
+				}
+			} else if (method.getName().equals("toString")) {
+				return "ColumnValues" + columnNames;
+			} else if (method.getName().equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (method.getName().equals("equals")) {
+				return proxy == args[0];
+			}
+
+			throw new SQLFeatureNotSupportedException("ColumnValues only support reading and updating columns: " + method.getName());
+		};
+
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, handler);
+	}
+
+	/**
+	 * @param column label or 1-based index of column
+	 */
+	protected String getColumnName(Object column) throws SQLException {
+		String result = null;
+		if (column instanceof Integer) {
+			int index = (Integer) column;
+			if ((index >= 1) && (index <= columnNames.size())) {
+				result = columnNames.get(index - 1);
+			}
+		} else if (column instanceof String) {
+			result = (String) column;
+			if (!values.containsKey(result)) {
+				result = result.toLowerCase();
+			}
+		}
+
+		if ((result == null) || !values.containsKey(result)) {
+			throw new SQLException("unknown column: " + column);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static Object convertValue(Object value, Class<?> type) throws SQLException {
+		if (type == String.class) {
+			return (value == null) ? null : value.toString();
+		} else if (type == boolean.class) {
+			if (value instanceof Boolean) {
+				return value;
+			} else if (value instanceof Number) {
+				return ((Number) value).intValue() != 0;
+			}
+			return (value != null) && (value.equals("t") || value.equals("true") || value.equals("1"));
+		} else if (type.isPrimitive()) {
+			Number number = 0;
+			if (value instanceof Number) {
+				number = (Number) value;
+			} else if (value instanceof Boolean) {
+				number = ((Boolean) value) ? 1 : 0;
+			} else if (value != null) {
+				try {
+					number = new java.math.BigDecimal(value.toString().trim());
+				} catch (NumberFormatException ex) {
+					throw new SQLException("cannot convert " + value + " to " + type, ex);
+				}
+			}
+
+			if (type == int.class) {
+				return number.intValue();
+			} else if (type == long.class) {
+				return number.longValue();
+			} else if (type == double.class) {
+				return number.doubleValue();
+			} else if (type == float.class) {
+				return number.floatValue();
+			} else if (type == short.class) {
+				return number.shortValue();
+			} else if (type == byte.class) {
+				return number.byteValue();
+			}
+		} else if ((value == null) || type.isInstance(value)) {
+			return value;
+		}
+
+		throw new SQLException("cannot convert " + value + " to " + type);
+	}
+
+	/**
+	 * RowAccess implements those ResultSet methods that Persistent objects call to read and write their columns;
+	 * asResultSet() forwards the calls to it and rejects all others.
+	 */
+	protected class RowAccess {
+
+		/**
+		 *
+		 */
+		protected boolean wasNull = false;
+
+		/**
+		 * @param column label or 1-based index of column
+		 */
+		protected Object get(Object column, Class<?> type) throws SQLException {
+			Object value = values.get(getColumnName(column));
+			wasNull = (value == null);
+			return convertValue(value, type);
+		}
+
+		public String getString(String columnLabel) throws SQLException {
+			return (String) get(columnLabel, String.class);
+		}
+
+		public String getString(int columnIndex) throws SQLException {
+			return (String) get(columnIndex, String.class);
+		}
+
+		public int getInt(String columnLabel) throws SQLException {
+			return (Integer) get(columnLabel, int.class);
+		}
+
+		public int getInt(int columnIndex) throws SQLException {
+			return (Integer) get(columnIndex, int.class);
+		}
+
+		public long getLong(String columnLabel) throws SQLException {
+			return (Long) get(columnLabel, long.class);
+		}
+
+		public long getLong(int columnIndex) throws SQLException {
+			return (Long) get(columnIndex, long.class);
+		}
+
+		public double getDouble(String columnLabel) throws SQLException {
+			return (Double) get(columnLabel, double.class);
+		}
+
+		public double getDouble(int columnIndex) throws SQLException {
+			return (Double) get(columnIndex, double.class);
+		}
+
+		public boolean getBoolean(String columnLabel) throws SQLException {
+			return (Boolean) get(columnLabel, boolean.class);
+		}
+
+		public boolean getBoolean(int columnIndex) throws SQLException {
+			return (Boolean) get(columnIndex, boolean.class);
+		}
+
+		public Object getObject(String columnLabel) throws SQLException {
+			return get(columnLabel, Object.class);
+		}
+
+		public Object getObject(int columnIndex) throws SQLException {
+			return get(columnIndex, Object.class);
+		}
+
+		public boolean wasNull() {
+			return wasNull;
+		}
+
+		public int findColumn(String columnLabel) throws SQLException {
+			return columnNames.indexOf(getColumnName(columnLabel)) + 1;
+		}
+
+		public void updateString(String columnLabel, String x) {
+			setValue(columnLabel, Types.VARCHAR, x);
+		}
+
+		public void updateInt(String columnLabel, int x) {
+			setValue(columnLabel, Types.INTEGER, x);
+		}
+
+		public void updateLong(String columnLabel, long x) {
+			setValue(columnLabel, Types.BIGINT, x);
+		}
+
+		public void updateDouble(String columnLabel, double x) {
+			setValue(columnLabel, Types.DOUBLE, x);
+		}
+
+		public void updateBoolean(String columnLabel, boolean x) {
+			setValue(columnLabel, Types.BOOLEAN, x);
+		}
+
+		public void updateObject(String columnLabel, Object x) {
+			setValue(columnLabel, Types.OTHER, x);
+		}
+
+		/**
+		 * Binds null as the type the column was written with before, if any, and otherwise lets the driver infer it
+		 */
+		public void updateNull(String columnLabel) {
+			Integer sqlType = types.get(columnLabel);
+			setValue(columnLabel, (sqlType != null) ? sqlType : Types.NULL, null);
+		}
+	}
+
+}
@@ -17,9 +17,14 @@ public abstract class DataObject implements Persistent {
 	public static final String ID = "id";
 
 	/**
-	 * 
+	 * Changed by servlet threads and reset by the write-behind flusher; updates hold the monitor of this object
+	 */
+	protected transient volatile int writeCount = 0;
+	
+	/**
+	 * Columns changed since the last write, as bits of getColumnMask()
 	 */
-	protected transient int writeCount = 0;
+	protected transient volatile long changedColumns = ColumnMask.NO_COLUMNS;
 	
 	/**
 	 * 
@@ -32,14 +37,68 @@ public abstract class DataObject implements Persistent {
 	 * 
 	 */
 	public final void resetWriteCount() {
-		writeCount = 0;
+		synchronized (this) {
+			writeCount = 0;
+			changedColumns = ColumnMask.NO_COLUMNS;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public final WriteState getWriteState() {
+		synchronized (this) {
+			return new WriteState(writeCount, changedColumns);
+		}
 	}
 	
 	/**
 	 * 
 	 */
+	public final void resetWriteCount(WriteState written) {
+		synchronized (this) {
+			if (writeCount == written.getWriteCount()) {
+				writeCount = 0;
+				changedColumns &= ~written.getChangedColumns();
+			} else {
+				writeCount = Math.max(writeCount - written.getWriteCount(), 1);
+			}
+		}
+	}
+	
+	/**
+	 * Marks all columns as changed
+	 */
 	public final void incWriteCount() {
-		writeCount++;
+		incWriteCount(ColumnMask.ALL_COLUMNS);
+	}
+	
+	/**
+	 * @param columns mask of the changed columns, from getColumnMask()
+	 */
+	protected final void incWriteCount(long columns) {
+		synchronized (this) {
+			changedColumns |= columns;
+			writeCount++;
+		}
+		WriteBehindQueue.getInstance().add(this);
+	}
+	
+	/**
+	 * 
+	 */
+	public boolean isChangedColumn(String columnName) {
+		ColumnMask mask = getColumnMask();
+		return (mask == null) || mask.isChanged(changedColumns, columnName);
+	}
+	
+	/**
+	 * @methodproperties hook
+	 * 
+	 * @return the mask of the columns this object writes, or null to always write all columns
+	 */
+	protected ColumnMask getColumnMask() {
+		return null;
 	}
 	
 	/**
@@ -48,5 +107,4 @@ public abstract class DataObject implements Persistent {
 	public final void touch() {
 		incWriteCount();
 	}
-
 }
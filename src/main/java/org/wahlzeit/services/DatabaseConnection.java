@@ -9,10 +9,12 @@ import org.wahlzeit.utils.PatternInstance;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * A database connection wraps an RDMBS connection object.
- * It pools and reuses existing connections; it caches common SQL statements.
+ * It pools and reuses existing connections through a bounded DatabaseConnectionPool; it caches recently used SQL statements.
+ * Connections to the primary database serve all writes; plain reads may be served by read replicas, see ReadReplicaSet.
  *
  * @author dirkriehle
  *
@@ -25,29 +27,76 @@ import java.util.*;
 public class DatabaseConnection {
 	
 	/**
-	 * 
+	 * Default pool configuration; can be overridden through SysConfig
+	 */
+	public static final int DEFAULT_POOL_MAX_SIZE = 20;
+	public static final long DEFAULT_POOL_WAIT_TIMEOUT = 10 * 1000; // in millis
+	public static final long DEFAULT_POOL_IDLE_TIMEOUT = 10 * 60 * 1000; // in millis
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64; // per connection and kind of statement
+
+	/**
+	 * Created lazily so that SysConfig is available
 	 */
-	protected static Set<DatabaseConnection> pool = new HashSet<DatabaseConnection>();
+	protected static DatabaseConnectionPool pool = null;
 	
 	/**
-	 * 
+	 * Created lazily so that SysConfig is available
 	 */
-	protected static int dbcId = 0;
+	protected static volatile ReadReplicaSet replicas = null;
 	
 	/**
 	 * 
 	 */
-	public static synchronized DatabaseConnection ensureDatabaseConnection() throws SQLException {
-		DatabaseConnection result = null;
-		if (pool.isEmpty()) {
-			result = new DatabaseConnection("dbc" + dbcId++);
-			SysLog.logCreatedObject("DatabaseConnection", result.getName());
-		} else {
-			result = pool.iterator().next();
-			pool.remove(result);
+	public static synchronized DatabaseConnectionPool getPool() {
+		if (pool == null) {
+			pool = new DatabaseConnectionPool(SysConfig.getDbPoolMaxSizeAsInt(), SysConfig.getDbPoolWaitTimeoutAsLong(), SysConfig.getDbPoolIdleTimeoutAsLong());
+			SysLog.logCreatedObject("DatabaseConnectionPool", "max size " + pool.getMaxSize());
 		}
 		
-		return result;
+		return pool;
+	}
+	
+	/**
+	 * Called for every plain read, so it does not lock once the replicas are set up
+	 */
+	public static ReadReplicaSet getReplicas() {
+		ReadReplicaSet result = replicas;
+		return (result != null) ? result : createReplicas();
+	}
+	
+	/**
+	 * @methodtype factory
+	 */
+	protected static synchronized ReadReplicaSet createReplicas() {
+		if (replicas == null) {
+			List<String> urls = ReadReplicaSet.parseUrls(SysConfig.getDbReplicaConnectionsAsString());
+			replicas = new ReadReplicaSet(urls, SysConfig.getDbReplicaRetryIntervalAsLong(), SysConfig.getDbReadYourWritesWindowAsLong());
+			SysLog.logCreatedObject("ReadReplicaSet", urls.size() + " replicas");
+		}
+		
+		return replicas;
+	}
+	
+	/**
+	 * Drops the current pools and closes their idle connections, e.g. after the database configuration changed
+	 */
+	public static synchronized void dropPool() {
+		if (pool != null) {
+			pool.close();
+			pool = null;
+		}
+		
+		if (replicas != null) {
+			replicas.close();
+			replicas = null;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public static DatabaseConnection ensureDatabaseConnection() throws SQLException {
+		return getPool().borrowConnection();
 	}
 
 	/**
@@ -62,7 +111,7 @@ public class DatabaseConnection {
 		String dbUrl = SysConfig.getDbConnectionAsString();
 		do {
 			try {
-				DatabaseConnection.ensureDatabaseConnection();
+				DatabaseConnection.returnDatabaseConnection(DatabaseConnection.ensureDatabaseConnection());
 				SysLog.logSysInfo("[success] Service check for URL " + dbUrl);
 				return true;
 			} catch (final SQLException e) {
@@ -86,15 +135,12 @@ public class DatabaseConnection {
 	}
 	
 	/**
-	 * 
+	 * Returns dbc to the pool it was borrowed from, which may be the pool of a read replica
 	 */
-	public static synchronized void returnDatabaseConnection(DatabaseConnection dbc) {
+	public static void returnDatabaseConnection(DatabaseConnection dbc) {
 		if (dbc != null) {
-			if (dbc.isOpen()) {
-				pool.add(dbc);				
-			} else {
-				SysLog.logSysError("tried to return closed database connection to pool; ignoring it");
-			}
+			DatabaseConnectionPool owner = (dbc.ownerPool != null) ? dbc.ownerPool : getPool();
+			owner.returnConnection(dbc);
 		} else {
 			SysLog.logSysError("tried to return null to database connection pool; ignoring it");
 		}
@@ -111,26 +157,61 @@ public class DatabaseConnection {
 	protected Connection rdbmsConnection = null;
 	
 	/**
-	 * Map contains prepared statements retrieved by query string
+	 * Pool bookkeeping
+	 */
+	protected final AtomicBoolean isBorrowed = new AtomicBoolean(false);
+	protected volatile DatabaseConnectionPool ownerPool = null;
+	protected volatile long lastUsedTime = System.currentTimeMillis();
+	
+	/**
+	 * Caches contain prepared statements retrieved by query string
 	 */
-	protected Map<String, PreparedStatement> readingStatements = new HashMap<String, PreparedStatement>();
-	protected Map<String, PreparedStatement> updatingStatements = new HashMap<String, PreparedStatement>();
+	protected StatementCache readingStatements;
+	protected StatementCache updatingStatements;
 
 	/**
 	 * 
 	 */
 	protected DatabaseConnection(String dbcName) throws SQLException {
+		this(dbcName, openRdbmsConnection());
+	}
+	
+	/**
+	 * 
+	 */
+	protected DatabaseConnection(String dbcName, Connection myRdbmsConnection) {
+		this(dbcName, myRdbmsConnection, DEFAULT_STATEMENT_CACHE_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	protected DatabaseConnection(String dbcName, Connection myRdbmsConnection, int statementCacheSize) {
 		name = dbcName;
-		rdbmsConnection = openRdbmsConnection();
+		rdbmsConnection = myRdbmsConnection;
+		readingStatements = new StatementCache(statementCacheSize);
+		updatingStatements = new StatementCache(statementCacheSize);
 	}
 	
 	/**
 	 * 
 	 */
 	protected void finalize() {
+		close();
+	}
+	
+	/**
+	 * 
+	 */
+	public void close() {
 		try {
-			pool.remove(this); // just to be sure...
-			closeConnection(rdbmsConnection);
+			if (isOpen()) {
+				SysLog.logSysInfo("dbc", name, "reading statement cache " + readingStatements.asStatisticsString());
+				SysLog.logSysInfo("dbc", name, "updating statement cache " + updatingStatements.asStatisticsString());
+				readingStatements.clear();
+				updatingStatements.clear();
+				closeConnection(rdbmsConnection);
+			}
 		} catch (Throwable t) {
 			SysLog.logThrowable(t);
 		}
@@ -158,6 +239,42 @@ public class DatabaseConnection {
 		return result;
 	}
 	
+	/**
+	 * Asks the database whether the connection is still usable
+	 */
+	public boolean isValid(int timeoutInSeconds) {
+		boolean result = false;
+		
+		try {
+			result = (rdbmsConnection != null) && rdbmsConnection.isValid(timeoutInSeconds);
+		} catch (SQLException ex) {
+			SysLog.logThrowable(ex);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @return true if borrowed state changed
+	 */
+	protected boolean setBorrowed(boolean borrowed) {
+		return isBorrowed.compareAndSet(!borrowed, borrowed);
+	}
+	
+	/**
+	 * 
+	 */
+	public long getLastUsedTime() {
+		return lastUsedTime;
+	}
+	
+	/**
+	 * 
+	 */
+	public void touch() {
+		lastUsedTime = System.currentTimeMillis();
+	}
+	
     /**
      * 
      */
@@ -165,6 +282,20 @@ public class DatabaseConnection {
     	return rdbmsConnection;
     }
     
+	/**
+	 * @methodtype get
+	 */
+	public StatementCache getReadingStatementCache() {
+		return readingStatements;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public StatementCache getUpdatingStatementCache() {
+		return updatingStatements;
+	}
+    
 	/**
 	 * 
 	 */
@@ -208,7 +339,14 @@ public class DatabaseConnection {
 	 * 
 	 */
 	public static Connection openRdbmsConnection() throws SQLException {
-		String dbConnection = SysConfig.getDbConnectionAsString();
+		return openRdbmsConnection(null);
+	}
+	
+	/**
+	 * Opens a connection to the database at url, or to the primary database if url is null
+	 */
+	public static Connection openRdbmsConnection(String url) throws SQLException {
+		String dbConnection = (url != null) ? url : SysConfig.getDbConnectionAsString();
 		String dbUser = SysConfig.getDbUserAsString();
 		String dbPassword = SysConfig.getDbPasswordAsString();
    		Connection result = DriverManager.getConnection(dbConnection, dbUser, dbPassword);
@@ -216,6 +354,20 @@ public class DatabaseConnection {
    		return result;
 	}
 	
+	/**
+	 * Returns true for plain SELECT queries, which a read replica can answer; 
+	 * everything else, including SELECT ... FOR UPDATE, has to go to the primary database.
+	 */
+	public static boolean isReadOnlyQuery(String query) {
+		String trimmed = query.trim();
+		if (!trimmed.regionMatches(true, 0, "SELECT", 0, 6)) {
+			return false;
+		}
+		
+		String upper = trimmed.toUpperCase();
+		return !upper.contains(" FOR UPDATE") && !upper.contains(" FOR SHARE") && !upper.contains(" INTO ");
+	}
+	
 	/**
 	 * 
 	 */
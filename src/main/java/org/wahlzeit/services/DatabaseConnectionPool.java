@@ -0,0 +1,260 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.wahlzeit.utils.PatternInstance;
+
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A DatabaseConnectionPool hands out DatabaseConnections up to a maximum number of open connections.
+ * Borrowing an idle connection is lock-free; if all connections are in use, clients wait up to a timeout.
+ * Connections are validated on borrow after having been idle for a while and closed after a longer idle time.
+ */
+@PatternInstance(
+		name = "Object Pool",
+		participants = "Pool",
+		comment = "Reusables are DatabaseConnections, clients are Sessions"
+)
+public class DatabaseConnectionPool {
+
+	/**
+	 * Connections used more recently than this are not validated again on borrow
+	 */
+	public static final long VALIDATION_BYPASS_TIME = 1000; // in millis
+
+	/**
+	 * Seconds to wait for a connection to answer a validation request
+	 */
+	public static final int VALIDATION_TIMEOUT = 5;
+
+	/**
+	 * JDBC URL of the database; null for the primary database configured in SysConfig
+	 */
+	protected final String url;
+
+	/**
+	 *
+	 */
+	protected final int maxSize;
+	protected final long waitTimeout; // in millis
+	protected final long idleTimeout; // in millis
+
+	/**
+	 * One permit per connection that may be handed out
+	 */
+	protected final Semaphore permits;
+
+	/**
+	 * Most recently returned connection first, so that stale connections gather at the end
+	 */
+	protected final ConcurrentLinkedDeque<DatabaseConnection> idleConnections = new ConcurrentLinkedDeque<DatabaseConnection>();
+
+	/**
+	 *
+	 */
+	protected final AtomicInteger noActiveConnections = new AtomicInteger(0);
+	protected final AtomicInteger noWaitingThreads = new AtomicInteger(0);
+	protected final AtomicInteger dbcId = new AtomicInteger(0);
+
+	/**
+	 * A closed pool hands out no connections and closes those returned to it
+	 */
+	protected volatile boolean isClosed = false;
+
+	/**
+	 *
+	 */
+	public DatabaseConnectionPool(int myMaxSize, long myWaitTimeout, long myIdleTimeout) {
+		this(null, myMaxSize, myWaitTimeout, myIdleTimeout);
+	}
+
+	/**
+	 *
+	 */
+	public DatabaseConnectionPool(String myUrl, int myMaxSize, long myWaitTimeout, long myIdleTimeout) {
+		if (myMaxSize < 1) {
+			throw new IllegalArgumentException("pool size must be at least 1: " + myMaxSize);
+		}
+
+		url = myUrl;
+		maxSize = myMaxSize;
+		waitTimeout = myWaitTimeout;
+		idleTimeout = myIdleTimeout;
+		permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Returns a valid connection; waits for a returned connection if pool is exhausted.
+	 *
+	 * @throws SQLException if no connection became available within the wait timeout
+	 */
+	public DatabaseConnection borrowConnection() throws SQLException {
+		if (isClosed) {
+			throw new SQLException("database connection pool is closed");
+		}
+
+		if (!permits.tryAcquire()) {
+			noWaitingThreads.incrementAndGet();
+			try {
+				if (!permits.tryAcquire(waitTimeout, TimeUnit.MILLISECONDS)) {
+					throw new SQLException("timed out after " + waitTimeout + "ms waiting for database connection");
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("interrupted while waiting for database connection", ex);
+			} finally {
+				noWaitingThreads.decrementAndGet();
+			}
+		}
+
+		DatabaseConnection result = null;
+		try {
+			result = pollValidConnection();
+			if (result == null) {
+				result = createConnection();
+			}
+		} finally {
+			if (result == null) {
+				permits.release();
+			}
+		}
+
+		result.setBorrowed(true);
+		result.ownerPool = this;
+		noActiveConnections.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected DatabaseConnection pollValidConnection() {
+		long now = System.currentTimeMillis();
+		for (DatabaseConnection dbc = idleConnections.pollFirst(); dbc != null; dbc = idleConnections.pollFirst()) {
+			long idleTime = now - dbc.getLastUsedTime();
+			if ((idleTime < idleTimeout) && ((idleTime < VALIDATION_BYPASS_TIME) || dbc.isValid(VALIDATION_TIMEOUT))) {
+				return dbc;
+			}
+
+			SysLog.logSysInfo("dbc", dbc.getName(), "discarded stale database connection");
+			dbc.close();
+		}
+
+		return null;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected DatabaseConnection createConnection() throws SQLException {
+		DatabaseConnection result = new DatabaseConnection("dbc" + dbcId.getAndIncrement(), DatabaseConnection.openRdbmsConnection(url), SysConfig.getDbStatementCacheSizeAsInt());
+		SysLog.logCreatedObject("DatabaseConnection", result.getName());
+		return result;
+	}
+
+	/**
+	 * Returns a connection to the pool; closed connections free up their slot for a new one.
+	 * Connections returned to a closed pool are closed.
+	 */
+	public void returnConnection(DatabaseConnection dbc) {
+		if (!dbc.setBorrowed(false)) {
+			SysLog.logSysError("tried to return database connection that was not borrowed; ignoring it");
+			return;
+		}
+
+		noActiveConnections.decrementAndGet();
+		if (isClosed) {
+			dbc.close();
+			return;
+		}
+
+		if (dbc.isOpen()) {
+			dbc.touch();
+			idleConnections.offerFirst(dbc);
+			if (isClosed && idleConnections.remove(dbc)) {
+				dbc.close(); // pool was closed concurrently
+			}
+		} else {
+			SysLog.logSysError("returned closed database connection to pool; discarding it");
+		}
+
+		permits.release();
+		evictIdleConnections();
+	}
+
+	/**
+	 * Closes all connections at the end of the idle list that have not been used for longer than the idle timeout.
+	 */
+	public void evictIdleConnections() {
+		long now = System.currentTimeMillis();
+		for (DatabaseConnection dbc = idleConnections.peekLast(); dbc != null; dbc = idleConnections.peekLast()) {
+			if ((now - dbc.getLastUsedTime()) < idleTimeout) {
+				break;
+			}
+
+			if (idleConnections.removeLastOccurrence(dbc)) {
+				SysLog.logSysInfo("dbc", dbc.getName(), "evicted idle database connection");
+				dbc.close();
+			}
+		}
+	}
+
+	/**
+	 * Closes all idle connections; borrowed connections are closed when being returned.
+	 */
+	public void close() {
+		isClosed = true;
+		for (DatabaseConnection dbc = idleConnections.pollFirst(); dbc != null; dbc = idleConnections.pollFirst()) {
+			dbc.close();
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isClosed() {
+		return isClosed;
+	}
+
+	/**
+	 *
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 *
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 *
+	 */
+	public int getNoActiveConnections() {
+		return noActiveConnections.get();
+	}
+
+	/**
+	 *
+	 */
+	public int getNoIdleConnections() {
+		return idleConnections.size();
+	}
+
+	/**
+	 *
+	 */
+	public int getNoWaitingThreads() {
+		return noWaitingThreads.get();
+	}
+
+}
@@ -0,0 +1,189 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * An IdAllocator hands out unique ids from blocks of ids it leases from a counter column of the globals table.
+ * Leasing a block takes one atomic UPDATE ... RETURNING, so several nodes can share the counter;
+ * ids within a block are handed out without locking. Ids of a block that is not used up are lost.
+ * Until leasing is enabled, blocks are taken from an in-memory counter, e.g. for tools and tests.
+ */
+public class IdAllocator {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 64;
+
+	/**
+	 * Name of counter column in globals table
+	 */
+	protected final String columnName;
+
+	/**
+	 *
+	 */
+	protected final int blockSize;
+
+	/**
+	 * Current block; an empty block before the first lease
+	 */
+	protected volatile IdBlock block = new IdBlock(1, 0);
+
+	/**
+	 * Highest id leased so far
+	 */
+	protected final AtomicInteger lastLeasedId = new AtomicInteger(0);
+
+	/**
+	 * Highest id handed out so far
+	 */
+	protected final AtomicInteger lastId = new AtomicInteger(0);
+
+	/**
+	 *
+	 */
+	protected volatile boolean isLeasingFromDatabase = false;
+
+	/**
+	 *
+	 */
+	public IdAllocator(String myColumnName, int myBlockSize) {
+		columnName = myColumnName;
+		blockSize = myBlockSize;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getLastId() {
+		return lastId.get();
+	}
+
+	/**
+	 * Sets the last id handed out, e.g. after loading globals; discards the current block.
+	 */
+	public synchronized void setLastId(int id) {
+		lastId.set(id);
+		lastLeasedId.set(id);
+		block = new IdBlock(1, 0);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setLeasingFromDatabase(boolean isLeasing) {
+		isLeasingFromDatabase = isLeasing;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isLeasingFromDatabase() {
+		return isLeasingFromDatabase;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Returns a new unique id, leasing a new block only if the current one is used up.
+	 */
+	public int getNextId() {
+		while (true) {
+			IdBlock current = block;
+			int result = current.nextId.getAndIncrement();
+			if (result <= current.limit) {
+				lastId.accumulateAndGet(result, Math::max);
+				return result;
+			}
+
+			synchronized (this) {
+				if (block == current) {
+					block = leaseBlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the highest id leased so far; all ids up to it may have been handed out by some node.
+	 */
+	public int getLastLeasedId() {
+		return lastLeasedId.get();
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected IdBlock leaseBlock() {
+		int limit;
+		if (isLeasingFromDatabase) {
+			try {
+				limit = leaseFromDatabase();
+			} catch (SQLException sex) {
+				SysLog.logThrowable(sex);
+				throw new IllegalStateException("could not lease ids for " + columnName, sex);
+			}
+			lastLeasedId.accumulateAndGet(limit, Math::max);
+		} else {
+			limit = lastLeasedId.addAndGet(blockSize);
+		}
+
+		return new IdBlock(limit - blockSize + 1, limit);
+	}
+
+	/**
+	 * Advances the counter by one block size in one statement, which the database executes atomically.
+	 *
+	 * @return the new value of the counter, the last id of the leased block
+	 */
+	protected int leaseFromDatabase() throws SQLException {
+		String query = "UPDATE globals SET " + columnName + " = " + columnName + " + ? RETURNING " + columnName;
+		SysLog.logQuery(query);
+
+		Connection conn = SessionManager.getDatabaseConnection().getRdbmsConnection();
+		PreparedStatement stmt = conn.prepareStatement(query);
+		try {
+			stmt.setInt(1, blockSize);
+			ResultSet rset = stmt.executeQuery();
+			if (!rset.next()) {
+				throw new SQLException("no globals row to lease ids from");
+			}
+			return rset.getInt(1);
+		} finally {
+			stmt.close();
+		}
+	}
+
+	/**
+	 * A leased block of ids, from nextId up to and including limit
+	 */
+	protected static class IdBlock {
+
+		/**
+		 *
+		 */
+		protected final AtomicInteger nextId;
+		protected final int limit;
+
+		/**
+		 *
+		 */
+		protected IdBlock(int firstId, int myLimit) {
+			nextId = new AtomicInteger(firstId);
+			limit = myLimit;
+		}
+	}
+
+}
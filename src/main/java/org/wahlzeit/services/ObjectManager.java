@@ -8,6 +8,9 @@ package org.wahlzeit.services;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 /**
  * An ObjectManager creates/reads/updates/deletes Persistent (objects) from a database.
@@ -15,6 +18,29 @@ import java.util.*;
  */
 public abstract class ObjectManager {
 	
+	/**
+	 * Maximum number of objects written in one batch (and transaction)
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 250;
+	
+	/**
+	 * Number of rows fetched per round trip when streaming large query results
+	 */
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	
+	/**
+	 * 
+	 */
+	protected int batchSize = DEFAULT_BATCH_SIZE;
+	protected int fetchSize = DEFAULT_FETCH_SIZE;
+	
+	/**
+	 * Handles the current row of a streamed query result
+	 */
+	public interface RowHandler {
+		public void handleRow(ResultSet rset) throws SQLException;
+	}
+	
 	/**
 	 * All objects are now saved under this root key. In case of multi-tenancy this may change to several keys.
 	 */
@@ -23,19 +49,45 @@ public abstract class ObjectManager {
 	}
 	    
 	/**
-	 * 
+	 * Connection for plain reads, which may go to a read replica
+	 */
+	public DatabaseConnection getReadingDatabaseConnection() throws SQLException {
+		return SessionManager.getReadingDatabaseConnection();
+	}
+	
+	/**
+	 * Connection to the primary database for writes; the session reads its own writes from it for a while
+	 */
+	public DatabaseConnection getWritingDatabaseConnection() throws SQLException {
+		return SessionManager.getWritingDatabaseConnection();
+	}
+	    
+	/**
+	 * Plain SELECT statements are prepared on the reading connection, all other statements on the primary database
 	 */
 	protected PreparedStatement getReadingStatement(String stmt) throws SQLException {
-    	DatabaseConnection dbc = getDatabaseConnection();
-    	return dbc.getReadingStatement(stmt);
+		DatabaseConnection dbc = DatabaseConnection.isReadOnlyQuery(stmt) ? getReadingDatabaseConnection() : getWritingDatabaseConnection();
+		return dbc.getReadingStatement(stmt);
+	}
+	
+	/**
+	 * Like getReadingStatement, for reading the object of type and id; prepared on the primary database
+	 * while the WriteBehindQueue has a recent write of that object, which read replicas may not have yet
+	 */
+	protected PreparedStatement getReadingStatement(String stmt, Class<?> type, String id) throws SQLException {
+		if (WriteBehindQueue.getInstance().hasRecentWrite(type, id)) {
+			return getDatabaseConnection().getReadingStatement(stmt);
+		}
+		
+		return getReadingStatement(stmt);
 	}
 	
 	/**
 	 * 
 	 */
 	protected PreparedStatement getUpdatingStatement(String stmt) throws SQLException {
-    	DatabaseConnection dbc = getDatabaseConnection();
-    	return dbc.getUpdatingStatement(stmt);
+		DatabaseConnection dbc = getWritingDatabaseConnection();
+		return dbc.getUpdatingStatement(stmt);
 	}
 	
 	/**
@@ -80,6 +132,19 @@ public abstract class ObjectManager {
 		}
 	}
 		
+	/**
+	 * 
+	 */
+	protected void readObjects(Collection result, PreparedStatement stmt, int value) throws SQLException {
+		stmt.setInt(1, value);
+		SysLog.logQuery(stmt);
+		ResultSet rset = stmt.executeQuery();
+		while (rset.next()) {
+			Persistent obj = createObject(rset);
+			result.add(obj);
+		}
+	}
+		
 	/**
 	 * 
 	 */
@@ -93,6 +158,98 @@ public abstract class ObjectManager {
 		}
 	}
 		
+	/**
+	 * Streams the result of query through a cursor, fetchSize rows at a time, instead of reading it into memory.
+	 * The query runs in its own transaction, as drivers like Postgres' use cursors only with autocommit off.
+	 * 
+	 * @return number of rows
+	 */
+	protected int scanRows(String query, RowHandler handler) throws SQLException {
+		Connection conn = getDatabaseConnection().getRdbmsConnection();
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		PreparedStatement stmt = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			stmt.setFetchSize(fetchSize);
+			SysLog.logQuery(stmt);
+			int result = 0;
+			ResultSet rset = stmt.executeQuery();
+			while (rset.next()) {
+				handler.handleRow(rset);
+				result++;
+			}
+			rset.close();
+			conn.commit();
+			return result;
+		} catch (SQLException sex) {
+			conn.rollback();
+			throw sex;
+		} finally {
+			stmt.close();
+			conn.setAutoCommit(wasAutoCommit);
+		}
+	}
+	
+	/**
+	 * Streams all objects of query like scanRows, but creates objects from rows in parallel.
+	 * The reading thread hands batches of fetchSize rows to decoding threads; consumer is called from these concurrently.
+	 * 
+	 * @return number of rows
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T extends Persistent> int loadObjects(String query, Consumer<T> consumer) throws SQLException {
+		int noThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		ExecutorService decoders = Executors.newFixedThreadPool(noThreads);
+		Semaphore freeBatches = new Semaphore(2 * noThreads); // bounds rows held in memory
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		AtomicReference<List<ColumnValues>> batch = new AtomicReference<List<ColumnValues>>(new ArrayList<ColumnValues>(fetchSize));
+
+		Consumer<List<ColumnValues>> submitter = rows -> {
+			freeBatches.acquireUninterruptibly();
+			decoders.execute(() -> {
+				try {
+					for (ColumnValues row : rows) {
+						T obj = (T) createObject(row.asResultSet());
+						if (obj != null) {
+							consumer.accept(obj);
+						}
+					}
+				} catch (Throwable ex) {
+					failure.compareAndSet(null, ex);
+				} finally {
+					freeBatches.release();
+				}
+			});
+		};
+
+		try {
+			int result = scanRows(query, rset -> {
+				if (failure.get() != null) {
+					throw new SQLException("could not create object", failure.get());
+				}
+				
+				batch.get().add(ColumnValues.readFrom(rset));
+				if (batch.get().size() == fetchSize) {
+					submitter.accept(batch.getAndSet(new ArrayList<ColumnValues>(fetchSize)));
+				}
+			});
+			
+			submitter.accept(batch.get());
+			decoders.shutdown();
+			decoders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			if (failure.get() != null) {
+				throw new SQLException("could not create object", failure.get());
+			}
+			
+			return result;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted while loading objects", ex);
+		} finally {
+			decoders.shutdownNow();
+		}
+	}
+	
 	/**
 	 * 
 	 */
@@ -117,34 +274,123 @@ public abstract class ObjectManager {
 	}
 	
 	/**
-	 * 
+	 * Updates the changed columns of a single dirty object in one round trip.
 	 */
-	protected void updateObject(Persistent obj, PreparedStatement stmt) throws SQLException {
+	protected void updateObject(Persistent obj, String tableName) throws SQLException {
 		if (obj.isDirty()) {
-			obj.writeId(stmt, 1);
+			ColumnValues values = ColumnValues.getChangesFrom(obj);
+			List<String> columnNames = values.getUpdateColumnNames();
+			if (columnNames.isEmpty()) {
+				updateDependents(obj);
+				obj.resetWriteCount(values.getWriteState());
+				return;
+			}
+			
+			PreparedStatement stmt = getReadingStatement(ColumnValues.asUpdateStatementString(tableName, columnNames));
+			int pos = values.writeOn(stmt, columnNames, 1);
+			obj.writeId(stmt, pos);
 			SysLog.logQuery(stmt);
-			ResultSet rset = stmt.executeQuery();
-			if (rset.next()) {
-				obj.writeOn(rset);
-				rset.updateRow();
+			if (stmt.executeUpdate() > 0) {
 				updateDependents(obj);
-				obj.resetWriteCount();
+				obj.resetWriteCount(values.getWriteState());
 			} else {
-				SysLog.logSysError("trying to update non-existent object: " + obj.getIdAsString() + "(" + obj.toString() + ")");
+				logNonExistentObject(obj);
 			}
 		}
 	}
 	
 	/**
-	 * 
+	 * Updates the changed columns of all dirty objects of the collection using JDBC batches.
+	 * Objects with the same changed columns share an UPDATE statement and its batches.
+	 * Each batch of at most batchSize objects (and its dependents) is written in its own transaction.
+	 * Objects changed while being written stay dirty, see WriteState.
 	 */
-	protected void updateObjects(Collection coll, PreparedStatement stmt) throws SQLException {
+	protected void updateObjects(Collection coll, String tableName) throws SQLException {
+		Map<String, List<Persistent>> dirtyObjects = new LinkedHashMap<String, List<Persistent>>();
+		Map<Persistent, ColumnValues> dirtyValues = new HashMap<Persistent, ColumnValues>();
 		for (Iterator i = coll.iterator(); i.hasNext(); ) {
 			Persistent obj = (Persistent) i.next();
-			updateObject(obj, stmt);
+			if (obj.isDirty()) {
+				ColumnValues values = ColumnValues.getChangesFrom(obj);
+				if (values.getUpdateColumnNames().isEmpty()) {
+					updateDependents(obj);
+					obj.resetWriteCount(values.getWriteState());
+					continue;
+				}
+				
+				String query = values.asUpdateStatementString(tableName);
+				List<Persistent> objs = dirtyObjects.get(query);
+				if (objs == null) {
+					objs = new ArrayList<Persistent>();
+					dirtyObjects.put(query, objs);
+				}
+				objs.add(obj);
+				dirtyValues.put(obj, values);
+			}
+		}
+		
+		for (Map.Entry<String, List<Persistent>> entry : dirtyObjects.entrySet()) {
+			List<Persistent> objs = entry.getValue();
+			for (int i = 0; i < objs.size(); i += batchSize) {
+				List<Persistent> batch = objs.subList(i, Math.min(i + batchSize, objs.size()));
+				updateBatch(batch, dirtyValues, entry.getKey());
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void updateBatch(List<Persistent> batch, Map<Persistent, ColumnValues> values, String query) throws SQLException {
+		Connection conn = getDatabaseConnection().getRdbmsConnection();
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			PreparedStatement stmt = getReadingStatement(query);
+			for (Persistent obj : batch) {
+				ColumnValues objValues = values.get(obj);
+				int pos = objValues.writeOn(stmt, objValues.getUpdateColumnNames(), 1);
+				obj.writeId(stmt, pos);
+				stmt.addBatch();
+			}
+			
+			SysLog.logQuery(query + " [batch of " + batch.size() + "]");
+			int[] updateCounts = stmt.executeBatch();
+			
+			List<Persistent> updatedObjects = new ArrayList<Persistent>(batch.size());
+			for (int i = 0; i < batch.size(); i++) {
+				Persistent obj = batch.get(i);
+				if ((i < updateCounts.length) && (updateCounts[i] == 0)) {
+					logNonExistentObject(obj);
+				} else {
+					updateDependents(obj);
+					updatedObjects.add(obj);
+				}
+			}
+			
+			conn.commit();
+			
+			for (Persistent obj : updatedObjects) {
+				obj.resetWriteCount(values.get(obj).getWriteState());
+			}
+		} catch (SQLException sex) {
+			conn.rollback();
+			for (Persistent obj : batch) {
+				forgetDependents(obj);
+			}
+			throw sex;
+		} finally {
+			conn.setAutoCommit(wasAutoCommit);
 		}
 	}
 	
+	/**
+	 * 
+	 */
+	protected void logNonExistentObject(Persistent obj) {
+		SysLog.logSysError("trying to update non-existent object: " + obj.getIdAsString() + "(" + obj.toString() + ")");
+	}
+	
 	/**
 	 * 
 	 */
@@ -152,6 +398,15 @@ public abstract class ObjectManager {
 		// do nothing
 	}
 	
+	/**
+	 * @methodproperty hook
+	 *
+	 * Called if writing obj and its dependents was rolled back; subclasses drop state derived from the write.
+	 */
+	protected void forgetDependents(Persistent obj) {
+		// do nothing
+	}
+	
 	/**
 	 * 
 	 */
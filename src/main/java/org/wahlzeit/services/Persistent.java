@@ -9,7 +9,7 @@ import java.sql.*;
 
 /**
  * A Persistent object is an object that can be read from and written to some storage.
- * Also, it has a write count, which serves as a dirty flag.
+ * Also, it has a write count, which serves as a dirty flag, and knows which of its columns changed.
  */
 public interface Persistent {
 	
@@ -27,6 +27,21 @@ public interface Persistent {
 	 * 
 	 */
 	public void resetWriteCount();
+	
+	/**
+	 * Takes a snapshot of the write count and changed columns, before the values to write are captured
+	 */
+	public WriteState getWriteState();
+	
+	/**
+	 * Resets the changes covered by a write that started at written; changes made since keep this object dirty
+	 */
+	public void resetWriteCount(WriteState written);
+	
+	/**
+	 * Tells whether a column may have changed since the last write; only changed columns need to be updated
+	 */
+	public boolean isChangedColumn(String columnName);
 
 	/**
 	 * 
@@ -0,0 +1,96 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+import java.util.zip.*;
+
+/**
+ * PrecompressedFiles writes gzip-compressed siblings (file.css.gz for file.css) of static text files,
+ * so they are compressed once rather than on every request.
+ */
+public class PrecompressedFiles {
+
+	/**
+	 *
+	 */
+	public static final String GZIP_EXTENSION = ".gz";
+
+	/**
+	 * Extensions of files worth compressing; images are compressed already
+	 */
+	public static final List<String> COMPRESSIBLE_EXTENSIONS = Arrays.asList(".css", ".js", ".html", ".htm", ".svg", ".txt", ".xml", ".json");
+
+	/**
+	 * Writes missing or outdated compressed siblings of compressible files below dir of at least minSize bytes
+	 *
+	 * @return number of files compressed
+	 */
+	public static int compressAll(File dir, long minSize) throws IOException {
+		if (!dir.isDirectory()) {
+			return 0;
+		}
+
+		List<Path> files;
+		try (Stream<Path> paths = Files.walk(dir.toPath())) {
+			files = paths.filter(Files::isRegularFile).filter(path -> isCompressible(path.toString())).collect(Collectors.toList());
+		}
+
+		int result = 0;
+		for (Path file : files) {
+			File original = file.toFile();
+			if ((original.length() >= minSize) && (getCompressedFile(original) == null)) {
+				compress(original);
+				result++;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	public static boolean isCompressible(String fileName) {
+		String name = fileName.toLowerCase();
+		for (String extension : COMPRESSIBLE_EXTENSIONS) {
+			if (name.endsWith(extension)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return compressed sibling of file, or null if there is none or it is older than file
+	 */
+	public static File getCompressedFile(File file) {
+		File result = new File(file.getPath() + GZIP_EXTENSION);
+		if (!result.isFile() || (result.lastModified() < file.lastModified())) {
+			return null;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Writes the compressed sibling of file through a temporary file, so it never is seen incomplete
+	 */
+	protected static void compress(File file) throws IOException {
+		Path target = Paths.get(file.getPath() + GZIP_EXTENSION);
+		Path tempTarget = target.resolveSibling(target.getFileName() + ".tmp");
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempTarget), 8 * 1024)) {
+			Files.copy(file.toPath(), out);
+		}
+
+		Files.move(tempTarget, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
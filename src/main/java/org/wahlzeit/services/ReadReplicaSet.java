@@ -0,0 +1,212 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A ReadReplicaSet hands out connections to read replicas of the primary database, e.g. Postgres streaming replicas.
+ * Each replica has its own DatabaseConnectionPool; replicas are used round-robin.
+ * A replica that fails to hand out a connection is taken out of rotation and tried again after the retry interval.
+ * Clients fall back to the primary database if no replica is available.
+ */
+public class ReadReplicaSet {
+
+	/**
+	 * Defaults; times are in milliseconds
+	 */
+	public static final long DEFAULT_RETRY_INTERVAL = 30 * 1000;
+	public static final long DEFAULT_READ_YOUR_WRITES_WINDOW = 5 * 1000;
+
+	/**
+	 *
+	 */
+	protected final List<Replica> replicas = new ArrayList<Replica>();
+
+	/**
+	 *
+	 */
+	protected final AtomicInteger nextReplica = new AtomicInteger(0);
+
+	/**
+	 *
+	 */
+	protected final long retryInterval;
+
+	/**
+	 * Time after a write in which a session keeps reading from the primary database, to cover replication lag
+	 */
+	protected final long readYourWritesWindow;
+
+	/**
+	 *
+	 */
+	public ReadReplicaSet(Collection<String> urls, long myRetryInterval, long myReadYourWritesWindow) {
+		retryInterval = myRetryInterval;
+		readYourWritesWindow = myReadYourWritesWindow;
+
+		for (String url : urls) {
+			replicas.add(new Replica(url, createPool(url)));
+		}
+	}
+
+	/**
+	 * Parses a comma-separated list of JDBC URLs; empty entries are ignored
+	 */
+	public static List<String> parseUrls(String urls) {
+		List<String> result = new ArrayList<String>();
+		if (urls != null) {
+			for (String url : urls.split(",")) {
+				if (!url.trim().isEmpty()) {
+					result.add(url.trim());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected DatabaseConnectionPool createPool(String url) {
+		return new DatabaseConnectionPool(url, SysConfig.getDbPoolMaxSizeAsInt(), SysConfig.getDbPoolWaitTimeoutAsLong(), SysConfig.getDbPoolIdleTimeoutAsLong());
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return replicas.isEmpty();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return replicas.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getReadYourWritesWindow() {
+		return readYourWritesWindow;
+	}
+
+	/**
+	 * Returns a connection to the next available replica in turn; skips replicas that are down or busy.
+	 *
+	 * @return connection or null if no replica is available
+	 */
+	public DatabaseConnection borrowConnection() {
+		int size = replicas.size();
+		if (size == 0) {
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+		int first = Math.floorMod(nextReplica.getAndIncrement(), size);
+		for (int i = 0; i < size; i++) {
+			Replica replica = replicas.get((first + i) % size);
+			if (replica.isDown(now) || replica.isBusy()) {
+				continue;
+			}
+
+			try {
+				DatabaseConnection result = replica.pool.borrowConnection();
+				replica.markUp();
+				return result;
+			} catch (SQLException sex) {
+				SysLog.logSysError("read replica " + replica.url + " is down: " + sex.getMessage());
+				replica.markDown(now + retryInterval);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoAvailableReplicas() {
+		long now = System.currentTimeMillis();
+		int result = 0;
+		for (Replica replica : replicas) {
+			if (!replica.isDown(now)) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Closes the idle connections of all replicas
+	 */
+	public void close() {
+		for (Replica replica : replicas) {
+			replica.pool.close();
+		}
+	}
+
+	/**
+	 * A read replica with its pool and health state
+	 */
+	protected static class Replica {
+
+		/**
+		 *
+		 */
+		protected final String url;
+		protected final DatabaseConnectionPool pool;
+
+		/**
+		 * Time until which the replica is not used; 0 if it is up
+		 */
+		protected volatile long downUntil = 0;
+
+		/**
+		 *
+		 */
+		protected Replica(String myUrl, DatabaseConnectionPool myPool) {
+			url = myUrl;
+			pool = myPool;
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected boolean isDown(long now) {
+			return now < downUntil;
+		}
+
+		/**
+		 * An exhausted pool is not a failed replica, but waiting for it would be slower than reading from the primary
+		 */
+		protected boolean isBusy() {
+			return pool.getNoActiveConnections() >= pool.getMaxSize();
+		}
+
+		/**
+		 * @methodtype set
+		 */
+		protected void markDown(long until) {
+			downUntil = until;
+		}
+
+		/**
+		 * @methodtype set
+		 */
+		protected void markUp() {
+			if (downUntil != 0) {
+				SysLog.logSysInfo("read replica " + url + " is up again");
+				downUntil = 0;
+			}
+		}
+	}
+
+}
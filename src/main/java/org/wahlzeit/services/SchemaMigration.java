@@ -0,0 +1,98 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * A SchemaMigration is a numbered script that changes the database schema, together with checks
+ * that the queries it is meant to speed up actually use its indexes, according to EXPLAIN.
+ */
+public class SchemaMigration {
+
+	/**
+	 *
+	 */
+	protected final int version;
+	protected final String scriptName;
+
+	/**
+	 * Index names by the queries that should use them
+	 */
+	protected Map<String, String> indexChecks = new LinkedHashMap<String, String>();
+
+	/**
+	 *
+	 */
+	public SchemaMigration(int myVersion, String myScriptName) {
+		version = myVersion;
+		scriptName = myScriptName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getScriptName() {
+		return scriptName;
+	}
+
+	/**
+	 * Adds a check that the plan of query uses the index; query takes literals instead of parameters
+	 */
+	public SchemaMigration addIndexCheck(String query, String indexName) {
+		indexChecks.put(query, indexName);
+		return this;
+	}
+
+	/**
+	 * Explains each checked query and fails if its plan does not use its index.
+	 * Must run within a transaction, as it disables sequential scans for it; otherwise the planner
+	 * would prefer them for small tables, and the check would depend on the amount of data.
+	 */
+	public void checkIndexes(Connection conn) throws SQLException {
+		Statement stmt = conn.createStatement();
+		try {
+			stmt.execute("SET LOCAL enable_seqscan = off");
+			for (Map.Entry<String, String> check : indexChecks.entrySet()) {
+				String query = check.getKey();
+				String indexName = check.getValue();
+
+				StringBuffer plan = new StringBuffer(256);
+				ResultSet rset = stmt.executeQuery("EXPLAIN " + query);
+				while (rset.next()) {
+					plan.append(rset.getString(1)).append('\n');
+				}
+				rset.close();
+
+				if (!isUsingIndex(plan.toString(), indexName)) {
+					throw new SQLException("query does not use index " + indexName + ": " + query + "\n" + plan);
+				}
+				SysLog.logSysInfo("query uses index " + indexName + ": " + query);
+			}
+		} finally {
+			stmt.close();
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public static boolean isUsingIndex(String plan, String indexName) {
+		String name = Pattern.quote(indexName);
+		Pattern scan = Pattern.compile("(Index Scan|Index Only Scan) using " + name + "\\b|Bitmap Index Scan on " + name + "\\b");
+		return scan.matcher(plan).find();
+	}
+
+}
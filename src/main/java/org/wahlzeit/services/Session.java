@@ -8,6 +8,8 @@ package org.wahlzeit.services;
 
 import org.wahlzeit.utils.PatternInstance;
 
+import java.sql.SQLException;
+
 /**
  * A Session object maintains a DatabaseConnection and helps track processing time. Typically, there is one for each
  * working thread, be it a system thread or a web session.
@@ -29,6 +31,16 @@ public class Session {
 	 */
 	protected DatabaseConnection databaseConnection = null;
 	
+	/**
+	 * Connection to a read replica for plain reads, if any
+	 */
+	protected DatabaseConnection replicaConnection = null;
+	
+	/**
+	 * Time of last write to the primary database, for reading your own writes
+	 */
+	protected long lastWriteTime = 0;
+	
 	/**
 	 * processing time for requests
 	 */
@@ -91,6 +103,56 @@ public class Session {
 		return databaseConnection;
 	}
 	
+	/**
+	 * Returns a connection for plain reads: to a read replica if one is available,
+	 * but to the primary database within a transaction or shortly after this session wrote to it.
+	 */
+	public DatabaseConnection ensureReadingConnection() {
+		ReadReplicaSet replicas = DatabaseConnection.getReplicas();
+		if (replicas.isEmpty() || isReadingFromPrimary(replicas.getReadYourWritesWindow())) {
+			return ensureDatabaseConnection();
+		}
+		
+		if (replicaConnection == null) {
+			replicaConnection = replicas.borrowConnection();
+		}
+		
+		return (replicaConnection != null) ? replicaConnection : ensureDatabaseConnection();
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isReadingFromPrimary(long readYourWritesWindow) {
+		return isInTransaction() || ((System.currentTimeMillis() - lastWriteTime) < readYourWritesWindow);
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isInTransaction() {
+		boolean result = false;
+		
+		if (databaseConnection != null) {
+			try {
+				result = !databaseConnection.getRdbmsConnection().getAutoCommit();
+			} catch (SQLException ex) {
+				SysLog.logThrowable(ex);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Notes that this session is about to write to the primary database.
+	 * Writes of the WriteBehindQueue are noted on the flusher's session only; reads of objects it wrote recently
+	 * are routed to the primary by ObjectManager.getReadingStatement(String, Class, String) instead.
+	 */
+	public void noteWrite() {
+		lastWriteTime = System.currentTimeMillis();
+	}
+	
 	/**
 	 * @methodproperty hook
 	 *
@@ -103,6 +165,11 @@ public class Session {
 			DatabaseConnection.returnDatabaseConnection(databaseConnection);
 			databaseConnection = null;
 		}
+		
+		if (replicaConnection != null) {
+			DatabaseConnection.returnDatabaseConnection(replicaConnection);
+			replicaConnection = null;
+		}
 	}
 	
 	/**
@@ -43,4 +43,20 @@ public class SessionManager {
 		return getThreadLocalSession().ensureDatabaseConnection();
 	}
 	
+	/**
+	 * Returns a connection for plain reads, possibly to a read replica
+	 */
+	public static DatabaseConnection getReadingDatabaseConnection() {
+		return getThreadLocalSession().ensureReadingConnection();
+	}
+	
+	/**
+	 * Returns the connection to the primary database for writing; reads of this session follow it for a while
+	 */
+	public static DatabaseConnection getWritingDatabaseConnection() {
+		Session session = getThreadLocalSession();
+		session.noteWrite();
+		return session.ensureDatabaseConnection();
+	}
+	
 }
@@ -0,0 +1,288 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.function.*;
+
+/**
+ * A SnapshotFile is a compact binary file of ints, longs, strings, and rows of column values.
+ * It is written through a buffered stream to a temporary file, which replaces the file only when complete,
+ * and read through a read-only memory mapping, so reading does not copy the file into the heap first.
+ * Rows are stored as column names and types once, followed by typed values; ColumnValues are read back.
+ */
+public class SnapshotFile {
+
+	/**
+	 * "WZSN"
+	 */
+	public static final int MAGIC = 0x575a534e;
+
+	/**
+	 * Files of other format versions are not read
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Value tags
+	 */
+	protected static final byte NULL_VALUE = 0;
+	protected static final byte INT_VALUE = 1;
+	protected static final byte LONG_VALUE = 2;
+	protected static final byte BOOLEAN_VALUE = 3;
+	protected static final byte DOUBLE_VALUE = 4;
+	protected static final byte STRING_VALUE = 5;
+
+	/**
+	 * Row tags
+	 */
+	protected static final byte ROW = 1;
+	protected static final byte END_OF_ROWS = 0;
+
+	/**
+	 * Writes a SnapshotFile; call commit() to replace the file with what was written, close() in any case.
+	 */
+	public static class Writer implements Closeable {
+
+		/**
+		 *
+		 */
+		protected final Path path;
+		protected final Path tempPath;
+		protected final DataOutputStream out;
+		protected boolean isCommitted = false;
+
+		/**
+		 *
+		 */
+		public Writer(File file) throws IOException {
+			path = file.toPath();
+			tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+			out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), 64 * 1024));
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+		}
+
+		/**
+		 *
+		 */
+		public void writeInt(int value) throws IOException {
+			out.writeInt(value);
+		}
+
+		/**
+		 *
+		 */
+		public void writeLong(long value) throws IOException {
+			out.writeLong(value);
+		}
+
+		/**
+		 *
+		 */
+		public void writeBoolean(boolean value) throws IOException {
+			out.writeByte(value ? 1 : 0);
+		}
+
+		/**
+		 * Writes length and UTF-8 bytes, so strings are not limited to 64K like with writeUTF
+		 */
+		public void writeString(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		/**
+		 * Writes value with a tag of its type; other types than int, long, boolean, and double are written as strings
+		 */
+		public void writeValue(Object value) throws IOException {
+			if (value == null) {
+				out.writeByte(NULL_VALUE);
+			} else if ((value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+				out.writeByte(INT_VALUE);
+				out.writeInt(((Number) value).intValue());
+			} else if (value instanceof Long) {
+				out.writeByte(LONG_VALUE);
+				out.writeLong((Long) value);
+			} else if (value instanceof Boolean) {
+				out.writeByte(BOOLEAN_VALUE);
+				out.writeByte(((Boolean) value) ? 1 : 0);
+			} else if ((value instanceof Double) || (value instanceof Float)) {
+				out.writeByte(DOUBLE_VALUE);
+				out.writeDouble(((Number) value).doubleValue());
+			} else {
+				out.writeByte(STRING_VALUE);
+				writeString(value.toString());
+			}
+		}
+
+		/**
+		 * Writes all rows of rset, preceded by its column names and types
+		 *
+		 * @return number of rows
+		 */
+		public int writeRows(ResultSet rset) throws IOException, SQLException {
+			ResultSetMetaData metaData = rset.getMetaData();
+			int noColumns = metaData.getColumnCount();
+			out.writeInt(noColumns);
+			for (int i = 1; i <= noColumns; i++) {
+				writeString(metaData.getColumnLabel(i).toLowerCase());
+				out.writeInt(metaData.getColumnType(i));
+			}
+
+			int result = 0;
+			while (rset.next()) {
+				out.writeByte(ROW);
+				for (int i = 1; i <= noColumns; i++) {
+					writeValue(rset.getObject(i));
+				}
+				result++;
+			}
+			out.writeByte(END_OF_ROWS);
+
+			return result;
+		}
+
+		/**
+		 * Completes the file and atomically replaces the previous one
+		 */
+		public void commit() throws IOException {
+			out.close();
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			isCommitted = true;
+		}
+
+		/**
+		 * Discards the temporary file unless committed
+		 */
+		public void close() throws IOException {
+			if (!isCommitted) {
+				out.close();
+				Files.deleteIfExists(tempPath);
+			}
+		}
+	}
+
+	/**
+	 * Reads a SnapshotFile from a memory mapping; files are limited to 2GB
+	 */
+	public static class Reader {
+
+		/**
+		 *
+		 */
+		protected final ByteBuffer buffer;
+
+		/**
+		 * @throws IOException if file is not a SnapshotFile of the current format version
+		 */
+		public Reader(File file) throws IOException {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+
+			if ((buffer.remaining() < 8) || (buffer.getInt() != MAGIC)) {
+				throw new IOException("not a snapshot file: " + file);
+			}
+
+			int formatVersion = buffer.getInt();
+			if (formatVersion != FORMAT_VERSION) {
+				throw new IOException("snapshot file " + file + " has format version " + formatVersion + " instead of " + FORMAT_VERSION);
+			}
+		}
+
+		/**
+		 *
+		 */
+		public int readInt() {
+			return buffer.getInt();
+		}
+
+		/**
+		 *
+		 */
+		public long readLong() {
+			return buffer.getLong();
+		}
+
+		/**
+		 *
+		 */
+		public boolean readBoolean() {
+			return buffer.get() != 0;
+		}
+
+		/**
+		 *
+		 */
+		public String readString() {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 *
+		 */
+		public Object readValue() throws IOException {
+			byte tag = buffer.get();
+			switch (tag) {
+				case NULL_VALUE:
+					return null;
+				case INT_VALUE:
+					return buffer.getInt();
+				case LONG_VALUE:
+					return buffer.getLong();
+				case BOOLEAN_VALUE:
+					return buffer.get() != 0;
+				case DOUBLE_VALUE:
+					return buffer.getDouble();
+				case STRING_VALUE:
+					return readString();
+				default:
+					throw new IOException("corrupt snapshot file: unknown value tag " + tag);
+			}
+		}
+
+		/**
+		 * Reads rows written by writeRows and passes each to consumer
+		 *
+		 * @return number of rows
+		 */
+		public int readRows(Consumer<ColumnValues> consumer) throws IOException {
+			int noColumns = buffer.getInt();
+			String[] columnNames = new String[noColumns];
+			int[] columnTypes = new int[noColumns];
+			for (int i = 0; i < noColumns; i++) {
+				columnNames[i] = readString();
+				columnTypes[i] = buffer.getInt();
+			}
+
+			int result = 0;
+			for (byte tag = buffer.get(); tag != END_OF_ROWS; tag = buffer.get()) {
+				if (tag != ROW) {
+					throw new IOException("corrupt snapshot file: unknown row tag " + tag);
+				}
+
+				ColumnValues row = new ColumnValues();
+				for (int i = 0; i < noColumns; i++) {
+					row.setValue(columnNames[i], columnTypes[i], readValue());
+				}
+				consumer.accept(row);
+				result++;
+			}
+
+			return result;
+		}
+	}
+
+}
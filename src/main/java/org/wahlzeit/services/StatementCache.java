@@ -0,0 +1,151 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A StatementCache holds the prepared statements of one DatabaseConnection by query string, up to a maximum number.
+ * The least recently used statement is closed and evicted when a new one would exceed the maximum.
+ * Like its connection, a cache is used by one thread at a time, so it does not lock.
+ */
+public class StatementCache {
+
+	/**
+	 * Prepared statements in access order, least recently used first
+	 */
+	protected final LinkedHashMap<String, PreparedStatement> statements;
+
+	/**
+	 *
+	 */
+	protected final int maxSize;
+
+	/**
+	 *
+	 */
+	protected long noHits = 0;
+	protected long noMisses = 0;
+	protected long noEvictions = 0;
+
+	/**
+	 *
+	 */
+	public StatementCache(int myMaxSize) {
+		if (myMaxSize < 1) {
+			throw new IllegalArgumentException("statement cache size must be at least 1: " + myMaxSize);
+		}
+
+		maxSize = myMaxSize;
+		statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= maxSize) {
+					return false;
+				}
+
+				noEvictions++;
+				closeStatement(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * @return cached statement for query or null
+	 */
+	public PreparedStatement get(String query) {
+		PreparedStatement result = statements.get(query);
+		if (result != null) {
+			noHits++;
+		} else {
+			noMisses++;
+		}
+		return result;
+	}
+
+	/**
+	 * Caches stmt for query, possibly evicting the least recently used statement
+	 */
+	public void put(String query, PreparedStatement stmt) {
+		PreparedStatement previous = statements.put(query, stmt);
+		if ((previous != null) && (previous != stmt)) {
+			closeStatement(previous);
+		}
+	}
+
+	/**
+	 * Closes and removes all statements
+	 */
+	public void clear() {
+		for (PreparedStatement stmt : statements.values()) {
+			closeStatement(stmt);
+		}
+		statements.clear();
+	}
+
+	/**
+	 *
+	 */
+	protected void closeStatement(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return statements.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoHits() {
+		return noHits;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoMisses() {
+		return noMisses;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoEvictions() {
+		return noEvictions;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public double getHitRate() {
+		long noLookups = noHits + noMisses;
+		return (noLookups == 0) ? 0.0 : (double) noHits / noLookups;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asStatisticsString() {
+		return "size " + size() + "/" + maxSize + ", hits " + noHits + ", misses " + noMisses + ", evictions " + noEvictions;
+	}
+
+}
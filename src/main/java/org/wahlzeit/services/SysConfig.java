@@ -26,6 +26,49 @@ public class SysConfig extends AbstractConfig {
 	public static final String DB_USER = "DB_USER";
 	public static final String DB_PASSWORD = "DB_PASSWORD";
 	
+	/**
+	 * Database connection pool definitions; timeouts are in milliseconds
+	 */
+	public static final String DB_POOL_MAX_SIZE = "DB_POOL_MAX_SIZE";
+	public static final String DB_POOL_WAIT_TIMEOUT = "DB_POOL_WAIT_TIMEOUT";
+	public static final String DB_POOL_IDLE_TIMEOUT = "DB_POOL_IDLE_TIMEOUT";
+	public static final String DB_STATEMENT_CACHE_SIZE = "DB_STATEMENT_CACHE_SIZE";
+	
+	/**
+	 * Read replica definitions; connections are a comma-separated list of JDBC URLs, times are in milliseconds
+	 */
+	public static final String DB_REPLICA_CONNECTIONS = "DB_REPLICA_CONNECTIONS";
+	public static final String DB_REPLICA_RETRY_INTERVAL = "DB_REPLICA_RETRY_INTERVAL";
+	public static final String DB_READ_YOUR_WRITES_WINDOW = "DB_READ_YOUR_WRITES_WINDOW";
+	
+	/**
+	 * 
+	 */
+	public static final String PHOTO_CACHE_SIZE = "PHOTO_CACHE_SIZE";
+	
+	/**
+	 * Time between model snapshots, in milliseconds
+	 */
+	public static final String SNAPSHOT_INTERVAL = "SNAPSHOT_INTERVAL";
+	
+	/**
+	 * Time between checks for changed HTML templates, in milliseconds
+	 */
+	public static final String TEMPLATE_RELOAD_INTERVAL = "TEMPLATE_RELOAD_INTERVAL";
+	
+	/**
+	 * Responses and static files up to this many bytes are not compressed
+	 */
+	public static final String COMPRESSION_THRESHOLD = "COMPRESSION_THRESHOLD";
+	
+	/**
+	 * Write-behind definitions; times are in milliseconds, sizes in number of objects
+	 */
+	public static final String WRITE_BEHIND_INTERVAL = "WRITE_BEHIND_INTERVAL";
+	public static final String WRITE_BEHIND_FLUSH_SIZE = "WRITE_BEHIND_FLUSH_SIZE";
+	public static final String WRITE_BEHIND_MAX_SIZE = "WRITE_BEHIND_MAX_SIZE";
+	public static final String WRITE_BEHIND_MAX_WAIT = "WRITE_BEHIND_MAX_WAIT";
+	
 	/**
 	 * 
 	 */
@@ -120,6 +163,35 @@ public class SysConfig extends AbstractConfig {
 		doSetValue(SysConfig.DB_CONNECTION, "jdbc:postgresql://" + dbHostName + ":5432/wahlzeit");
 		doSetValue(SysConfig.DB_USER, "wahlzeit");
 		doSetValue(SysConfig.DB_PASSWORD, "wahlzeit");
+		
+		// Database connection pool
+		doSetValue(SysConfig.DB_POOL_MAX_SIZE, String.valueOf(DatabaseConnection.DEFAULT_POOL_MAX_SIZE));
+		doSetValue(SysConfig.DB_POOL_WAIT_TIMEOUT, String.valueOf(DatabaseConnection.DEFAULT_POOL_WAIT_TIMEOUT));
+		doSetValue(SysConfig.DB_POOL_IDLE_TIMEOUT, String.valueOf(DatabaseConnection.DEFAULT_POOL_IDLE_TIMEOUT));
+		doSetValue(SysConfig.DB_STATEMENT_CACHE_SIZE, String.valueOf(DatabaseConnection.DEFAULT_STATEMENT_CACHE_SIZE));
+		
+		// Read replicas, none by default
+		doSetValue(SysConfig.DB_REPLICA_CONNECTIONS, "");
+		doSetValue(SysConfig.DB_REPLICA_RETRY_INTERVAL, String.valueOf(ReadReplicaSet.DEFAULT_RETRY_INTERVAL));
+		doSetValue(SysConfig.DB_READ_YOUR_WRITES_WINDOW, String.valueOf(ReadReplicaSet.DEFAULT_READ_YOUR_WRITES_WINDOW));
+		
+		// In-memory caches, in number of objects
+		doSetValue(SysConfig.PHOTO_CACHE_SIZE, "10000");
+		
+		// Model snapshots, every fifteen minutes
+		doSetValue(SysConfig.SNAPSHOT_INTERVAL, String.valueOf(15 * 60 * 1000));
+		
+		// Reloading of changed HTML templates, every two seconds
+		doSetValue(SysConfig.TEMPLATE_RELOAD_INTERVAL, String.valueOf(2 * 1000));
+		
+		// Response compression, in bytes
+		doSetValue(SysConfig.COMPRESSION_THRESHOLD, "1024");
+		
+		// Write-behind of dirty objects
+		doSetValue(SysConfig.WRITE_BEHIND_INTERVAL, String.valueOf(WriteBehindQueue.DEFAULT_FLUSH_INTERVAL));
+		doSetValue(SysConfig.WRITE_BEHIND_FLUSH_SIZE, String.valueOf(WriteBehindQueue.DEFAULT_FLUSH_SIZE));
+		doSetValue(SysConfig.WRITE_BEHIND_MAX_SIZE, String.valueOf(WriteBehindQueue.DEFAULT_MAX_SIZE));
+		doSetValue(SysConfig.WRITE_BEHIND_MAX_WAIT, String.valueOf(WriteBehindQueue.DEFAULT_MAX_WAIT));
 	}
 	
 	/**
@@ -199,4 +271,109 @@ public class SysConfig extends AbstractConfig {
 		return getInstance().getValue(SysConfig.DB_PASSWORD);
 	}
 
+	/**
+	 * 
+	 */
+	public static int getDbPoolMaxSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.DB_POOL_MAX_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbPoolWaitTimeoutAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.DB_POOL_WAIT_TIMEOUT));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbPoolIdleTimeoutAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.DB_POOL_IDLE_TIMEOUT));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getDbStatementCacheSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.DB_STATEMENT_CACHE_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static String getDbReplicaConnectionsAsString() {
+		return getInstance().getValue(SysConfig.DB_REPLICA_CONNECTIONS);
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbReplicaRetryIntervalAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.DB_REPLICA_RETRY_INTERVAL));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbReadYourWritesWindowAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.DB_READ_YOUR_WRITES_WINDOW));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getPhotoCacheSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.PHOTO_CACHE_SIZE));
+	}
+
+	/**
+	 * 
+	 */
+	public static long getSnapshotIntervalAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.SNAPSHOT_INTERVAL));
+	}
+
+	/**
+	 * 
+	 */
+	public static long getTemplateReloadIntervalAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.TEMPLATE_RELOAD_INTERVAL));
+	}
+
+	/**
+	 * 
+	 */
+	public static int getCompressionThresholdAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.COMPRESSION_THRESHOLD));
+	}
+
+	/**
+	 * 
+	 */
+	public static long getWriteBehindIntervalAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.WRITE_BEHIND_INTERVAL));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getWriteBehindFlushSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.WRITE_BEHIND_FLUSH_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getWriteBehindMaxSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.WRITE_BEHIND_MAX_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getWriteBehindMaxWaitAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.WRITE_BEHIND_MAX_WAIT));
+	}
+
 }
@@ -0,0 +1,393 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * The WriteBehindQueue collects dirty Persistent objects, deduplicated by id, so that a background flusher
+ * can write them in batches shortly after they changed, instead of only on explicit saves or at shutdown.
+ * Objects are written by the Writer registered for their class; objects without a Writer are not queued.
+ * If the queue grows beyond its maximum size, threads adding objects wait for the flusher for a while.
+ * With a read-your-writes window, it also remembers which objects it wrote recently, as these writes happen
+ * on the flusher's session and so do not make the sessions of the users who changed the objects read from the primary.
+ */
+public class WriteBehindQueue {
+
+	/**
+	 * Defaults; times are in milliseconds
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 5000;
+	public static final int DEFAULT_FLUSH_SIZE = 500;
+	public static final int DEFAULT_MAX_SIZE = 10000;
+	public static final long DEFAULT_MAX_WAIT = 1000;
+
+	/**
+	 * Writes a batch of dirty objects of one class
+	 */
+	public interface Writer {
+		public void write(Collection<Persistent> objects) throws SQLException;
+	}
+
+	/**
+	 *
+	 */
+	protected static WriteBehindQueue instance = null;
+
+	/**
+	 *
+	 */
+	public static synchronized WriteBehindQueue getInstance() {
+		if (instance == null) {
+			instance = new WriteBehindQueue();
+		}
+		return instance;
+	}
+
+	/**
+	 * Writers by the class they were registered for; lookups for subclasses are cached
+	 */
+	protected Map<Class<?>, Writer> writers = new ConcurrentHashMap<Class<?>, Writer>();
+	protected Map<Class<?>, Optional<Writer>> classWriters = new ConcurrentHashMap<Class<?>, Optional<Writer>>();
+
+	/**
+	 * Dirty objects in order of first change, by the class they are written as and id
+	 */
+	protected Map<String, Persistent> dirtyObjects = new LinkedHashMap<String, Persistent>();
+
+	/**
+	 * Times objects were last written, by the class they are written as and id; Long.MAX_VALUE while being written
+	 */
+	protected final Map<String, Long> writeTimes = new ConcurrentHashMap<String, Long>();
+	protected volatile long readYourWritesWindow = 0;
+
+	/**
+	 *
+	 */
+	protected final Lock lock = new ReentrantLock();
+	protected final Condition isFlushDue = lock.newCondition();
+	protected final Condition isNotFull = lock.newCondition();
+
+	/**
+	 *
+	 */
+	protected int flushSize = DEFAULT_FLUSH_SIZE;
+	protected int maxSize = DEFAULT_MAX_SIZE;
+	protected long maxWait = DEFAULT_MAX_WAIT;
+
+	/**
+	 * Thread waiting for flushes, if any; it never waits for itself
+	 */
+	protected volatile Thread flusherThread = null;
+
+	/**
+	 * Metrics
+	 */
+	protected final AtomicLong noFlushes = new AtomicLong(0);
+	protected final AtomicLong noWrittenObjects = new AtomicLong(0);
+	protected final AtomicLong noWaits = new AtomicLong(0);
+	protected volatile long lastFlushLatency = 0;
+	protected volatile long maxFlushLatency = 0;
+	protected final AtomicLong totalFlushLatency = new AtomicLong(0);
+
+	/**
+	 *
+	 */
+	protected WriteBehindQueue() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setLimits(int myFlushSize, int myMaxSize, long myMaxWait) {
+		flushSize = myFlushSize;
+		maxSize = myMaxSize;
+		maxWait = myMaxWait;
+	}
+
+	/**
+	 * Sets how long written objects are remembered; 0 turns remembering them off, e.g. without read replicas
+	 * 
+	 * @methodtype set
+	 */
+	public void setReadYourWritesWindow(long newReadYourWritesWindow) {
+		readYourWritesWindow = newReadYourWritesWindow;
+		if (newReadYourWritesWindow <= 0) {
+			writeTimes.clear();
+		}
+	}
+
+	/**
+	 * Registers the Writer for objects of type and its subclasses
+	 */
+	public void setWriter(Class<?> type, Writer writer) {
+		writers.put(type, writer);
+		classWriters.clear();
+	}
+
+	/**
+	 *
+	 */
+	protected Writer getWriter(Class<?> type) {
+		Optional<Writer> result = classWriters.get(type);
+		if (result == null) {
+			Writer writer = null;
+			for (Class<?> superType = type; (writer == null) && (superType != null); superType = superType.getSuperclass()) {
+				writer = writers.get(superType);
+			}
+			result = Optional.ofNullable(writer);
+			classWriters.put(type, result);
+		}
+		return result.orElse(null);
+	}
+
+	/**
+	 * @return the class the Writer of type was registered for, or type itself if there is none
+	 */
+	protected Class<?> getWriterType(Class<?> type) {
+		for (Class<?> superType = type; superType != null; superType = superType.getSuperclass()) {
+			if (writers.containsKey(superType)) {
+				return superType;
+			}
+		}
+		return type;
+	}
+
+	/**
+	 *
+	 */
+	protected String getKey(Class<?> type, String id) {
+		return getWriterType(type).getName() + "#" + id;
+	}
+
+	/**
+	 * Tells whether the object of type and id is queued, being written, or was written within the read-your-writes window,
+	 * so that reading it from a read replica may not return the latest version
+	 * 
+	 * @methodtype boolean-query
+	 */
+	public boolean hasRecentWrite(Class<?> type, String id) {
+		long window = readYourWritesWindow;
+		if (window <= 0) {
+			return false;
+		}
+
+		String key = getKey(type, id);
+		lock.lock();
+		try {
+			if (dirtyObjects.containsKey(key)) {
+				return true;
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		Long writeTime = writeTimes.get(key);
+		return (writeTime != null) && (System.currentTimeMillis() - writeTime < window);
+	}
+
+	/**
+	 * Queues a dirty object, replacing a queued object of the same class and id.
+	 * If the queue is full, waits up to maxWait for the flusher to make room.
+	 */
+	public void add(Persistent obj) {
+		if (getWriter(obj.getClass()) == null) {
+			return;
+		}
+
+		String key = getKey(obj.getClass(), obj.getIdAsString());
+		lock.lock();
+		try {
+			dirtyObjects.put(key, obj);
+			int size = dirtyObjects.size();
+			if (size >= flushSize) {
+				isFlushDue.signal();
+			}
+
+			Thread flusher = flusherThread;
+			if ((size >= maxSize) && (flusher != null) && (flusher != Thread.currentThread())) {
+				noWaits.incrementAndGet();
+				long nanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+				while ((dirtyObjects.size() >= maxSize) && (nanos > 0)) {
+					nanos = isNotFull.awaitNanos(nanos);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the queue holds flushSize objects or timeout milliseconds passed; called by the flusher.
+	 */
+	public void awaitFlush(long timeout) throws InterruptedException {
+		flusherThread = Thread.currentThread();
+		lock.lock();
+		try {
+			long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+			while ((dirtyObjects.size() < flushSize) && (nanos > 0)) {
+				nanos = isFlushDue.awaitNanos(nanos);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes all queued objects, grouped by Writer; objects of failed writes are queued again.
+	 *
+	 * @return number of objects written
+	 */
+	public int flush() {
+		Map<String, Persistent> flushedObjects;
+		lock.lock();
+		try {
+			if (dirtyObjects.isEmpty()) {
+				return 0;
+			}
+			flushedObjects = dirtyObjects;
+			dirtyObjects = new LinkedHashMap<String, Persistent>();
+			isNotFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		boolean isRememberingWrites = readYourWritesWindow > 0;
+		if (isRememberingWrites) {
+			for (String key : flushedObjects.keySet()) {
+				writeTimes.put(key, Long.MAX_VALUE);
+			}
+		}
+
+		Collection<Persistent> objects = flushedObjects.values();
+
+		long startTime = System.currentTimeMillis();
+
+		Map<Writer, Collection<Persistent>> batches = new LinkedHashMap<Writer, Collection<Persistent>>();
+		for (Persistent obj : objects) {
+			batches.computeIfAbsent(getWriter(obj.getClass()), writer -> new ArrayList<Persistent>()).add(obj);
+		}
+
+		int result = 0;
+		for (Map.Entry<Writer, Collection<Persistent>> batch : batches.entrySet()) {
+			try {
+				batch.getKey().write(batch.getValue());
+				result += batch.getValue().size();
+			} catch (SQLException sex) {
+				SysLog.logThrowable(sex);
+				for (Persistent obj : batch.getValue()) {
+					add(obj);
+				}
+			}
+		}
+
+		if (isRememberingWrites) {
+			noteWritten(flushedObjects.keySet());
+		}
+
+		long latency = System.currentTimeMillis() - startTime;
+		lastFlushLatency = latency;
+		maxFlushLatency = Math.max(maxFlushLatency, latency);
+		totalFlushLatency.addAndGet(latency);
+		noFlushes.incrementAndGet();
+		noWrittenObjects.addAndGet(result);
+		return result;
+	}
+
+	/**
+	 * Remembers the time objects were written, or failed to be and were queued again; forgets writes older than the window
+	 */
+	protected void noteWritten(Collection<String> keys) {
+		long now = System.currentTimeMillis();
+		for (String key : keys) {
+			writeTimes.put(key, now);
+		}
+
+		long oldestWriteTime = now - readYourWritesWindow;
+		writeTimes.values().removeIf(writeTime -> writeTime < oldestWriteTime);
+	}
+
+	/**
+	 * Flushes until the queue is empty, e.g. at shutdown
+	 */
+	public void drain() {
+		while (flush() > 0) {
+			// keep flushing objects changed during the last flush
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		lock.lock();
+		try {
+			return dirtyObjects.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoFlushes() {
+		return noFlushes.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoWrittenObjects() {
+		return noWrittenObjects.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoWaits() {
+		return noWaits.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLastFlushLatency() {
+		return lastFlushLatency;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxFlushLatency() {
+		return maxFlushLatency;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getAverageFlushLatency() {
+		long flushes = noFlushes.get();
+		return (flushes == 0) ? 0 : totalFlushLatency.get() / flushes;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asStatisticsString() {
+		return "depth " + getSize() + ", flushes " + getNoFlushes() + ", written " + getNoWrittenObjects()
+			+ ", waits " + getNoWaits() + ", latency last/avg/max " + getLastFlushLatency() + "/"
+			+ getAverageFlushLatency() + "/" + getMaxFlushLatency() + "ms";
+	}
+
+}
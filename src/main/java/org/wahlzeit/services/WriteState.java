@@ -0,0 +1,43 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+/**
+ * A WriteState is a snapshot of the write count and changed columns of a Persistent object.
+ * It is taken before the values of the object are captured for a write, so that once the write committed
+ * only the changes it covered are reset, and changes made in the meantime keep the object dirty.
+ */
+public class WriteState {
+
+	/**
+	 *
+	 */
+	protected final int writeCount;
+	protected final long changedColumns;
+
+	/**
+	 *
+	 */
+	public WriteState(int myWriteCount, long myChangedColumns) {
+		writeCount = myWriteCount;
+		changedColumns = myChangedColumns;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getChangedColumns() {
+		return changedColumns;
+	}
+
+}
@@ -57,14 +57,18 @@ public abstract class AbstractServlet extends HttpServlet {
 		UserSession us = ensureUserSession(request);	
 		SessionManager.setThreadLocalSession(us);
 		
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myGet(request, response);
-			us.returnDatabaseConnection();
+		try {
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, response);
+			} else {
+				myGet(request, response);
+			}
+		} finally {
+			if (us != null) {
+				us.returnDatabaseConnection(); // pool is bounded, so never leak a connection
+			}
+			SessionManager.dropThreadLocalSession();
 		}
-
-		SessionManager.dropThreadLocalSession();
 	}
 	
 	/**
@@ -81,14 +85,18 @@ public abstract class AbstractServlet extends HttpServlet {
 		UserSession us = ensureUserSession(request);	
 		SessionManager.setThreadLocalSession(us);
 		
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myPost(request, response);
-			us.returnDatabaseConnection();
+		try {
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, response);
+			} else {
+				myPost(request, response);
+			}
+		} finally {
+			if (us != null) {
+				us.returnDatabaseConnection(); // pool is bounded, so never leak a connection
+			}
+			SessionManager.dropThreadLocalSession();
 		}
-
-		SessionManager.dropThreadLocalSession();
 	}
 	
 	/**
@@ -159,13 +167,16 @@ public abstract class AbstractServlet extends HttpServlet {
 		result.addString("processingTime", StringUtil.asStringInSeconds((processingTime == 0) ? 1 : processingTime));
 		SysLog.logSysInfo("proctime", String.valueOf(processingTime));
 		
-		response.setContentType("text/html");
-
-		PrintWriter out = response.getWriter();
-		result.writeOn(out);
-		out.close();
+		PageBuffer page = PageBuffer.getInstance();
+		result.writeOn(page);
 
 		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("text/html; charset=UTF-8");
+		response.setContentLength(page.size());
+
+		OutputStream out = response.getOutputStream();
+		page.writeTo(out);
+		out.close();
 	}
 	
 	/**
@@ -0,0 +1,330 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.servlets;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.zip.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+/**
+ * A CompressingResponse compresses its body while it is written, see CompressionFilter.
+ * It holds back up to threshold bytes; responses that end within the threshold, or have no compressible content type, are sent as they are.
+ */
+public class CompressingResponse extends HttpServletResponseWrapper {
+
+	/**
+	 *
+	 */
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+
+	/**
+	 *
+	 */
+	protected final String encoding;
+	protected final int threshold;
+
+	/**
+	 * Content length set by the servlet; only passed on for uncompressed bodies
+	 */
+	protected long contentLength = -1;
+
+	/**
+	 *
+	 */
+	protected CompressingOutputStream outputStream = null;
+	protected PrintWriter writer = null;
+
+	/**
+	 * @param myEncoding GZIP or DEFLATE
+	 */
+	public CompressingResponse(HttpServletResponse response, String myEncoding, int myThreshold) {
+		super(response);
+		encoding = myEncoding;
+		threshold = myThreshold;
+	}
+
+	/**
+	 *
+	 */
+	public void setContentLength(int length) {
+		contentLength = length;
+	}
+
+	/**
+	 *
+	 */
+	public void setContentLengthLong(long length) {
+		contentLength = length;
+	}
+
+	/**
+	 *
+	 */
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (writer != null) {
+			throw new IllegalStateException("getWriter() has already been called");
+		}
+
+		if (outputStream == null) {
+			outputStream = new CompressingOutputStream(super.getOutputStream());
+		}
+
+		return outputStream;
+	}
+
+	/**
+	 *
+	 */
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null) {
+			String charset = getCharacterEncoding();
+			Charset cs = (charset == null) ? StandardCharsets.ISO_8859_1 : Charset.forName(charset);
+			writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), cs));
+		}
+
+		return writer;
+	}
+
+	/**
+	 *
+	 */
+	public void flushBuffer() throws IOException {
+		if (writer != null) {
+			writer.flush();
+		} else if (outputStream != null) {
+			outputStream.flush();
+		}
+	}
+
+	/**
+	 * @return true if the body was compressed
+	 */
+	public boolean isCompressed() {
+		return (outputStream != null) && (outputStream.compressor != null);
+	}
+
+	/**
+	 * Completes the body, unless the servlet already closed it
+	 */
+	public void finish() throws IOException {
+		if (writer != null) {
+			writer.close();
+		} else if (outputStream != null) {
+			outputStream.close();
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected static boolean isCompressible(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+
+		String type = contentType.toLowerCase();
+		return type.startsWith("text/") || type.contains("javascript") || type.contains("json") || type.contains("xml");
+	}
+
+	/**
+	 * The stream of a CompressingResponse; decides whether to compress once the threshold is exceeded or the stream is closed
+	 */
+	protected class CompressingOutputStream extends ServletOutputStream {
+
+		/**
+		 *
+		 */
+		protected final ServletOutputStream rawStream;
+
+		/**
+		 * Bytes held back until the threshold is exceeded
+		 */
+		protected byte[] buffer;
+		protected int size = 0;
+
+		/**
+		 * Stream the body goes to once decided; compressor is null if the body is sent as it is
+		 */
+		protected OutputStream stream = null;
+		protected DeflaterOutputStream compressor = null;
+		protected CountingOutputStream compressedStream = null;
+		protected long noBytesIn = 0;
+		protected long time = 0;
+
+		/**
+		 *
+		 */
+		protected boolean isClosed = false;
+
+		/**
+		 *
+		 */
+		protected CompressingOutputStream(ServletOutputStream myRawStream) {
+			rawStream = myRawStream;
+			buffer = new byte[threshold];
+		}
+
+		/**
+		 *
+		 */
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		/**
+		 *
+		 */
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (isClosed) {
+				throw new IOException("stream closed");
+			}
+
+			if (stream == null) {
+				if (size + len <= threshold) {
+					System.arraycopy(b, off, buffer, size, len);
+					size += len;
+					return;
+				}
+
+				startStream();
+				doWrite(buffer, 0, size);
+				buffer = null;
+			}
+
+			doWrite(b, off, len);
+		}
+
+		/**
+		 *
+		 */
+		protected void startStream() throws IOException {
+			if (isCompressible(getContentType()) && !containsHeader("Content-Encoding")) {
+				setHeader("Content-Encoding", encoding);
+				compressedStream = new CountingOutputStream(rawStream);
+				if (GZIP.equals(encoding)) {
+					compressor = new GZIPOutputStream(compressedStream, 8 * 1024);
+				} else {
+					compressor = new DeflaterOutputStream(compressedStream);
+				}
+				stream = compressor;
+			} else {
+				if (contentLength >= 0) {
+					CompressingResponse.super.setContentLengthLong(contentLength);
+				}
+				stream = rawStream;
+			}
+		}
+
+		/**
+		 *
+		 */
+		protected void doWrite(byte[] b, int off, int len) throws IOException {
+			if (compressor != null) {
+				long start = CompressionMetrics.getCurrentTime();
+				compressor.write(b, off, len);
+				time += CompressionMetrics.getCurrentTime() - start;
+				noBytesIn += len;
+			} else {
+				stream.write(b, off, len);
+			}
+		}
+
+		/**
+		 *
+		 */
+		public void flush() throws IOException {
+			if (stream != null) {
+				stream.flush();
+			}
+		}
+
+		/**
+		 *
+		 */
+		public void close() throws IOException {
+			if (isClosed) {
+				return;
+			}
+			isClosed = true;
+
+			if (stream == null) {
+				CompressingResponse.super.setContentLength(size);
+				rawStream.write(buffer, 0, size);
+				rawStream.close();
+				CompressionMetrics.getInstance().addUncompressedResponse();
+			} else if (compressor != null) {
+				long start = CompressionMetrics.getCurrentTime();
+				compressor.finish();
+				time += CompressionMetrics.getCurrentTime() - start;
+				compressor.close();
+				CompressionMetrics.getInstance().addCompressedResponse(noBytesIn, compressedStream.getNoBytes(), time);
+			} else {
+				rawStream.close();
+				CompressionMetrics.getInstance().addUncompressedResponse();
+			}
+		}
+
+		/**
+		 *
+		 */
+		public boolean isReady() {
+			return rawStream.isReady();
+		}
+
+		/**
+		 *
+		 */
+		public void setWriteListener(WriteListener listener) {
+			rawStream.setWriteListener(listener);
+		}
+	}
+
+	/**
+	 * Counts the bytes written through it
+	 */
+	protected static class CountingOutputStream extends FilterOutputStream {
+
+		/**
+		 *
+		 */
+		protected long noBytes = 0;
+
+		/**
+		 *
+		 */
+		protected CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		/**
+		 *
+		 */
+		public void write(int b) throws IOException {
+			out.write(b);
+			noBytes++;
+		}
+
+		/**
+		 *
+		 */
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			noBytes += len;
+		}
+
+		/**
+		 *
+		 */
+		public long getNoBytes() {
+			return noBytes;
+		}
+	}
+
+}
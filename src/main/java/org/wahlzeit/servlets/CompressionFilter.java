@@ -0,0 +1,116 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.servlets;
+
+import java.io.*;
+import java.util.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.wahlzeit.services.*;
+
+/**
+ * The CompressionFilter compresses the responses of the servlet it is mapped to with gzip or deflate, as the client accepts.
+ * Responses of at most COMPRESSION_THRESHOLD bytes are sent uncompressed; see CompressingResponse.
+ */
+public class CompressionFilter implements Filter {
+
+	/**
+	 * Compression metrics are logged every so many compressed responses
+	 */
+	public static final int LOG_INTERVAL = 1000;
+
+	/**
+	 *
+	 */
+	public void init(FilterConfig config) {
+		// nothing to initialize
+	}
+
+	/**
+	 *
+	 */
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		doFilter((HttpServletRequest) request, (HttpServletResponse) response, chain);
+	}
+
+	/**
+	 *
+	 */
+	protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+		response.addHeader("Vary", "Accept-Encoding");
+
+		String encoding = getAcceptedEncoding(request.getHeader("Accept-Encoding"));
+		if (encoding == null) {
+			chain.doFilter(request, response);
+			return;
+		}
+
+		CompressingResponse compressingResponse = new CompressingResponse(response, encoding, SysConfig.getCompressionThresholdAsInt());
+		try {
+			chain.doFilter(request, compressingResponse);
+		} finally {
+			compressingResponse.finish();
+		}
+
+		CompressionMetrics metrics = CompressionMetrics.getInstance();
+		if ((compressingResponse.isCompressed()) && (metrics.getNoCompressedResponses() % LOG_INTERVAL == 0)) {
+			SysLog.logSysInfo("response compression: " + metrics.asStatisticsString());
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void destroy() {
+		SysLog.logSysInfo("response compression: " + CompressionMetrics.getInstance().asStatisticsString());
+	}
+
+	/**
+	 * @return GZIP or DEFLATE, preferring gzip, or null if the client accepts neither
+	 */
+	public static String getAcceptedEncoding(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+
+		Set<String> accepted = new HashSet<String>();
+		for (String coding : acceptEncoding.toLowerCase().split(",")) {
+			String[] parts = coding.trim().split(";");
+			if (!isRejected(parts)) {
+				accepted.add(parts[0].trim());
+			}
+		}
+
+		if (accepted.contains(CompressingResponse.GZIP) || accepted.contains("*")) {
+			return CompressingResponse.GZIP;
+		} else if (accepted.contains(CompressingResponse.DEFLATE)) {
+			return CompressingResponse.DEFLATE;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return true if the coding has a quality value of 0
+	 */
+	protected static boolean isRejected(String[] codingParts) {
+		for (int i = 1; i < codingParts.length; i++) {
+			String parameter = codingParts[i].trim();
+			if (parameter.startsWith("q=")) {
+				try {
+					return Double.parseDouble(parameter.substring(2)) <= 0.0;
+				} catch (NumberFormatException ex) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.servlets;
+
+import java.lang.management.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The CompressionMetrics count compressed, uncompressed, and precompressed responses,
+ * their bytes before and after compression, and the CPU time spent compressing.
+ */
+public class CompressionMetrics {
+
+	/**
+	 *
+	 */
+	protected static final CompressionMetrics instance = new CompressionMetrics();
+
+	/**
+	 *
+	 */
+	public static CompressionMetrics getInstance() {
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	protected static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Metrics
+	 */
+	protected final AtomicLong noCompressedResponses = new AtomicLong(0);
+	protected final AtomicLong noUncompressedResponses = new AtomicLong(0);
+	protected final AtomicLong noPrecompressedResponses = new AtomicLong(0);
+	protected final AtomicLong noBytesIn = new AtomicLong(0);
+	protected final AtomicLong noBytesOut = new AtomicLong(0);
+	protected final AtomicLong noPrecompressedBytesIn = new AtomicLong(0);
+	protected final AtomicLong noPrecompressedBytesOut = new AtomicLong(0);
+	protected final AtomicLong compressionTime = new AtomicLong(0);
+
+	/**
+	 *
+	 */
+	protected CompressionMetrics() {
+		// do nothing
+	}
+
+	/**
+	 * @return CPU time of the current thread in nanoseconds, or wall-clock time if CPU time is not available
+	 */
+	public static long getCurrentTime() {
+		if (threadBean.isCurrentThreadCpuTimeSupported()) {
+			return threadBean.getCurrentThreadCpuTime();
+		}
+
+		return System.nanoTime();
+	}
+
+	/**
+	 * @param time nanoseconds spent compressing
+	 */
+	public void addCompressedResponse(long bytesIn, long bytesOut, long time) {
+		noCompressedResponses.incrementAndGet();
+		noBytesIn.addAndGet(bytesIn);
+		noBytesOut.addAndGet(bytesOut);
+		compressionTime.addAndGet(time);
+	}
+
+	/**
+	 *
+	 */
+	public void addUncompressedResponse() {
+		noUncompressedResponses.incrementAndGet();
+	}
+
+	/**
+	 *
+	 */
+	public void addPrecompressedResponse(long bytesIn, long bytesOut) {
+		noPrecompressedResponses.incrementAndGet();
+		noPrecompressedBytesIn.addAndGet(bytesIn);
+		noPrecompressedBytesOut.addAndGet(bytesOut);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoCompressedResponses() {
+		return noCompressedResponses.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoUncompressedResponses() {
+		return noUncompressedResponses.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoPrecompressedResponses() {
+		return noPrecompressedResponses.get();
+	}
+
+	/**
+	 * @return bytes before compression per byte sent, for responses compressed on the fly
+	 */
+	public double getCompressionRatio() {
+		long bytesOut = noBytesOut.get();
+		return (bytesOut == 0) ? 0.0 : (double) noBytesIn.get() / bytesOut;
+	}
+
+	/**
+	 * @return bytes before compression per byte sent, for precompressed files
+	 */
+	public double getPrecompressedRatio() {
+		long bytesOut = noPrecompressedBytesOut.get();
+		return (bytesOut == 0) ? 0.0 : (double) noPrecompressedBytesIn.get() / bytesOut;
+	}
+
+	/**
+	 * @return average CPU time spent compressing a response, in microseconds
+	 */
+	public long getAverageCompressionTime() {
+		long responses = noCompressedResponses.get();
+		return (responses == 0) ? 0 : compressionTime.get() / responses / 1000;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asStatisticsString() {
+		return "compressed " + getNoCompressedResponses() + ", uncompressed " + getNoUncompressedResponses()
+			+ ", precompressed " + getNoPrecompressedResponses() + ", ratio " + String.format("%.2f", getCompressionRatio())
+			+ ", precompressed ratio " + String.format("%.2f", getPrecompressedRatio())
+			+ ", avg cpu " + getAverageCompressionTime() + "us";
+	}
+
+}
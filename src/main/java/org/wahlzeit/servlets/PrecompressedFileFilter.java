@@ -0,0 +1,80 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.servlets;
+
+import java.io.*;
+import java.nio.file.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.wahlzeit.services.*;
+
+/**
+ * The PrecompressedFileFilter serves the gzip-compressed sibling of a static file, if there is one and the client accepts gzip.
+ * Other requests pass on to the default servlet; see PrecompressedFiles for how the siblings are written.
+ */
+public class PrecompressedFileFilter implements Filter {
+
+	/**
+	 *
+	 */
+	public void init(FilterConfig config) {
+		// nothing to initialize
+	}
+
+	/**
+	 *
+	 */
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		doFilter((HttpServletRequest) request, (HttpServletResponse) response, chain);
+	}
+
+	/**
+	 *
+	 */
+	protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		response.addHeader("Vary", "Accept-Encoding");
+
+		String encoding = CompressionFilter.getAcceptedEncoding(request.getHeader("Accept-Encoding"));
+		if (CompressingResponse.GZIP.equals(encoding) && !path.contains("..")) {
+			File file = new File(SysConfig.getRootDirAsString(), path);
+			File compressedFile = PrecompressedFiles.getCompressedFile(file);
+			if (compressedFile != null) {
+				long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+				if ((ifModifiedSince != -1) && (file.lastModified() / 1000 <= ifModifiedSince / 1000)) {
+					response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					return;
+				}
+
+				String contentType = request.getServletContext().getMimeType(file.getName());
+				if (contentType != null) {
+					response.setContentType(contentType);
+				}
+				response.setHeader("Content-Encoding", CompressingResponse.GZIP);
+				response.setContentLengthLong(compressedFile.length());
+				response.setDateHeader("Last-Modified", file.lastModified());
+
+				try (OutputStream out = response.getOutputStream()) {
+					Files.copy(compressedFile.toPath(), out);
+				}
+				CompressionMetrics.getInstance().addPrecompressedResponse(file.length(), compressedFile.length());
+				return;
+			}
+		}
+
+		chain.doFilter(request, response);
+	}
+
+	/**
+	 *
+	 */
+	public void destroy() {
+		// nothing to release
+	}
+
+}
@@ -0,0 +1,575 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.utils;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * A CompressedBitmap is a set of non-negative ints, organized like a roaring bitmap.
+ * Values are grouped by their upper 16 bits into chunks; a sparse chunk is stored as a sorted array,
+ * a dense chunk (more than 4096 values) as a plain bitmap of 2^16 bits.
+ * CompressedBitmaps are not thread-safe; clients synchronize access themselves.
+ */
+public class CompressedBitmap {
+
+	/**
+	 * Chunks with more values are stored as bitmap, smaller ones as array
+	 */
+	protected static final int MAX_ARRAY_CHUNK_SIZE = 4096;
+
+	/**
+	 * Estimated memory overhead of each Java object and array
+	 */
+	protected static final int OBJECT_OVERHEAD = 16;
+
+	/**
+	 * @methodtype factory
+	 */
+	public static CompressedBitmap and(CompressedBitmap a, CompressedBitmap b) {
+		CompressedBitmap result = new CompressedBitmap();
+		int i = 0, j = 0;
+		while ((i < a.noChunks) && (j < b.noChunks)) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				Chunk chunk = a.chunks[i].and(b.chunks[j]);
+				if (chunk.getCardinality() > 0) {
+					result.insertChunk(result.noChunks, a.keys[i], chunk);
+				}
+				i++;
+				j++;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static CompressedBitmap andNot(CompressedBitmap a, CompressedBitmap b) {
+		CompressedBitmap result = new CompressedBitmap();
+		int j = 0;
+		for (int i = 0; i < a.noChunks; i++) {
+			while ((j < b.noChunks) && (b.keys[j] < a.keys[i])) {
+				j++;
+			}
+
+			Chunk chunk = a.chunks[i].copy();
+			if ((j < b.noChunks) && (b.keys[j] == a.keys[i])) {
+				chunk = chunk.andNot(b.chunks[j]);
+			}
+
+			if (chunk.getCardinality() > 0) {
+				result.insertChunk(result.noChunks, a.keys[i], chunk);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Upper 16 bits of values, sorted; chunks[i] holds values starting with keys[i]
+	 */
+	protected char[] keys = new char[4];
+	protected Chunk[] chunks = new Chunk[4];
+	protected int noChunks = 0;
+
+	/**
+	 *
+	 */
+	public CompressedBitmap() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype command
+	 * @return true if value was not contained before
+	 */
+	public boolean add(int value) {
+		assertIsValidValue(value);
+
+		char key = highBits(value);
+		int i = Arrays.binarySearch(keys, 0, noChunks, key);
+		if (i < 0) {
+			i = -i - 1;
+			insertChunk(i, key, new ArrayChunk());
+		}
+
+		Chunk chunk = chunks[i];
+		int cardinality = chunk.getCardinality();
+		chunks[i] = chunk.add(lowBits(value));
+		return chunks[i].getCardinality() > cardinality;
+	}
+
+	/**
+	 * @methodtype command
+	 * @return true if value was contained before
+	 */
+	public boolean remove(int value) {
+		if (value < 0) {
+			return false;
+		}
+
+		int i = Arrays.binarySearch(keys, 0, noChunks, highBits(value));
+		if (i < 0) {
+			return false;
+		}
+
+		Chunk chunk = chunks[i];
+		int cardinality = chunk.getCardinality();
+		chunks[i] = chunk.remove(lowBits(value));
+		if (chunks[i].getCardinality() == 0) {
+			removeChunk(i);
+			return true;
+		}
+
+		return chunks[i].getCardinality() < cardinality;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int value) {
+		if (value < 0) {
+			return false;
+		}
+
+		int i = Arrays.binarySearch(keys, 0, noChunks, highBits(value));
+		return (i >= 0) && chunks[i].contains(lowBits(value));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getCardinality() {
+		int result = 0;
+		for (int i = 0; i < noChunks; i++) {
+			result += chunks[i].getCardinality();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return noChunks == 0;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		Arrays.fill(chunks, 0, noChunks, null);
+		noChunks = 0;
+	}
+
+	/**
+	 * Returns the value at position rank (starting at 0) in ascending order of values
+	 */
+	public int select(int rank) {
+		if (rank >= 0) {
+			for (int i = 0; i < noChunks; i++) {
+				int cardinality = chunks[i].getCardinality();
+				if (rank < cardinality) {
+					return (keys[i] << 16) | chunks[i].select(rank);
+				}
+				rank -= cardinality;
+			}
+		}
+
+		throw new IndexOutOfBoundsException("no value at rank " + rank);
+	}
+
+	/**
+	 * Calls action for each value in ascending order
+	 */
+	public void forEach(IntConsumer action) {
+		for (int i = 0; i < noChunks; i++) {
+			chunks[i].forEach(keys[i] << 16, action);
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public int[] asArray() {
+		int[] result = new int[getCardinality()];
+		int[] pos = { 0 };
+		forEach(value -> result[pos[0]++] = value);
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public CompressedBitmap copy() {
+		CompressedBitmap result = new CompressedBitmap();
+		result.keys = Arrays.copyOf(keys, keys.length);
+		result.chunks = new Chunk[chunks.length];
+		for (int i = 0; i < noChunks; i++) {
+			result.chunks[i] = chunks[i].copy();
+		}
+		result.noChunks = noChunks;
+		return result;
+	}
+
+	/**
+	 * Returns an estimate of the heap memory used by this bitmap
+	 */
+	public long getSizeInBytes() {
+		long result = OBJECT_OVERHEAD + (OBJECT_OVERHEAD + 2L * keys.length) + (OBJECT_OVERHEAD + 4L * chunks.length);
+		for (int i = 0; i < noChunks; i++) {
+			result += chunks[i].getSizeInBytes();
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	public boolean equals(Object other) {
+		if (!(other instanceof CompressedBitmap)) {
+			return false;
+		}
+
+		return Arrays.equals(asArray(), ((CompressedBitmap) other).asArray());
+	}
+
+	/**
+	 *
+	 */
+	public int hashCode() {
+		return Arrays.hashCode(asArray());
+	}
+
+	/**
+	 *
+	 */
+	public String toString() {
+		return "CompressedBitmap(cardinality=" + getCardinality() + ", chunks=" + noChunks + ")";
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void insertChunk(int i, char key, Chunk chunk) {
+		if (noChunks == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * noChunks);
+			chunks = Arrays.copyOf(chunks, 2 * noChunks);
+		}
+
+		System.arraycopy(keys, i, keys, i + 1, noChunks - i);
+		System.arraycopy(chunks, i, chunks, i + 1, noChunks - i);
+		keys[i] = key;
+		chunks[i] = chunk;
+		noChunks++;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void removeChunk(int i) {
+		System.arraycopy(keys, i + 1, keys, i, noChunks - i - 1);
+		System.arraycopy(chunks, i + 1, chunks, i, noChunks - i - 1);
+		noChunks--;
+		chunks[noChunks] = null;
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsValidValue(int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("value must not be negative: " + value);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected static char highBits(int value) {
+		return (char) (value >>> 16);
+	}
+
+	/**
+	 *
+	 */
+	protected static char lowBits(int value) {
+		return (char) value;
+	}
+
+	/**
+	 * A Chunk holds the lower 16 bits of all values sharing the same upper 16 bits.
+	 * Modifying operations return the chunk to be used from now on, which may have changed representation.
+	 */
+	protected abstract static class Chunk {
+
+		abstract Chunk add(char value);
+		abstract Chunk remove(char value);
+		abstract boolean contains(char value);
+		abstract int getCardinality();
+		abstract char select(int rank);
+		abstract void forEach(int highBits, IntConsumer action);
+		abstract Chunk and(Chunk other);
+		abstract Chunk andNot(Chunk other);
+		abstract Chunk copy();
+		abstract long getSizeInBytes();
+
+	}
+
+	/**
+	 * Sparse chunk as sorted array of values
+	 */
+	protected static class ArrayChunk extends Chunk {
+
+		protected char[] values;
+		protected int cardinality = 0;
+
+		ArrayChunk() {
+			this(new char[4], 0);
+		}
+
+		ArrayChunk(char[] myValues, int myCardinality) {
+			values = myValues;
+			cardinality = myCardinality;
+		}
+
+		Chunk add(char value) {
+			int i = Arrays.binarySearch(values, 0, cardinality, value);
+			if (i >= 0) {
+				return this;
+			}
+
+			if (cardinality == MAX_ARRAY_CHUNK_SIZE) {
+				return new BitmapChunk(this).add(value);
+			}
+
+			i = -i - 1;
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(Math.max(2 * cardinality, 4), MAX_ARRAY_CHUNK_SIZE));
+			}
+			System.arraycopy(values, i, values, i + 1, cardinality - i);
+			values[i] = value;
+			cardinality++;
+			return this;
+		}
+
+		Chunk remove(char value) {
+			int i = Arrays.binarySearch(values, 0, cardinality, value);
+			if (i >= 0) {
+				System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+				cardinality--;
+				if ((values.length > 16) && (cardinality < values.length / 4)) {
+					values = Arrays.copyOf(values, values.length / 2);
+				}
+			}
+			return this;
+		}
+
+		boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		int getCardinality() {
+			return cardinality;
+		}
+
+		char select(int rank) {
+			return values[rank];
+		}
+
+		void forEach(int highBits, IntConsumer action) {
+			for (int i = 0; i < cardinality; i++) {
+				action.accept(highBits | values[i]);
+			}
+		}
+
+		Chunk and(Chunk other) {
+			char[] result = new char[cardinality];
+			int noResults = 0;
+			if (other instanceof ArrayChunk) {
+				ArrayChunk that = (ArrayChunk) other;
+				int i = 0, j = 0;
+				while ((i < cardinality) && (j < that.cardinality)) {
+					if (values[i] < that.values[j]) {
+						i++;
+					} else if (values[i] > that.values[j]) {
+						j++;
+					} else {
+						result[noResults++] = values[i];
+						i++;
+						j++;
+					}
+				}
+			} else {
+				for (int i = 0; i < cardinality; i++) {
+					if (other.contains(values[i])) {
+						result[noResults++] = values[i];
+					}
+				}
+			}
+			return new ArrayChunk(result, noResults);
+		}
+
+		Chunk andNot(Chunk other) {
+			int noResults = 0;
+			for (int i = 0; i < cardinality; i++) {
+				if (!other.contains(values[i])) {
+					values[noResults++] = values[i];
+				}
+			}
+			cardinality = noResults;
+			return this;
+		}
+
+		Chunk copy() {
+			return new ArrayChunk(Arrays.copyOf(values, Math.max(cardinality, 4)), cardinality);
+		}
+
+		long getSizeInBytes() {
+			return OBJECT_OVERHEAD + 8 + OBJECT_OVERHEAD + 2L * values.length;
+		}
+
+	}
+
+	/**
+	 * Dense chunk as bitmap of all 2^16 possible values
+	 */
+	protected static class BitmapChunk extends Chunk {
+
+		protected long[] words;
+		protected int cardinality = 0;
+
+		BitmapChunk(long[] myWords, int myCardinality) {
+			words = myWords;
+			cardinality = myCardinality;
+		}
+
+		BitmapChunk(ArrayChunk chunk) {
+			this(new long[1024], 0);
+			for (int i = 0; i < chunk.cardinality; i++) {
+				add(chunk.values[i]);
+			}
+		}
+
+		Chunk add(char value) {
+			long word = words[value >>> 6];
+			long bit = 1L << value;
+			if ((word & bit) == 0) {
+				words[value >>> 6] = word | bit;
+				cardinality++;
+			}
+			return this;
+		}
+
+		Chunk remove(char value) {
+			long word = words[value >>> 6];
+			long bit = 1L << value;
+			if ((word & bit) != 0) {
+				words[value >>> 6] = word & ~bit;
+				cardinality--;
+			}
+			return asSmallestChunk();
+		}
+
+		boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		int getCardinality() {
+			return cardinality;
+		}
+
+		char select(int rank) {
+			for (int i = 0; i < words.length; i++) {
+				int bitCount = Long.bitCount(words[i]);
+				if (rank < bitCount) {
+					long word = words[i];
+					for (int j = 0; j < rank; j++) {
+						word &= word - 1; // clear lowest bit
+					}
+					return (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+				}
+				rank -= bitCount;
+			}
+			throw new IndexOutOfBoundsException("rank exceeds cardinality");
+		}
+
+		void forEach(int highBits, IntConsumer action) {
+			for (int i = 0; i < words.length; i++) {
+				for (long word = words[i]; word != 0; word &= word - 1) {
+					action.accept(highBits | (i << 6) | Long.numberOfTrailingZeros(word));
+				}
+			}
+		}
+
+		Chunk and(Chunk other) {
+			if (other instanceof ArrayChunk) {
+				return other.and(this);
+			}
+
+			BitmapChunk that = (BitmapChunk) other;
+			long[] result = new long[words.length];
+			int noResults = 0;
+			for (int i = 0; i < words.length; i++) {
+				result[i] = words[i] & that.words[i];
+				noResults += Long.bitCount(result[i]);
+			}
+			return new BitmapChunk(result, noResults).asSmallestChunk();
+		}
+
+		Chunk andNot(Chunk other) {
+			if (other instanceof ArrayChunk) {
+				ArrayChunk that = (ArrayChunk) other;
+				for (int i = 0; i < that.cardinality; i++) {
+					char value = that.values[i];
+					if (contains(value)) {
+						words[value >>> 6] &= ~(1L << value);
+						cardinality--;
+					}
+				}
+				return asSmallestChunk();
+			}
+
+			long[] thoseWords = ((BitmapChunk) other).words;
+			cardinality = 0;
+			for (int i = 0; i < words.length; i++) {
+				words[i] &= ~thoseWords[i];
+				cardinality += Long.bitCount(words[i]);
+			}
+			return asSmallestChunk();
+		}
+
+		Chunk copy() {
+			return new BitmapChunk(Arrays.copyOf(words, words.length), cardinality);
+		}
+
+		long getSizeInBytes() {
+			return OBJECT_OVERHEAD + 8 + OBJECT_OVERHEAD + 8L * words.length;
+		}
+
+		/**
+		 * Converts this chunk back to an array chunk once it has become sparse
+		 */
+		Chunk asSmallestChunk() {
+			if (cardinality > MAX_ARRAY_CHUNK_SIZE / 2) {
+				return this; // some hysteresis, avoids flipping back and forth at the threshold
+			}
+
+			char[] values = new char[Math.max(cardinality, 4)];
+			int[] pos = { 0 };
+			forEach(0, value -> values[pos[0]++] = (char) value);
+			return new ArrayChunk(values, cardinality);
+		}
+
+	}
+
+}
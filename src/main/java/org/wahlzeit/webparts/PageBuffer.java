@@ -0,0 +1,190 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.webparts;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A PageBuffer collects a rendered page as UTF-8 bytes.
+ * Pre-encoded template segments are copied as they are; only dynamic strings are encoded.
+ * Each thread reuses its own PageBuffer, see getInstance(); call reset() before rendering into it.
+ */
+public class PageBuffer extends OutputStream {
+
+	/**
+	 *
+	 */
+	public static final int INITIAL_CAPACITY = 16 * 1024;
+
+	/**
+	 * Buffers grown beyond this are not kept for the next page
+	 */
+	public static final int MAX_POOLED_CAPACITY = 1024 * 1024;
+
+	/**
+	 *
+	 */
+	protected static final ThreadLocal<PageBuffer> instances = ThreadLocal.withInitial(PageBuffer::new);
+
+	/**
+	 * @methodtype get
+	 */
+	public static PageBuffer getInstance() {
+		PageBuffer result = instances.get();
+		if (result.bytes.length > MAX_POOLED_CAPACITY) {
+			result = new PageBuffer();
+			instances.set(result);
+		}
+
+		result.reset();
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected byte[] bytes;
+	protected int size = 0;
+
+	/**
+	 *
+	 */
+	protected Writer writer = null;
+
+	/**
+	 *
+	 */
+	public PageBuffer() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 *
+	 */
+	public PageBuffer(int capacity) {
+		bytes = new byte[capacity];
+	}
+
+	/**
+	 *
+	 */
+	public void write(int b) {
+		ensureCapacity(size + 1);
+		bytes[size++] = (byte) b;
+	}
+
+	/**
+	 *
+	 */
+	public void write(byte[] b) {
+		write(b, 0, b.length);
+	}
+
+	/**
+	 *
+	 */
+	public void write(byte[] b, int off, int len) {
+		ensureCapacity(size + len);
+		System.arraycopy(b, off, bytes, size, len);
+		size += len;
+	}
+
+	/**
+	 * Writes value as UTF-8; ASCII characters are copied directly, other strings are encoded from the first non-ASCII character on
+	 */
+	public void writeString(String value) {
+		int length = value.length();
+		ensureCapacity(size + length);
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				write(value.substring(i).getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			bytes[size++] = (byte) c;
+		}
+	}
+
+	/**
+	 * @return a Writer that encodes into this buffer, for Writables that only write to Writers
+	 */
+	public Writer asWriter() {
+		if (writer == null) {
+			writer = new Writer() {
+				public void write(String str) {
+					writeString(str);
+				}
+
+				public void write(String str, int off, int len) {
+					writeString(str.substring(off, off + len));
+				}
+
+				public void write(char[] cbuf, int off, int len) {
+					writeString(new String(cbuf, off, len));
+				}
+
+				public void flush() {
+					// nothing to flush
+				}
+
+				public void close() {
+					// nothing to close
+				}
+			};
+		}
+
+		return writer;
+	}
+
+	/**
+	 *
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(bytes, 0, size);
+	}
+
+	/**
+	 *
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, size);
+	}
+
+	/**
+	 *
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 */
+	public void reset() {
+		size = 0;
+	}
+
+	/**
+	 *
+	 */
+	public String toString() {
+		return new String(bytes, 0, size, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 *
+	 */
+	protected void ensureCapacity(int capacity) {
+		if (capacity > bytes.length) {
+			byte[] newBytes = new byte[Math.max(capacity, bytes.length * 2)];
+			System.arraycopy(bytes, 0, newBytes, 0, size);
+			bytes = newBytes;
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.webparts;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A RenderedPart is a WebPart rendered once to UTF-8 bytes, see RenderedPartCache.
+ * Written to a PageBuffer, its bytes are copied as they are.
+ */
+public class RenderedPart implements Writable {
+
+	/**
+	 * Template the part was rendered from; a reloaded template makes the part stale
+	 */
+	protected final WebPartTemplate template;
+
+	/**
+	 *
+	 */
+	protected final byte[] bytes;
+
+	/**
+	 * Decoded on first write to a Writer
+	 */
+	protected volatile String string = null;
+
+	/**
+	 *
+	 */
+	public RenderedPart(WebPartTemplate myTemplate, byte[] myBytes) {
+		template = myTemplate;
+		bytes = myBytes;
+	}
+
+	/**
+	 *
+	 */
+	public WebPartTemplate getTemplate() {
+		return template;
+	}
+
+	/**
+	 *
+	 */
+	public byte[] getBytes() {
+		return Arrays.copyOf(bytes, bytes.length);
+	}
+
+	/**
+	 *
+	 */
+	public int getSize() {
+		return bytes.length;
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(Writer out) throws IOException {
+		if (string == null) {
+			string = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		out.write(string);
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(PageBuffer out) {
+		out.write(bytes);
+	}
+
+}
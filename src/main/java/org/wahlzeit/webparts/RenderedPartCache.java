@@ -0,0 +1,121 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.webparts;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.wahlzeit.services.*;
+
+/**
+ * The RenderedPartCache keeps web parts without per-request values rendered, by language, template name, and variant.
+ * A variant names a fixed set of values; the filler of a variant may only depend on language, template name, and variant.
+ * The WebPartTemplateService invalidates the parts of a template when it loads the template.
+ */
+public class RenderedPartCache {
+
+	/**
+	 *
+	 */
+	public static final String DEFAULT_VARIANT = "";
+
+	/**
+	 *
+	 */
+	protected static final RenderedPartCache instance = new RenderedPartCache();
+
+	/**
+	 * Convenience method...
+	 */
+	public static RenderedPartCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Rendered parts by template short name (language and template name) and variant
+	 */
+	protected Map<String, Map<String, RenderedPart>> renderedParts = new ConcurrentHashMap<String, Map<String, RenderedPart>>();
+
+	/**
+	 *
+	 */
+	protected RenderedPartCache() {
+		// do nothing
+	}
+
+	/**
+	 * @return rendered part, or null if there is no such template
+	 */
+	public RenderedPart getRenderedPart(String lang, String name) {
+		return getRenderedPart(lang, name, DEFAULT_VARIANT, part -> {});
+	}
+
+	/**
+	 * @return rendered part, or null if there is no such template
+	 */
+	public RenderedPart getRenderedPart(String lang, String name, String variant, Consumer<WebPart> filler) {
+		WebPartTemplate template = WebPartTemplateService.getInstance().getTemplate(lang, name);
+		if (template == null) {
+			return null;
+		}
+
+		Map<String, RenderedPart> variants = renderedParts.computeIfAbsent(template.getName(), key -> new ConcurrentHashMap<String, RenderedPart>());
+		RenderedPart result = variants.get(variant);
+		if ((result == null) || (result.getTemplate() != template)) {
+			try {
+				result = render(template, filler);
+				variants.put(variant, result);
+			} catch (IOException ioex) {
+				SysLog.logThrowable(ioex);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected RenderedPart render(WebPartTemplate template, Consumer<WebPart> filler) throws IOException {
+		WebPart part = new WebPart(template);
+		filler.accept(part);
+
+		PageBuffer buffer = new PageBuffer(1024);
+		part.writeOn(buffer);
+		return new RenderedPart(template, buffer.toByteArray());
+	}
+
+	/**
+	 * Drops all rendered variants of a template
+	 *
+	 * @param shortName the template name as used by WebPartTemplateService
+	 */
+	public void invalidate(String shortName) {
+		renderedParts.remove(shortName);
+	}
+
+	/**
+	 *
+	 */
+	public void clear() {
+		renderedParts.clear();
+	}
+
+	/**
+	 *
+	 */
+	public int getNoRenderedParts() {
+		int result = 0;
+		for (Map<String, RenderedPart> variants : renderedParts.values()) {
+			result += variants.size();
+		}
+
+		return result;
+	}
+
+}
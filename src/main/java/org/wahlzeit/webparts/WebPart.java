@@ -23,19 +23,30 @@ public class WebPart implements Writable {
 	protected WebPartTemplate template = null;
 	
 	/**
-	 * 
+	 * Values by key index of the template
 	 */
-	protected Map<String, Object> parts = new HashMap<String, Object>();
+	protected Object[] parts;
+	
+	/**
+	 * Values of keys the template has no slot for; only created if needed
+	 */
+	protected Map<String, Object> otherParts = null;
 	
 	/**
 	 * 
 	 */
 	public WebPart(WebPartTemplate myTemplate) {
 		template = myTemplate;
+		parts = new Object[template.getNoKeys()];
 	}
 	
 	public Object getValue(String key) {
-		return parts.get(key);
+		int index = template.getKeyIndex(key);
+		if (index != -1) {
+			return parts[index];
+		}
+		
+		return (otherParts == null) ? null : otherParts.get(key);
 	}
 	
 	/**
@@ -152,7 +163,15 @@ public class WebPart implements Writable {
 	 */
 	protected void putValue(String key, Object value) {
 		if (value != null) {
-			parts.put(key, value);
+			int index = template.getKeyIndex(key);
+			if (index != -1) {
+				parts[index] = value;
+			} else {
+				if (otherParts == null) {
+					otherParts = new HashMap<String, Object>();
+				}
+				otherParts.put(key, value);
+			}
 		}
 	}
 
@@ -161,25 +180,22 @@ public class WebPart implements Writable {
 	 */
 	public void writeOn(Writer out) throws IOException {
 		String tmpl = template.asString();
-		String[] keys = template.getKeys();
 		int[] slots = template.getSlots();
+		int[] slotKeys = template.getSlotKeys();
 
 		int start = 0;
-		for (int i = 0; i < keys.length; i++ ) {
+		for (int i = 0; i < slots.length; i++ ) {
 			int index = slots[i];
 			out.write(tmpl, start, index - start);
 
-			String key = keys[i];
-			if (key != null) {
-				Object object = parts.get(key);
-				if (object != null) {
-					if (object instanceof Writable) {
-						Writable part = (Writable) object;
-						part.writeOn(out);
-					} else {
-						String value = object.toString();
-						out.write(value);
-					}
+			Object object = parts[slotKeys[i]];
+			if (object != null) {
+				if (object instanceof Writable) {
+					Writable part = (Writable) object;
+					part.writeOn(out);
+				} else {
+					String value = object.toString();
+					out.write(value);
 				}
 			}
 			
@@ -189,4 +205,28 @@ public class WebPart implements Writable {
 		out.write(tmpl, start, tmpl.length() - start);
 	}
 	
+	/**
+	 * Copies the pre-encoded template segments and encodes only the values between them
+	 */
+	public void writeOn(PageBuffer out) throws IOException {
+		byte[][] segments = template.getSegments();
+		int[] slotKeys = template.getSlotKeys();
+
+		for (int i = 0; i < slotKeys.length; i++ ) {
+			out.write(segments[i]);
+
+			Object object = parts[slotKeys[i]];
+			if (object != null) {
+				if (object instanceof Writable) {
+					Writable part = (Writable) object;
+					part.writeOn(out);
+				} else {
+					out.writeString(object.toString());
+				}
+			}
+		}
+		
+		out.write(segments[slotKeys.length]);
+	}
+	
 }
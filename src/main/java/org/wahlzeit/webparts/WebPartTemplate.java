@@ -5,11 +5,14 @@
 
 package org.wahlzeit.webparts;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
  * A WebPartTmpl is a template for a WebPart.
  * It gets initialized once and is read-only after that.
+ * Initialization also encodes the text between slots as UTF-8, so rendering copies these segments as bytes,
+ * and numbers the distinct keys, so WebParts keep their values in an array indexed by key.
  */
 public class WebPartTemplate {
 
@@ -28,6 +31,18 @@ public class WebPartTemplate {
 	 */
 	protected String[] keys = null;
 	protected int[] slots = null;
+	
+	/**
+	 * UTF-8 text before each slot, followed by the text after the last slot
+	 */
+	protected byte[][] segments = null;
+	
+	/**
+	 * Distinct keys in order of first use, their indexes, and the key index of each slot
+	 */
+	protected String[] keyNames = null;
+	protected Map<String, Integer> keyIndexes = null;
+	protected int[] slotKeys = null;
 		
 	/**
 	 * 
@@ -57,8 +72,9 @@ public class WebPartTemplate {
 	
 					buffer.replace(nextSlot, endSlot + 1, "");
 					index = nextSlot;
+				} else {
+					index = -1;
 				}
-				index = endSlot;
 			} else {
 				index = -1;
 			}
@@ -73,6 +89,24 @@ public class WebPartTemplate {
 		}
 		
 		template = buffer.toString();
+		
+		segments = new byte[length + 1][];
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			segments[i] = template.substring(start, slots[i]).getBytes(StandardCharsets.UTF_8);
+			start = slots[i];
+		}
+		segments[length] = template.substring(start).getBytes(StandardCharsets.UTF_8);
+		
+		keyIndexes = new HashMap<String, Integer>();
+		slotKeys = new int[length];
+		for (int i = 0; i < length; i++) {
+			slotKeys[i] = keyIndexes.computeIfAbsent(keys[i], key -> keyIndexes.size());
+		}
+		keyNames = new String[keyIndexes.size()];
+		for (Map.Entry<String, Integer> entry : keyIndexes.entrySet()) {
+			keyNames[entry.getValue()] = entry.getKey();
+		}
 	}
 	
 	/**
@@ -103,4 +137,40 @@ public class WebPartTemplate {
 		return slots; // @FIXME needs cloning?
 	}
 
+	/**
+	 * 
+	 */
+	public byte[][] getSegments() {
+		return segments;
+	}
+
+	/**
+	 * 
+	 */
+	public int getNoKeys() {
+		return keyNames.length;
+	}
+
+	/**
+	 * @return index of key, or -1 if the template has no slot for key
+	 */
+	public int getKeyIndex(String key) {
+		Integer result = keyIndexes.get(key);
+		return (result == null) ? -1 : result;
+	}
+
+	/**
+	 * 
+	 */
+	public String getKeyName(int index) {
+		return keyNames[index];
+	}
+
+	/**
+	 * 
+	 */
+	public int[] getSlotKeys() {
+		return slotKeys;
+	}
+
 }
@@ -6,18 +6,28 @@
 package org.wahlzeit.webparts;
 
 import java.util.*;
+import java.util.stream.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 
 import org.wahlzeit.services.*;
 
 /**
  * The WebPartTemplateService creates WebPartTemplates upon request by reading them from disk.
  * It requires configuration with a template directory and uses the following naming convention: tmplDir/language/part-type/part-name.html
+ * Templates are preloaded per language and held in an immutable map that is replaced as a whole when templates change.
+ * While watching, changed template files are recompiled by reloadChangedTemplates(), see TemplateReloadAgent.
  */
 public class WebPartTemplateService {
 
 	/**
-	 * 
+	 *
+	 */
+	public static final String TEMPLATE_FILE_EXTENSION = ".html";
+
+	/**
+	 *
 	 */
 	protected static final WebPartTemplateService instance = new WebPartTemplateService();
 
@@ -29,38 +39,45 @@ public class WebPartTemplateService {
 	}
 
 	/**
-	 *
+	 * Immutable; replaced under the lock of this service only
 	 */
-	protected Map<String, WebPartTemplate> templates = new HashMap<String, WebPartTemplate>();
+	protected volatile Map<String, WebPartTemplate> templates = Collections.emptyMap();
 
 	/**
-	 * 
+	 *
 	 */
 	protected ConfigDir templatesDir = null;
-	
+
+	/**
+	 * Watched directories and the language directory each belongs to
+	 */
+	protected WatchService watchService = null;
+	protected Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+	protected Map<WatchKey, Path> languageDirs = new HashMap<WatchKey, Path>();
+
 	/**
 	 *
 	 */
 	protected WebPartTemplateService() {
-		// do nothing	
+		// do nothing
 	}
-	
+
 	/**
-	 * 
+	 *
 	 */
 	public ConfigDir getTemplatesDir() {
 		return templatesDir;
 	}
-	
+
 	/**
-	 * 
+	 *
 	 */
 	public void setTemplatesDir(ConfigDir newTemplatesDir) {
 		templatesDir = newTemplatesDir;
 	}
 
 	/**
-	 * 
+	 *
 	 */
 	public WebPartTemplate getTemplate(String lang, String name) {
 		String shortName = lang + File.separator + name;
@@ -74,41 +91,219 @@ public class WebPartTemplateService {
 				SysLog.logThrowable(ioex);
 			}
 		}
-		
+
 		return result;
 	}
-	
+
 	/**
-	 * 
+	 *
 	 */
-	protected void loadTemplate(String shortName) throws IOException {
+	public int getNoTemplates() {
+		return templates.size();
+	}
+
+	/**
+	 * Loads a template that was not preloaded; concurrent first loads of templates are serialized
+	 */
+	protected synchronized void loadTemplate(String shortName) throws IOException {
+		if (!templates.containsKey(shortName)) {
+			putTemplates(Collections.singletonMap(shortName, compileTemplate(shortName)));
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected WebPartTemplate compileTemplate(String shortName) throws IOException {
 		WebPartTemplate template = new WebPartTemplate(shortName);
-		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + ".html");
-		File file = new File(fileName);
-		SysLog.logSysInfo("file name", fileName, "opened HTML template file");
+		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + TEMPLATE_FILE_EXTENSION);
+
+		String source = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
+		template.initialize(source);
+		SysLog.logCreatedObject("WebPartTmpl", shortName);
+
+		return template;
+	}
+
+	/**
+	 * Replaces the template map with a copy that includes newTemplates
+	 */
+	protected synchronized void putTemplates(Map<String, WebPartTemplate> newTemplates) {
+		Map<String, WebPartTemplate> result = new HashMap<String, WebPartTemplate>(templates);
+		result.putAll(newTemplates);
+		templates = Collections.unmodifiableMap(result);
+
+		for (String shortName : newTemplates.keySet()) {
+			RenderedPartCache.getInstance().invalidate(shortName);
+		}
+	}
+
+	/**
+	 * Compiles all templates of the given languages in parallel
+	 *
+	 * @return number of templates loaded
+	 */
+	public int preloadTemplates(Collection<String> langs) {
+		Set<String> shortNames = new TreeSet<String>();
+		for (String lang : langs) {
+			for (Path langDir : getLanguageDirs(lang)) {
+				shortNames.addAll(findTemplateNames(lang, langDir));
+			}
+		}
+
+		Map<String, WebPartTemplate> result = shortNames.parallelStream()
+			.map(this::compileTemplateOrNull)
+			.filter(Objects::nonNull)
+			.collect(Collectors.toMap(WebPartTemplate::getName, template -> template));
+		putTemplates(result);
 
-		FileReader reader = null;
+		SysLog.logSysInfo("preloaded " + result.size() + " HTML templates");
+		return result.size();
+	}
+
+	/**
+	 * @return template, or null if it could not be compiled
+	 */
+	protected WebPartTemplate compileTemplateOrNull(String shortName) {
 		try {
-			reader = new FileReader(file);
-			
-			// @FIXME: Assumes files are always < 50000 bytes
-			char[] readBuffer = new char[50000];
-			int status = reader.read(readBuffer);
-
-			SysLog.logSysInfo("file size", Integer.toString(status), "read HTML template file");
-			
-			if (status != -1) {
-				String source = new String(readBuffer, 0, status);
-				template.initialize(source);
-				SysLog.logCreatedObject("WebPartTmpl", shortName);
+			return compileTemplate(shortName);
+		} catch (IOException ioex) {
+			SysLog.logThrowable(ioex);
+			return null;
+		}
+	}
+
+	/**
+	 * @return existing default and custom directories of lang
+	 */
+	protected List<Path> getLanguageDirs(String lang) {
+		List<Path> result = new ArrayList<Path>();
+		for (String dirName : new String[] { ConfigDir.DEFAULT_DIR_NAME, ConfigDir.CUSTOM_DIR_NAME }) {
+			Path langDir = Paths.get(getTemplatesDir().asString(), dirName, lang);
+			if (Files.isDirectory(langDir)) {
+				result.add(langDir);
 			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return short names of all template files below langDir
+	 */
+	protected List<String> findTemplateNames(String lang, Path langDir) {
+		try (Stream<Path> files = Files.walk(langDir)) {
+			return files.filter(file -> isTemplateFile(file))
+				.map(file -> asShortName(lang, langDir.relativize(file)))
+				.collect(Collectors.toList());
+		} catch (IOException ioex) {
+			SysLog.logThrowable(ioex);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected boolean isTemplateFile(Path file) {
+		return file.getFileName().toString().endsWith(TEMPLATE_FILE_EXTENSION) && Files.isRegularFile(file);
+	}
+
+	/**
+	 * @param relativeFile template file relative to its language directory
+	 */
+	protected String asShortName(String lang, Path relativeFile) {
+		StringBuilder result = new StringBuilder(lang);
+		for (int i = 0; i < relativeFile.getNameCount(); i++) {
+			result.append((i == 0) ? File.separator : "/");
+			result.append(relativeFile.getName(i).toString());
+		}
+
+		return result.substring(0, result.length() - TEMPLATE_FILE_EXTENSION.length());
+	}
+
+	/**
+	 * Watches the template directories of the given languages for changed files
+	 */
+	public synchronized void startWatching(Collection<String> langs) throws IOException {
+		if (watchService != null) {
+			return;
+		}
+
+		watchService = FileSystems.getDefault().newWatchService();
+		for (String lang : langs) {
+			for (Path langDir : getLanguageDirs(lang)) {
+				try (Stream<Path> dirs = Files.walk(langDir)) {
+					for (Path dir : dirs.filter(Files::isDirectory).collect(Collectors.toList())) {
+						WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+						watchedDirs.put(key, dir);
+						languageDirs.put(key, langDir);
+					}
+				}
+			}
+		}
+
+		SysLog.logSysInfo("watching " + watchedDirs.size() + " HTML template directories");
+	}
+
+	/**
+	 *
+	 */
+	public synchronized void stopWatching() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException ioex) {
+				SysLog.logThrowable(ioex);
+			}
+
+			watchService = null;
+			watchedDirs.clear();
+			languageDirs.clear();
+		}
+	}
 
-			templates.put(shortName, template);
-		} finally {
-			if (reader != null) {
-				reader.close();
+	/**
+	 * Recompiles the templates whose files changed since the last call and swaps them in; does not block
+	 *
+	 * @return number of templates reloaded
+	 */
+	public int reloadChangedTemplates() {
+		Set<String> shortNames = new TreeSet<String>();
+		synchronized (this) {
+			if (watchService == null) {
+				return 0;
+			}
+
+			for (WatchKey key = watchService.poll(); key != null; key = watchService.poll()) {
+				Path dir = watchedDirs.get(key);
+				Path langDir = languageDirs.get(key);
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() != StandardWatchEventKinds.OVERFLOW) {
+						Path file = dir.resolve((Path) event.context());
+						if (isTemplateFile(file)) {
+							shortNames.add(asShortName(langDir.getFileName().toString(), langDir.relativize(file)));
+						}
+					}
+				}
+				key.reset();
 			}
 		}
+
+		Map<String, WebPartTemplate> result = new HashMap<String, WebPartTemplate>();
+		for (String shortName : shortNames) {
+			WebPartTemplate template = compileTemplateOrNull(shortName);
+			if (template != null) {
+				result.put(shortName, template);
+				SysLog.logSysInfo("reloaded HTML template " + shortName);
+			}
+		}
+
+		if (!result.isEmpty()) {
+			putTemplates(result);
+		}
+
+		return result.size();
 	}
-	
+
 }
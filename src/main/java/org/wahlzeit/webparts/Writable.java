@@ -9,6 +9,7 @@ import java.io.*;
 
 /**
  * A Writable can write a representation of itself to a Writer.
+ * Writables that know their bytes, like WebParts, also write directly to a PageBuffer.
  */
 public interface Writable {
 	
@@ -17,4 +18,11 @@ public interface Writable {
 	 */
 	public void writeOn(Writer writer) throws IOException;
 	
+	/**
+	 * 
+	 */
+	public default void writeOn(PageBuffer buffer) throws IOException {
+		writeOn(buffer.asWriter());
+	}
+	
 }
@@ -0,0 +1,10 @@
+-- Version 1: primary key on tags, and an index to find the tags of a photo
+
+DELETE FROM tags WHERE tag IS NULL OR photo_id IS NULL;
+
+DELETE FROM tags a USING tags b
+	WHERE a.ctid < b.ctid AND a.tag = b.tag AND a.photo_id = b.photo_id;
+
+ALTER TABLE tags ADD CONSTRAINT tags_pkey PRIMARY KEY (tag, photo_id);
+
+CREATE INDEX tags_photo_id_idx ON tags (photo_id);
@@ -0,0 +1,11 @@
+-- Version 2: indexes to find photos by owner, users by name and email address, and open cases
+
+CREATE INDEX photos_owner_name_idx ON photos (owner_name);
+
+CREATE INDEX photos_owner_id_idx ON photos (owner_id);
+
+CREATE INDEX users_name_as_tag_idx ON users (name_as_tag);
+
+CREATE INDEX users_email_address_idx ON users (email_address);
+
+CREATE INDEX cases_open_idx ON cases (id) WHERE was_decided = FALSE;
@@ -0,0 +1,56 @@
+-- Version 3: change tracking, so that a model snapshot can replay the rows changed after it was taken
+-- Rows remember the transaction that wrote them last; deletes and tag changes are logged in row_changes
+
+ALTER TABLE globals ADD COLUMN database_id bigint;
+ALTER TABLE globals ADD COLUMN snapshot_horizon bigint;
+UPDATE globals SET database_id = floor(random() * 9007199254740991)::bigint, snapshot_horizon = 0;
+
+ALTER TABLE photos ADD COLUMN row_txid bigint;
+ALTER TABLE users ADD COLUMN row_txid bigint;
+ALTER TABLE cases ADD COLUMN row_txid bigint;
+
+CREATE INDEX photos_row_txid_idx ON photos (row_txid);
+CREATE INDEX users_row_txid_idx ON users (row_txid);
+CREATE INDEX cases_row_txid_idx ON cases (row_txid);
+
+CREATE TABLE row_changes (
+	txid bigint,
+	table_name text,
+	id integer,
+	PRIMARY KEY (txid, table_name, id)
+);
+
+CREATE OR REPLACE FUNCTION set_row_txid() RETURNS trigger AS $$
+BEGIN
+	NEW.row_txid := txid_current();
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION log_row_delete() RETURNS trigger AS $$
+BEGIN
+	INSERT INTO row_changes VALUES (txid_current(), TG_TABLE_NAME, OLD.id) ON CONFLICT DO NOTHING;
+	RETURN OLD;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION log_tag_change() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'DELETE' THEN
+		INSERT INTO row_changes VALUES (txid_current(), 'tags', OLD.photo_id) ON CONFLICT DO NOTHING;
+	ELSE
+		INSERT INTO row_changes VALUES (txid_current(), 'tags', NEW.photo_id) ON CONFLICT DO NOTHING;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER photos_row_txid BEFORE INSERT OR UPDATE ON photos FOR EACH ROW EXECUTE PROCEDURE set_row_txid();
+CREATE TRIGGER users_row_txid BEFORE INSERT OR UPDATE ON users FOR EACH ROW EXECUTE PROCEDURE set_row_txid();
+CREATE TRIGGER cases_row_txid BEFORE INSERT OR UPDATE ON cases FOR EACH ROW EXECUTE PROCEDURE set_row_txid();
+
+CREATE TRIGGER photos_row_delete AFTER DELETE ON photos FOR EACH ROW EXECUTE PROCEDURE log_row_delete();
+CREATE TRIGGER users_row_delete AFTER DELETE ON users FOR EACH ROW EXECUTE PROCEDURE log_row_delete();
+CREATE TRIGGER cases_row_delete AFTER DELETE ON cases FOR EACH ROW EXECUTE PROCEDURE log_row_delete();
+
+CREATE TRIGGER tags_change AFTER INSERT OR UPDATE OR DELETE ON tags FOR EACH ROW EXECUTE PROCEDURE log_tag_change();
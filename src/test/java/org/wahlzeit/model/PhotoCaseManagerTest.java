@@ -0,0 +1,96 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the in-memory queue of open cases of the PhotoCaseManager class.
+ */
+public class PhotoCaseManagerTest {
+
+	private PhotoCaseManager caseManager;
+
+	@Before
+	public void setUp() {
+		caseManager = new PhotoCaseManager();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFindsOpenCaseById() {
+		PhotoCase photoCase = createPhotoCase(1000L, "anna@example.org");
+		caseManager.doAddOpenPhotoCase(photoCase);
+
+		assertSame(photoCase, caseManager.getPhotoCase(photoCase.getId().asInt()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPagesThroughCasesNewestFirst() {
+		PhotoCase oldest = createPhotoCase(1000L, "anna@example.org");
+		PhotoCase middle = createPhotoCase(2000L, "bert@example.org");
+		PhotoCase sameTime = createPhotoCase(2000L, "anna@example.org");
+		PhotoCase newest = createPhotoCase(3000L, "bert@example.org");
+		for (PhotoCase photoCase : Arrays.asList(middle, oldest, newest, sameTime)) {
+			caseManager.doAddOpenPhotoCase(photoCase);
+		}
+
+		List<PhotoCase> firstPage = caseManager.getOpenPhotoCasesByAscendingAge("", 3);
+		assertEquals(Arrays.asList(newest, middle, sameTime), firstPage);
+		String cursor = PhotoCaseManager.getQueueCursor(firstPage.get(2));
+		assertTrue(caseManager.hasOpenPhotoCasesAfter(cursor));
+
+		List<PhotoCase> secondPage = caseManager.getOpenPhotoCasesByAscendingAge(cursor, 3);
+		assertEquals(Collections.singletonList(oldest), secondPage);
+		assertFalse(caseManager.hasOpenPhotoCasesAfter(PhotoCaseManager.getQueueCursor(oldest)));
+
+		assertArrayEquals(new PhotoCase[] { newest, middle, sameTime, oldest }, caseManager.getOpenPhotoCasesByAscendingAge());
+		assertEquals(4, caseManager.getOpenPhotoCasesByAscendingAge("not-a-cursor", 10).size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDecidedCaseLeavesQueueAndIndexes() {
+		PhotoCase first = createPhotoCase(1000L, "anna@example.org");
+		PhotoCase second = createPhotoCase(2000L, "anna@example.org");
+		caseManager.doAddOpenPhotoCase(first);
+		caseManager.doAddOpenPhotoCase(second);
+		assertEquals(new HashSet<PhotoCase>(Arrays.asList(first, second)), caseManager.getOpenPhotoCasesOfFlagger("anna@example.org"));
+
+		caseManager.doRemoveOpenPhotoCase(second);
+
+		assertEquals(1, caseManager.getNoOpenPhotoCases());
+		assertEquals(Collections.singleton(first), caseManager.getOpenPhotoCasesOfFlagger("anna@example.org"));
+		assertEquals(Collections.singletonList(first), caseManager.getOpenPhotoCasesByAscendingAge(null, 10));
+
+		caseManager.doRemoveOpenPhotoCase(first);
+		assertTrue(caseManager.getOpenPhotoCasesOfFlagger("anna@example.org").isEmpty());
+		assertTrue(caseManager.openPhotoCasesByFlagger.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	private PhotoCase createPhotoCase(long creationTime, String flagger) {
+		PhotoCase result = new PhotoCase((Photo) null);
+		result.createdOn = creationTime;
+		result.setFlagger(flagger);
+		return result;
+	}
+
+}
@@ -6,6 +6,9 @@ package org.wahlzeit.model;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.wahlzeit.utils.CompressedBitmap;
+
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -31,8 +34,8 @@ public class PhotoFilterTest {
 		assertEquals("", photoFilter.userName);
 		assertEquals(Tags.EMPTY_TAGS, photoFilter.tags);
 
-		assertEquals(0, photoFilter.processedPhotoIds.size());
-		assertEquals(0, photoFilter.displayablePhotoIds.size());
+		assertEquals(0, photoFilter.processedPhotoIds.getCardinality());
+		assertEquals(0, photoFilter.getNoDisplayablePhotoIds());
 	}
 
 	/**
@@ -55,18 +58,67 @@ public class PhotoFilterTest {
 		photoFilter.setTags(new Tags("test"));
 		assertEquals("test", photoFilter.getTags().asString());
 
-		photoFilter.displayablePhotoIds.add(new PhotoId(3));
-		assertTrue(photoFilter.displayablePhotoIds.size() == 1);
+		photoFilter.setDisplayablePhotoIds(asBitmap(3));
+		assertTrue(photoFilter.getNoDisplayablePhotoIds() == 1);
 
-		photoFilter.processedPhotoIds.add(new PhotoId(2));
-		assertTrue(photoFilter.processedPhotoIds.size() == 1);
+		photoFilter.processedPhotoIds.add(2);
+		assertTrue(photoFilter.processedPhotoIds.getCardinality() == 1);
 
 		photoFilter.clear();
 
 		assertEquals("", photoFilter.getUserName());
 		assertEquals(Tags.EMPTY_TAGS, photoFilter.getTags());
-		assertTrue(photoFilter.displayablePhotoIds.isEmpty());
+		assertTrue(photoFilter.getNoDisplayablePhotoIds() == 0);
 		assertTrue(photoFilter.processedPhotoIds.isEmpty());
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testRandomIdSkipsProcessedIds() {
+		photoFilter.setDisplayablePhotoIds(asBitmap(1, 2, 3, 4));
+		photoFilter.processedPhotoIds.add(1);
+		photoFilter.processedPhotoIds.add(3);
+		photoFilter.processedPhotoIds.add(4);
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(2, photoFilter.getRandomDisplayablePhotoIdAsInt());
+		}
+
+		photoFilter.processedPhotoIds.add(2);
+		assertEquals(0, photoFilter.getRandomDisplayablePhotoIdAsInt());
+		assertEquals(0, photoFilter.getNoDisplayablePhotoIds());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRandomIdIsUniform() {
+		photoFilter.setDisplayablePhotoIds(asBitmap(1, 2, 3, 4, 5));
+		photoFilter.randomNumber = new Random(1);
+
+		int[] counts = new int[6];
+		for (int i = 0; i < 50000; i++) {
+			counts[photoFilter.getRandomDisplayablePhotoIdAsInt()]++;
+		}
+
+		assertEquals(0, counts[0]);
+		for (int id = 1; id <= 5; id++) {
+			assertTrue("id " + id + " drawn " + counts[id] + " times", Math.abs(counts[id] - 10000) < 500);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static CompressedBitmap asBitmap(int... ids) {
+		CompressedBitmap result = new CompressedBitmap();
+		for (int id : ids) {
+			result.add(id);
+		}
+		return result;
+	}
+
 }
@@ -0,0 +1,103 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for writing the tags of photos by the PhotoManager class, recording tag writes instead of executing them.
+ */
+public class PhotoManagerTest {
+
+	private RecordingPhotoManager photoManager;
+	private Photo photo;
+
+	@Before
+	public void setUp() {
+		photoManager = new RecordingPhotoManager();
+		photo = new Photo();
+		photo.tags = new Tags("cat, dog");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRewritesAllTagsIfPersistedTagsAreUnknown() throws Exception {
+		photoManager.updateDependents(photo);
+
+		assertEquals(1, photoManager.noDeletes);
+		assertEquals(new HashSet<String>(Arrays.asList("tg:cat", "tg:dog")), photoManager.addedTags);
+		assertTrue(photoManager.removedTags.isEmpty());
+		assertEquals(photoManager.addedTags, photo.getPersistedTags());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWritesOnlyChangedTags() throws Exception {
+		photo.setPersistedTags(new HashSet<String>(Arrays.asList("tg:cat", "tg:dog")));
+		photo.tags = new Tags("cat, bird");
+
+		photoManager.updateDependents(photo);
+
+		assertEquals(0, photoManager.noDeletes);
+		assertEquals(Collections.singleton("tg:bird"), photoManager.addedTags);
+		assertEquals(Collections.singleton("tg:dog"), photoManager.removedTags);
+		assertEquals(new HashSet<String>(Arrays.asList("tg:cat", "tg:bird")), photo.getPersistedTags());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWritesNothingIfTagsAreUnchanged() throws Exception {
+		photo.setPersistedTags(new HashSet<String>(Arrays.asList("tg:cat", "tg:dog")));
+
+		photoManager.updateDependents(photo);
+
+		assertEquals(0, photoManager.noDeletes);
+		assertTrue(photoManager.addedTags.isEmpty());
+		assertTrue(photoManager.removedTags.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRolledBackWriteForcesRewrite() throws Exception {
+		photo.setPersistedTags(new HashSet<String>(Arrays.asList("tg:cat", "tg:dog")));
+
+		photoManager.forgetDependents(photo);
+
+		assertNull(photo.getPersistedTags());
+	}
+
+	/**
+	 * Records tag writes instead of executing them
+	 */
+	private static class RecordingPhotoManager extends PhotoManager {
+
+		private int noDeletes = 0;
+		private Set<String> addedTags = new HashSet<String>();
+		private Set<String> removedTags = new HashSet<String>();
+
+		protected void deleteTags(Photo photo) {
+			noDeletes++;
+		}
+
+		protected void writeTags(String query, Set<String> tags, PhotoId id) {
+			(query.startsWith("DELETE") ? removedTags : addedTags).addAll(tags);
+		}
+	}
+
+}
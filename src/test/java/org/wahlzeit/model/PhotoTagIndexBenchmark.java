@@ -0,0 +1,78 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.utils.CompressedBitmap;
+
+import java.util.*;
+
+/**
+ * Benchmark for the PhotoTagIndex class; run it with "gradle benchmark", it is not part of the tests.
+ * Indexes 1M photos (or as many as the first argument says) with an owner and three tags each,
+ * drawn from a skewed vocabulary, and reports build time, multi-tag query latency, and index size.
+ */
+public class PhotoTagIndexBenchmark {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_NO_PHOTOS = 1000000;
+	public static final int NO_WARMUP_QUERIES = 20;
+	public static final int NO_QUERIES = 200;
+
+	/**
+	 *
+	 */
+	protected static final List<List<String>> QUERIES = Arrays.asList(
+		Arrays.asList("tg:dog", "un:user0", "tg:tag0"),
+		Arrays.asList("tg:cat", "tg:tag1"),
+		Arrays.asList("tg:dog", "tg:tag7", "tg:tag49"),
+		Arrays.asList("un:user42", "tg:cat")
+	);
+
+	/**
+	 *
+	 */
+	public static void main(String[] argv) {
+		int noPhotos = (argv.length > 0) ? Integer.parseInt(argv[0]) : DEFAULT_NO_PHOTOS;
+		PhotoTagIndex index = new PhotoTagIndex();
+
+		long start = System.nanoTime();
+		Random random = new Random(7);
+		for (int id = 0; id < noPhotos; id++) {
+			int tag = random.nextInt(100);
+			index.addTag("un:user" + (id % 1000), id);
+			index.addTag("tg:tag" + tag, id);
+			index.addTag("tg:tag" + (tag * tag % 10000), id);
+			index.addTag((random.nextInt(3) > 0) ? "tg:dog" : "tg:cat", id);
+		}
+		long buildMillis = (System.nanoTime() - start) / 1000000;
+
+		System.out.println("photos: " + index.getNoPhotos() + ", tags: " + index.getNoTags());
+		System.out.println("build: " + buildMillis + "ms");
+		System.out.println("size: " + index.getSizeInBytes() / 1024 + "KB (plain int ids: " + 16L * noPhotos / 1024 + "KB)");
+
+		for (List<String> query : QUERIES) {
+			int noResults = 0;
+			for (int i = 0; i < NO_WARMUP_QUERIES; i++) {
+				noResults = index.getPhotoIds(query).getCardinality();
+			}
+
+			long[] nanos = new long[NO_QUERIES];
+			for (int i = 0; i < NO_QUERIES; i++) {
+				long queryStart = System.nanoTime();
+				CompressedBitmap result = index.getPhotoIds(query);
+				nanos[i] = System.nanoTime() - queryStart;
+				noResults = result.getCardinality();
+			}
+			Arrays.sort(nanos);
+
+			System.out.println("query " + query + ": " + noResults + " photos, median " + nanos[NO_QUERIES / 2] / 1000
+					+ "us, p99 " + nanos[NO_QUERIES * 99 / 100] / 1000 + "us");
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.services.SnapshotFile;
+import org.wahlzeit.utils.CompressedBitmap;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the PhotoTagIndex class.
+ */
+public class PhotoTagIndexTest {
+
+	private PhotoTagIndex index;
+
+	@Before
+	public void setUp() {
+		index = new PhotoTagIndex();
+		index.photoTagCollector = new PhotoTagCollector();
+		PhotoTagIndex.instance = index;
+	}
+
+	@After
+	public void tearDown() {
+		PhotoTagIndex.instance = null;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIntersectsFilterConditions() {
+		index.addTag("tg:cat", 1);
+		index.addTag("tg:cat", 2);
+		index.addTag("tg:black", 2);
+		index.addTag("un:anna", 2);
+		index.addTag("tg:black", 3);
+		index.addPhotoId(4, true);
+
+		assertArrayEquals(new int[] { 2 }, index.getPhotoIds(Arrays.asList("tg:cat", "tg:black")).asArray());
+		assertArrayEquals(new int[] { 2 }, index.getPhotoIds(Arrays.asList("un:anna", "tg:cat")).asArray());
+		assertEquals(0, index.getPhotoIds(Arrays.asList("tg:cat", "tg:dog")).getCardinality());
+		assertArrayEquals(new int[] { 1, 2, 3, 4 }, index.getPhotoIds(Collections.<String>emptyList()).asArray());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFollowsTagAndOwnerChanges() {
+		Photo photo = new Photo();
+		photo.setTags(new Tags("cat"));
+		assertFalse(index.hasPhoto(photo.getId())); // photos not yet added are ignored
+
+		index.addPhoto(photo);
+		photo.setOwnerName("anna");
+		photo.setTags(new Tags("dog"));
+
+		List<String> dogsOfAnna = Arrays.asList("un:anna", "tg:dog");
+		assertTrue(index.getPhotoIds(dogsOfAnna).contains(photo.getId().asInt()));
+		assertEquals(0, index.getPhotoIds(Arrays.asList("tg:cat")).getCardinality());
+
+		photo.setOwnerName("bert");
+		assertEquals(0, index.getPhotoIds(dogsOfAnna).getCardinality());
+		assertTrue(index.getPhotoIds(Arrays.asList("un:bert")).contains(photo.getId().asInt()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOnlyReturnsVisiblePhotos() {
+		Photo photo = new Photo();
+		photo.setTags(new Tags("cat"));
+		index.addPhoto(photo);
+		index.addPhotoId(photo.getId().asInt() + 1, false);
+
+		List<String> cats = Arrays.asList("tg:cat");
+		assertEquals(1, index.getVisiblePhotoIds(cats).getCardinality());
+		assertEquals(1, index.getNoVisiblePhotos());
+
+		photo.setStatus(PhotoStatus.VISIBLE.asFlagged(true));
+		assertEquals(0, index.getVisiblePhotoIds(cats).getCardinality());
+		assertEquals(1, index.getPhotoIds(cats).getCardinality());
+
+		photo.setStatus(PhotoStatus.VISIBLE);
+		assertEquals(1, index.getVisiblePhotoIds(Collections.<String>emptyList()).getCardinality());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWritesIndexForSnapshot() throws IOException {
+		index.addTag("tg:cat", 1);
+		index.addTag("tg:cat", 2);
+		index.addTag("un:anna", 2);
+		index.addPhotoId(2, true);
+		index.addPhotoId(3, false);
+
+		File file = File.createTempFile("wahlzeit", ".snapshot");
+		try {
+			SnapshotFile.Writer writer = new SnapshotFile.Writer(file);
+			index.writeOn(writer);
+			writer.commit();
+			writer.close();
+
+			PhotoTagIndex restored = new PhotoTagIndex();
+			SnapshotFile.Reader reader = new SnapshotFile.Reader(file);
+			for (int id = reader.readInt(); id >= 0; id = reader.readInt()) {
+				restored.addPhotoId(id, reader.readBoolean());
+			}
+			while (reader.readBoolean()) {
+				String tag = reader.readString();
+				for (int id = reader.readInt(); id >= 0; id = reader.readInt()) {
+					restored.addTag(tag, id);
+				}
+			}
+
+			assertArrayEquals(new int[] { 1, 2, 3 }, restored.getPhotoIds(Collections.<String>emptyList()).asArray());
+			assertArrayEquals(new int[] { 2 }, restored.getVisiblePhotoIds(Collections.<String>emptyList()).asArray());
+			assertArrayEquals(new int[] { 1, 2 }, restored.getPhotoIds(Arrays.asList("tg:cat")).asArray());
+			assertArrayEquals(new int[] { 2 }, restored.getPhotoIds(Arrays.asList("un:anna")).asArray());
+			assertEquals(2, restored.getNoTags());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Indexes 100K photos with an owner and three tags each, drawn from a skewed vocabulary; see PhotoTagIndexBenchmark for 1M photos
+	 */
+	@Test
+	public void testIndexIsSmallerThanPlainIds() {
+		int noPhotos = 100000;
+		Random random = new Random(7);
+		int noDogsOfUser0WithTag0 = 0;
+		for (int id = 0; id < noPhotos; id++) {
+			int user = id % 1000;
+			int tag = random.nextInt(100);
+			int otherTag = tag * tag % 10000;
+			boolean isDog = random.nextInt(3) > 0;
+			index.addTag("un:user" + user, id);
+			index.addTag("tg:tag" + tag, id);
+			index.addTag("tg:tag" + otherTag, id);
+			index.addTag(isDog ? "tg:dog" : "tg:cat", id);
+			if ((user == 0) && ((tag == 0) || (otherTag == 0)) && isDog) {
+				noDogsOfUser0WithTag0++;
+			}
+		}
+
+		assertEquals(noPhotos, index.getNoPhotos());
+		CompressedBitmap result = index.getPhotoIds(Arrays.asList("tg:dog", "un:user0", "tg:tag0"));
+		assertEquals(noDogsOfUser0WithTag0, result.getCardinality());
+
+		// four int ids per photo would take 1.6MB as plain arrays
+		long sizeInBytes = index.getSizeInBytes();
+		assertTrue("index uses " + sizeInBytes + " bytes", sizeInBytes < 16 * noPhotos);
+	}
+
+}
@@ -2,9 +2,13 @@ package org.wahlzeit.model;
 
 import org.junit.Test;
 import org.wahlzeit.model.testhelper.FakeResultSet;
+import org.wahlzeit.services.Language;
 
 import java.net.URL;
 import java.sql.ResultSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -37,4 +41,36 @@ public class PhotoTest {
         assertEquals(coordinate, photoToBeRead.location.getCoordinate());
         assertEquals(photoToBeStored.location.getCoordinate(), photoToBeRead.location.getCoordinate());
     }
+
+    @Test
+    public void testConcurrentPraiseIsCountedWithoutMakingPhotoDirty() throws Exception {
+        var photo = new Photo();
+        photo.resetWriteCount();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 1000; i++) {
+            executor.execute(() -> photo.addToPraise(5));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(10 + 5000, photo.getPraiseSum());
+        assertEquals(1 + 1000, photo.getNoVotes());
+        assertEquals(5010.0 / 1001, photo.getPraise(), 0.0001);
+        assertFalse(photo.isDirty());
+        assertTrue(PhotoManager.getInstance().hasPendingPraise(photo.getId()));
+    }
+
+    @Test
+    public void testSettersMarkOnlyTheirColumnsAsChanged() {
+        var photo = new Photo();
+        photo.resetWriteCount();
+
+        photo.setOwnerLanguage(Language.GERMAN);
+
+        assertTrue(photo.isDirty());
+        assertTrue(photo.isChangedColumn("owner_language"));
+        assertFalse(photo.isChangedColumn("owner_home_page"));
+        assertFalse(photo.isChangedColumn("tags"));
+    }
 }
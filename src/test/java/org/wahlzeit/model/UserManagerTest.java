@@ -0,0 +1,133 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.services.EmailAddress;
+import org.wahlzeit.services.Language;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the in-memory lookups of the UserManager class.
+ */
+public class UserManagerTest {
+
+	private UserManager userManager;
+
+	@Before
+	public void setUp() {
+		userManager = new UserManager();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFindsCachedUserByEmailAddress() {
+		User anna = createUser("anna", "anna@example.org");
+		userManager.doAddUser(anna);
+
+		assertSame(anna, userManager.getUserByEmailAddress("anna@example.org"));
+		assertSame(anna, userManager.doGetUserByTag("anna"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEmailIndexFollowsChangesAndDeletion() {
+		User anna = createUser("anna", "anna@example.org");
+		userManager.doAddUser(anna);
+		UserManager singleton = UserManager.instance;
+		UserManager.instance = userManager; // User.setEmailAddress reports to the singleton
+		try {
+			anna.setEmailAddress(EmailAddress.getFromString("anna@example.com"));
+		} finally {
+			UserManager.instance = singleton;
+		}
+
+		assertNull(userManager.usersByEmailAddress.get(EmailAddress.getFromString("anna@example.org")));
+		assertSame(anna, userManager.usersByEmailAddress.get(EmailAddress.getFromString("anna@example.com")));
+
+		userManager.doDeleteUser(anna);
+		assertTrue(userManager.usersByEmailAddress.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testKeepsOneInstanceOfEvictedLoggedInUser() {
+		userManager.users = userManager.createUserCache(10);
+		User anna = createUser("anna", "anna@example.org"); // held by a session
+		userManager.doAddUser(anna);
+		for (int i = 0; i < 100; i++) {
+			userManager.doAddUser(createUser("user" + i, "user" + i + "@example.org"));
+		}
+
+		assertTrue(userManager.users.getNoEvictions() > 0);
+		assertSame(anna, userManager.doAddUser(createUser("anna", "anna@example.org")));
+		assertSame(anna, userManager.doGetUserByTag("anna"));
+		assertSame(anna, userManager.getUserByEmailAddress("anna@example.org"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRemembersUnknownNamesUntilUserIsAdded() {
+		userManager.addUnknownNameTag("bert");
+		assertTrue(userManager.isKnownAsUnknownNameTag("bert"));
+		assertNull(userManager.getUserByTag("bert")); // answered without database
+
+		userManager.doAddUser(createUser("bert", "bert@example.org"));
+		assertFalse(userManager.isKnownAsUnknownNameTag("bert"));
+		assertNotNull(userManager.getUserByTag("bert"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnknownNamesExpire() {
+		userManager.unknownNameTags.put("carl", System.currentTimeMillis() - 1);
+		assertFalse(userManager.isKnownAsUnknownNameTag("carl"));
+		assertTrue(userManager.unknownNameTags.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOwnerChangesPatchPhotosWithoutMakingThemDirty() {
+		User anna = createUser("anna", "anna@example.org");
+		Photo photo = new Photo();
+		anna.addPhoto(photo);
+		photo.resetWriteCount();
+		anna.resetWriteCount();
+
+		anna.setLanguage(Language.GERMAN);
+
+		assertEquals(Language.GERMAN, photo.getOwnerLanguage());
+		assertFalse(photo.isDirty());
+		assertTrue(anna.isChangedColumn("language"));
+		assertFalse(anna.isChangedColumn("home_page"));
+	}
+
+	/**
+	 *
+	 */
+	private static User createUser(String name, String emailAddress) {
+		User result = new User();
+		result.name = name;
+		result.nameAsTag = Tags.asTag(name);
+		result.emailAddress = EmailAddress.getFromString(emailAddress);
+		return result;
+	}
+
+}
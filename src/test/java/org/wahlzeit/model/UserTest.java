@@ -0,0 +1,92 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the photos of the User class, with a PhotoManager that answers owner queries from memory.
+ */
+public class UserTest {
+
+	private PhotoManager singleton;
+	private List<Integer> queriedOwnerIds;
+	private Set<Photo> storedPhotos;
+
+	@Before
+	public void setUp() {
+		singleton = PhotoManager.instance;
+		queriedOwnerIds = new ArrayList<Integer>();
+		storedPhotos = new HashSet<Photo>();
+		PhotoManager.instance = new PhotoManager() {
+			public Set<Photo> findPhotosByOwner(int ownerId) {
+				queriedOwnerIds.add(ownerId);
+				return storedPhotos;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		PhotoManager.instance = singleton;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLoadsPhotosByOwnerIdOnFirstAccess() {
+		User anna = new User();
+		anna.id = 42;
+		anna.hasLoadedPhotos = false;
+		storedPhotos.add(new Photo());
+
+		assertEquals(1, anna.getNoPhotos());
+		assertEquals(1, anna.getNoPhotos());
+		assertEquals(Collections.singletonList(42), queriedOwnerIds);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddsAndRemovesPhotosConcurrently() throws Exception {
+		User anna = new User();
+		anna.hasLoadedPhotos = false;
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Photo> photos = new ArrayList<Photo>();
+		for (int i = 0; i < 2000; i++) {
+			photos.add(new Photo());
+		}
+
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (Photo photo : photos) {
+			results.add(executor.submit(() -> anna.addPhoto(photo)));
+		}
+		for (Future<?> result : results) {
+			result.get();
+		}
+		results.clear();
+		for (Photo photo : photos.subList(0, 500)) {
+			results.add(executor.submit(() -> anna.removePhoto(photo)));
+		}
+		for (Future<?> result : results) {
+			result.get();
+		}
+		executor.shutdown();
+
+		assertEquals(1500, anna.getNoPhotos());
+		assertEquals(1, queriedOwnerIds.size());
+	}
+
+}
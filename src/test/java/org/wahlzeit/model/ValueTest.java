@@ -112,4 +112,21 @@ public class ValueTest {
 		assert (test == PhotoId.getIdFromString(testString));
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testObjectIdLeasedByOtherNode() {
+		int otherInt = PhotoId.getIdAllocator().getLastLeasedId() + 1000;
+		PhotoId other = PhotoId.getIdFromInt(otherInt);
+
+		assertTrue(!other.isNullId());
+		assertTrue(other.asInt() == otherInt);
+		assertTrue(other == PhotoId.getIdFromInt(otherInt));
+
+		int madeUpInt = Integer.MAX_VALUE - 1;
+		assertTrue(PhotoId.getIdFromInt(madeUpInt).equals(PhotoId.getIdFromInt(madeUpInt)));
+		assertTrue(PhotoId.getIdFromInt(0).isNullId());
+	}
+
 }
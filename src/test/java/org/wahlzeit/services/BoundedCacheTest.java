@@ -0,0 +1,161 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the BoundedCache class.
+ */
+public class BoundedCacheTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStaysWithinMaxSize() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(100);
+		for (int i = 0; i < 1000; i++) {
+			cache.put(i, "v" + i);
+		}
+
+		assertEquals(100, cache.size());
+		assertEquals(900, cache.getNoEvictions());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFrequentEntriesSurviveScan() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(100);
+		for (int i = 0; i < 50; i++) {
+			cache.put(i, "hot");
+		}
+		for (int i = 0; i < 50; i++) {
+			cache.get(i);
+		}
+
+		// each hot entry is used once per 200 cold ones, which would flush it from a plain LRU cache
+		for (int i = 0; i < 10000; i++) {
+			cache.put(1000 + i, "cold");
+			if ((i % 4) == 0) {
+				cache.get((i / 4) % 50);
+			}
+		}
+
+		for (int i = 0; i < 50; i++) {
+			assertTrue("hot entry " + i + " evicted", cache.containsKey(i));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPinnedEntriesAreNotEvicted() {
+		final AtomicBoolean isPinning = new AtomicBoolean(true);
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10, value -> isPinning.get() && value.startsWith("pinned"));
+		for (int i = 0; i < 20; i++) {
+			cache.put(i, "pinned" + i);
+		}
+		for (int i = 100; i < 200; i++) {
+			cache.put(i, "v" + i);
+		}
+
+		assertEquals(20, cache.size());
+		assertEquals("pinned0", cache.get(0));
+
+		isPinning.set(false);
+		cache.put(200, "v200");
+		assertEquals(10, cache.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRevivesEvictedValuesStillReferenced() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10);
+		cache.setKeepingEvictedValues(true);
+		String referenced = new String("v0");
+		cache.put(0, referenced);
+		for (int i = 1; i < 100; i++) {
+			cache.put(i, "v" + i);
+		}
+
+		assertTrue(cache.getNoEvictions() > 0);
+		assertTrue(cache.containsKey(0));
+		assertSame(referenced, cache.putIfAbsent(0, new String("v0")));
+		assertSame(referenced, cache.get(0));
+
+		for (int i = 100; i < 200; i++) {
+			cache.put(i, "v" + i);
+		}
+		assertSame(referenced, cache.get(0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCountsHitsAndMisses() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10);
+		cache.put(1, "one");
+
+		assertEquals("one", cache.get(1));
+		assertNull(cache.get(2));
+		assertNull(cache.putIfAbsent(2, "two"));
+		assertEquals("two", cache.putIfAbsent(2, "zwei"));
+		assertEquals("two", cache.remove(2));
+
+		assertEquals(1, cache.getNoHits());
+		assertEquals(1, cache.getNoMisses());
+		assertEquals(0.5, cache.getHitRate(), 0.001);
+		assertEquals(1, cache.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentAccess() throws InterruptedException {
+		final BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(500);
+		final AtomicBoolean hasFailed = new AtomicBoolean(false);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				public void run() {
+					Random random = new Random(seed);
+					for (int i = 0; i < 20000; i++) {
+						int key = random.nextInt(2000);
+						Integer value = cache.get(key);
+						if (value == null) {
+							cache.putIfAbsent(key, key);
+						} else if (value != key) {
+							hasFailed.set(true);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertFalse(hasFailed.get());
+		assertTrue(cache.size() <= 500);
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the ColumnValues class.
+ */
+public class ColumnValuesTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRecordsColumnsInWriteOrder() throws SQLException {
+		ColumnValues values = ColumnValues.getFrom(new Item(7, "seven", null));
+
+		assertEquals(Arrays.asList("id", "name", "comment", "count"), values.getColumnNames());
+		assertEquals(Arrays.asList("name", "comment", "count"), values.getUpdateColumnNames());
+		assertEquals("seven", values.getValue("name"));
+		assertEquals(42L, values.getValue("count"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUpdateStatementExcludesId() throws SQLException {
+		ColumnValues values = ColumnValues.getFrom(new Item(7, "seven", "none"));
+
+		String expected = "UPDATE items SET \"name\" = ?, \"comment\" = ?, \"count\" = ? WHERE id = ?";
+		assertEquals(expected, values.asUpdateStatementString("items"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBindsValuesAndNulls() throws SQLException {
+		ColumnValues values = ColumnValues.getFrom(new Item(7, "seven", null));
+		final Map<Integer, Object> bound = new HashMap<Integer, Object>();
+		PreparedStatement stmt = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+			if (method.getName().equals("setObject")) {
+				bound.put((Integer) args[0], args[1]);
+			} else if (method.getName().equals("setNull")) {
+				bound.put((Integer) args[0], "NULL:" + args[1]);
+			}
+			return null;
+		});
+
+		int pos = values.writeOn(stmt, values.getUpdateColumnNames(), 1);
+
+		assertEquals(4, pos);
+		assertEquals("seven", bound.get(1));
+		assertEquals("NULL:" + Types.VARCHAR, bound.get(2));
+		assertEquals(42L, bound.get(3));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRecordsNullsWithKnownColumnType() throws SQLException {
+		ColumnValues values = new ColumnValues();
+		values.setValue("count", Types.BIGINT, 42L);
+		ResultSet rset = values.asResultSet();
+		rset.updateNull("count");
+		rset.updateNull("comment");
+
+		assertNull(values.getValue("count"));
+		assertEquals(Integer.valueOf(Types.BIGINT), values.types.get("count"));
+		assertEquals(Integer.valueOf(Types.NULL), values.types.get("comment"));
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = SQLException.class)
+	public void testRejectsReading() throws SQLException {
+		new ColumnValues().asResultSet().getString("name");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadsAndConvertsValues() throws SQLException {
+		ColumnValues values = new ColumnValues();
+		values.setValue("id", Types.INTEGER, 7);
+		values.setValue("count", Types.BIGINT, 42L);
+		values.setValue("flag", Types.VARCHAR, "t");
+		values.setValue("comment", Types.VARCHAR, null);
+		ResultSet rset = values.asResultSet();
+
+		assertEquals(7, rset.getInt("ID"));
+		assertEquals(42L, rset.getLong(2));
+		assertEquals(42, rset.getInt("count"));
+		assertTrue(rset.getBoolean("flag"));
+		assertFalse(rset.wasNull());
+		assertNull(rset.getString("comment"));
+		assertTrue(rset.wasNull());
+		assertEquals(0, rset.getInt("comment"));
+		assertEquals(3, rset.findColumn("flag"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCapturesOnlyChangedColumns() throws SQLException {
+		Item item = new Item(7, "seven", "none");
+		item.incWriteCount(Item.COLUMNS.get("comment"));
+		ColumnValues values = ColumnValues.getChangesFrom(item);
+
+		assertEquals(Arrays.asList("id", "comment"), values.getColumnNames());
+		assertEquals("UPDATE items SET \"comment\" = ? WHERE id = ?", values.asUpdateStatementString("items"));
+
+		item.resetWriteCount();
+		item.incWriteCount();
+		assertEquals(Arrays.asList("name", "comment", "count"), ColumnValues.getChangesFrom(item).getUpdateColumnNames());
+	}
+
+	/**
+	 * Minimal persistent object writing three columns besides its id
+	 */
+	private static class Item extends DataObject {
+
+		static final ColumnMask COLUMNS = new ColumnMask("name", "comment", "count");
+
+		private final int id;
+		private final String name;
+		private final String comment;
+
+		Item(int myId, String myName, String myComment) {
+			id = myId;
+			name = myName;
+			comment = myComment;
+		}
+
+		public String getIdAsString() {
+			return String.valueOf(id);
+		}
+
+		protected ColumnMask getColumnMask() {
+			return COLUMNS;
+		}
+
+		public void readFrom(ResultSet rset) {
+			// not needed
+		}
+
+		public void writeOn(ResultSet rset) throws SQLException {
+			rset.updateInt("id", id);
+			rset.updateString("name", name);
+			rset.updateString("comment", comment);
+			rset.updateLong("count", 42L);
+		}
+
+		public void writeId(PreparedStatement stmt, int pos) throws SQLException {
+			stmt.setInt(pos, id);
+		}
+	}
+
+}
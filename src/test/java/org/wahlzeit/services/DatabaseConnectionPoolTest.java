@@ -0,0 +1,211 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the DatabaseConnectionPool class, run against fake RDBMS connections.
+ */
+public class DatabaseConnectionPoolTest {
+
+	private static final int MAX_SIZE = 2;
+
+	private FakePool pool;
+
+	@Before
+	public void setUp() {
+		pool = new FakePool(MAX_SIZE, 50, 60 * 1000);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBorrowAndReturnReusesConnection() throws SQLException {
+		DatabaseConnection dbc = pool.borrowConnection();
+		assertEquals(1, pool.getNoActiveConnections());
+		assertEquals(0, pool.getNoIdleConnections());
+
+		pool.returnConnection(dbc);
+		assertEquals(0, pool.getNoActiveConnections());
+		assertEquals(1, pool.getNoIdleConnections());
+
+		assertSame(dbc, pool.borrowConnection());
+		assertEquals(1, pool.noCreatedConnections);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testExhaustedPoolTimesOut() throws SQLException {
+		for (int i = 0; i < MAX_SIZE; i++) {
+			pool.borrowConnection();
+		}
+
+		try {
+			pool.borrowConnection();
+			fail("pool should not hand out more than " + MAX_SIZE + " connections");
+		} catch (SQLException ex) {
+			// expected
+		}
+
+		assertEquals(MAX_SIZE, pool.getNoActiveConnections());
+		assertEquals(0, pool.getNoWaitingThreads());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWaitingThreadGetsReturnedConnection() throws Exception {
+		FakePool slowPool = new FakePool(1, 5000, 60 * 1000);
+		final DatabaseConnection dbc = slowPool.borrowConnection();
+
+		Thread returner = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException ex) {
+					// ignore
+				}
+				slowPool.returnConnection(dbc);
+			}
+		};
+		returner.start();
+
+		assertSame(dbc, slowPool.borrowConnection());
+		returner.join();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testClosedConnectionIsDiscarded() throws SQLException {
+		DatabaseConnection dbc = pool.borrowConnection();
+		dbc.close();
+		pool.returnConnection(dbc);
+
+		assertEquals(0, pool.getNoIdleConnections());
+		assertNotSame(dbc, pool.borrowConnection());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDoubleReturnIsIgnored() throws SQLException {
+		DatabaseConnection dbc = pool.borrowConnection();
+		pool.returnConnection(dbc);
+		pool.returnConnection(dbc);
+
+		assertEquals(0, pool.getNoActiveConnections());
+		assertEquals(1, pool.getNoIdleConnections());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIdleConnectionsAreEvicted() throws SQLException {
+		DatabaseConnection dbc = pool.borrowConnection();
+		pool.returnConnection(dbc);
+		dbc.lastUsedTime -= 2 * 60 * 1000;
+
+		pool.evictIdleConnections();
+
+		assertEquals(0, pool.getNoIdleConnections());
+		assertFalse(dbc.isOpen());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testInvalidConnectionIsNotHandedOut() throws SQLException {
+		DatabaseConnection dbc = pool.borrowConnection();
+		pool.returnConnection(dbc);
+		dbc.lastUsedTime -= 2 * DatabaseConnectionPool.VALIDATION_BYPASS_TIME;
+		pool.isValid = false;
+
+		assertNotSame(dbc, pool.borrowConnection());
+		assertFalse(dbc.isOpen());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConnectionReturnedAfterCloseIsClosed() throws SQLException {
+		DatabaseConnection idle = pool.borrowConnection();
+		DatabaseConnection borrowed = pool.borrowConnection();
+		pool.returnConnection(idle);
+
+		pool.close();
+		assertFalse(idle.isOpen());
+		assertTrue(borrowed.isOpen());
+
+		pool.returnConnection(borrowed);
+		assertFalse(borrowed.isOpen());
+		assertEquals(0, pool.getNoIdleConnections());
+		assertEquals(0, pool.getNoActiveConnections());
+
+		try {
+			pool.borrowConnection();
+			fail("closed pool should not hand out connections");
+		} catch (SQLException ex) {
+			// expected
+		}
+	}
+
+	/**
+	 * Pool that creates connections backed by fake RDBMS connections
+	 */
+	private static class FakePool extends DatabaseConnectionPool {
+
+		int noCreatedConnections = 0;
+		boolean isValid = true;
+
+		FakePool(int maxSize, long waitTimeout, long idleTimeout) {
+			super(maxSize, waitTimeout, idleTimeout);
+		}
+
+		@Override
+		protected DatabaseConnection createConnection() {
+			noCreatedConnections++;
+			return new DatabaseConnection("fake" + noCreatedConnections, createFakeConnection());
+		}
+
+		private Connection createFakeConnection() {
+			final boolean[] isClosed = { false };
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+				switch (method.getName()) {
+					case "isClosed":
+						return isClosed[0];
+					case "isValid":
+						return isValid && !isClosed[0];
+					case "close":
+						isClosed[0] = true;
+						return null;
+					case "toString":
+						return "fake connection";
+					default:
+						return null;
+				}
+			});
+		}
+	}
+
+}
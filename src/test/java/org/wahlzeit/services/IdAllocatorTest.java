@@ -0,0 +1,87 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the IdAllocator class.
+ */
+public class IdAllocatorTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testHandsOutConsecutiveIdsAfterLastId() {
+		IdAllocator allocator = new IdAllocator("last_test_id", 4);
+		allocator.setLastId(10);
+
+		for (int i = 11; i <= 20; i++) {
+			assertEquals(i, allocator.getNextId());
+		}
+		assertEquals(20, allocator.getLastId());
+		assertEquals(22, allocator.getLastLeasedId());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLeasesOneBlockPerBlockSizeIds() {
+		final AtomicInteger counter = new AtomicInteger(100);
+		final AtomicInteger noLeases = new AtomicInteger(0);
+		IdAllocator allocator = new IdAllocator("last_test_id", 8) {
+			protected int leaseFromDatabase() {
+				noLeases.incrementAndGet();
+				return counter.addAndGet(blockSize);
+			}
+		};
+		allocator.setLeasingFromDatabase(true);
+
+		for (int i = 0; i < 20; i++) {
+			assertEquals(101 + i, allocator.getNextId());
+		}
+		assertEquals(3, noLeases.get());
+		assertEquals(124, counter.get());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testHandsOutUniqueIdsConcurrently() throws Exception {
+		final IdAllocator allocator = new IdAllocator("last_test_id", 16);
+		final Set<Integer> ids = ConcurrentHashMap.newKeySet();
+		final int noThreads = 8;
+		final int noIdsPerThread = 5000;
+
+		ExecutorService executor = Executors.newFixedThreadPool(noThreads);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < noThreads; i++) {
+			futures.add(executor.submit(() -> {
+				for (int j = 0; j < noIdsPerThread; j++) {
+					ids.add(allocator.getNextId());
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+
+		int noIds = noThreads * noIdsPerThread;
+		assertEquals(noIds, ids.size());
+		assertEquals(noIds, allocator.getLastId());
+	}
+
+}
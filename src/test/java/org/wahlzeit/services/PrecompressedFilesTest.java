@@ -0,0 +1,85 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the PrecompressedFiles class, using a temporary static directory.
+ */
+public class PrecompressedFilesTest {
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("wahlzeit");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (File file : dir.toFile().listFiles()) {
+			file.delete();
+		}
+		Files.delete(dir);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCompressesLargeTextFilesOnce() throws IOException {
+		String css = String.join("\n", Collections.nCopies(200, "p { color: black; }"));
+		File cssFile = writeFile("wahlzeit.css", css.getBytes(StandardCharsets.UTF_8));
+		writeFile("small.js", "var x;".getBytes(StandardCharsets.UTF_8));
+		writeFile("photo.jpg", new byte[4096]);
+
+		assertEquals(1, PrecompressedFiles.compressAll(dir.toFile(), 1024));
+		assertEquals(0, PrecompressedFiles.compressAll(dir.toFile(), 1024));
+
+		File compressedFile = PrecompressedFiles.getCompressedFile(cssFile);
+		assertNotNull(compressedFile);
+		assertTrue(compressedFile.length() < cssFile.length());
+		try (InputStream in = new GZIPInputStream(new FileInputStream(compressedFile))) {
+			assertEquals(css, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIgnoresOutdatedCompressedFiles() throws IOException {
+		File jsFile = writeFile("wahlzeit.js", new byte[2048]);
+		PrecompressedFiles.compressAll(dir.toFile(), 1024);
+		File compressedFile = new File(jsFile.getPath() + PrecompressedFiles.GZIP_EXTENSION);
+		compressedFile.setLastModified(jsFile.lastModified() - 10000);
+
+		assertNull(PrecompressedFiles.getCompressedFile(jsFile));
+		assertEquals(1, PrecompressedFiles.compressAll(dir.toFile(), 1024));
+		assertNotNull(PrecompressedFiles.getCompressedFile(jsFile));
+	}
+
+	/**
+	 *
+	 */
+	private File writeFile(String name, byte[] bytes) throws IOException {
+		Path file = dir.resolve(name);
+		Files.write(file, bytes);
+		return file.toFile();
+	}
+
+}
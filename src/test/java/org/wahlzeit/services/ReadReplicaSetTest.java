@@ -0,0 +1,182 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the ReadReplicaSet class and the routing of reads by Session, run against fake endpoints.
+ */
+public class ReadReplicaSetTest {
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		DatabaseConnection.pool = null;
+		DatabaseConnection.replicas = null;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUsesReplicasRoundRobin() {
+		FakeReplicaSet replicas = new FakeReplicaSet(60 * 1000, "jdbc:fake://a", "jdbc:fake://b");
+
+		List<String> urls = new ArrayList<String>();
+		for (int i = 0; i < 4; i++) {
+			DatabaseConnection dbc = replicas.borrowConnection();
+			urls.add(dbc.ownerPool.getUrl());
+			DatabaseConnection.returnDatabaseConnection(dbc);
+		}
+
+		assertEquals(Arrays.asList("jdbc:fake://a", "jdbc:fake://b", "jdbc:fake://a", "jdbc:fake://b"), urls);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSkipsFailedReplicaUntilRetryInterval() {
+		FakeReplicaSet replicas = new FakeReplicaSet(60 * 1000, "jdbc:fake://a", "jdbc:fake://b");
+		replicas.downUrls.add("jdbc:fake://a");
+
+		for (int i = 0; i < 4; i++) {
+			DatabaseConnection dbc = replicas.borrowConnection();
+			assertEquals("jdbc:fake://b", dbc.ownerPool.getUrl());
+			DatabaseConnection.returnDatabaseConnection(dbc);
+		}
+		assertEquals(1, replicas.getNoAvailableReplicas());
+
+		replicas.downUrls.clear();
+		replicas.replicas.get(0).markDown(0);
+		replicas.borrowConnection();
+		assertEquals(2, replicas.getNoAvailableReplicas());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReturnsNullIfAllReplicasAreDown() {
+		FakeReplicaSet replicas = new FakeReplicaSet(60 * 1000, "jdbc:fake://a", "jdbc:fake://b");
+		replicas.downUrls.add("jdbc:fake://a");
+		replicas.downUrls.add("jdbc:fake://b");
+
+		assertNull(replicas.borrowConnection());
+		assertEquals(0, replicas.getNoAvailableReplicas());
+		assertNull(new FakeReplicaSet(60 * 1000).borrowConnection());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSessionReadsOwnWritesFromPrimary() {
+		DatabaseConnection.pool = new FakePool("jdbc:fake://primary", Collections.<String>emptySet());
+		DatabaseConnection.replicas = new FakeReplicaSet(60 * 1000, "jdbc:fake://a");
+
+		Session session = new Session();
+		assertEquals("jdbc:fake://a", session.ensureReadingConnection().ownerPool.getUrl());
+
+		session.noteWrite();
+		assertEquals("jdbc:fake://primary", session.ensureReadingConnection().ownerPool.getUrl());
+
+		session.lastWriteTime -= 2 * 60 * 1000;
+		assertEquals("jdbc:fake://a", session.ensureReadingConnection().ownerPool.getUrl());
+
+		session.returnDatabaseConnection();
+		assertEquals(0, DatabaseConnection.pool.getNoActiveConnections());
+		assertEquals(0, DatabaseConnection.replicas.replicas.get(0).pool.getNoActiveConnections());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOnlyPlainSelectsAreReadOnly() {
+		assertTrue(DatabaseConnection.isReadOnlyQuery("SELECT * FROM photos WHERE id = ?"));
+		assertTrue(DatabaseConnection.isReadOnlyQuery("  select * from users"));
+		assertFalse(DatabaseConnection.isReadOnlyQuery("SELECT * FROM cases WHERE id = ? FOR UPDATE"));
+		assertFalse(DatabaseConnection.isReadOnlyQuery("INSERT INTO photos(id) VALUES(?)"));
+		assertFalse(DatabaseConnection.isReadOnlyQuery("UPDATE photos SET praise_sum = ? WHERE id = ?"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParsesReplicaUrls() {
+		assertEquals(Arrays.asList("jdbc:fake://a", "jdbc:fake://b"), ReadReplicaSet.parseUrls(" jdbc:fake://a, ,jdbc:fake://b"));
+		assertTrue(ReadReplicaSet.parseUrls("").isEmpty());
+	}
+
+	/**
+	 * Replica set whose replicas are fake pools; urls in downUrls fail to connect
+	 */
+	private static class FakeReplicaSet extends ReadReplicaSet {
+
+		Set<String> downUrls;
+
+		FakeReplicaSet(long retryInterval, String... urls) {
+			super(Arrays.asList(urls), retryInterval, 60 * 1000);
+		}
+
+		@Override
+		protected DatabaseConnectionPool createPool(String url) {
+			if (downUrls == null) {
+				downUrls = new HashSet<String>();
+			}
+			return new FakePool(url, downUrls);
+		}
+	}
+
+	/**
+	 * Pool that creates connections backed by fake RDBMS connections
+	 */
+	private static class FakePool extends DatabaseConnectionPool {
+
+		final Set<String> downUrls;
+
+		FakePool(String url, Set<String> myDownUrls) {
+			super(url, 2, 50, 60 * 1000);
+			downUrls = myDownUrls;
+		}
+
+		@Override
+		protected DatabaseConnection createConnection() throws SQLException {
+			if (downUrls.contains(url)) {
+				throw new SQLException("connection refused: " + url);
+			}
+
+			Connection conn = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+				switch (method.getName()) {
+					case "isClosed":
+						return false;
+					case "isValid":
+					case "getAutoCommit":
+						return true;
+					case "toString":
+						return "fake connection to " + url;
+					default:
+						return null;
+				}
+			});
+			return new DatabaseConnection(url, conn);
+		}
+	}
+
+}
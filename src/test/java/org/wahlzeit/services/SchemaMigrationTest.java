@@ -0,0 +1,45 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the SchemaMigration class.
+ */
+public class SchemaMigrationTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRecognizesIndexScansInPlans() {
+		String indexScan = "Index Scan using users_name_as_tag_idx on users  (cost=0.15..8.17 rows=1 width=200)\n"
+			+ "  Index Cond: (name_as_tag = 'x'::text)\n";
+		String bitmapScan = "Bitmap Heap Scan on photos  (cost=4.18..12.64 rows=4 width=300)\n"
+			+ "  ->  Bitmap Index Scan on photos_owner_name_idx  (cost=0.00..4.18 rows=4 width=0)\n";
+		String indexOnlyScan = "Index Only Scan using tags_pkey on tags  (cost=0.15..4.17 rows=1 width=36)\n";
+
+		assertTrue(SchemaMigration.isUsingIndex(indexScan, "users_name_as_tag_idx"));
+		assertTrue(SchemaMigration.isUsingIndex(bitmapScan, "photos_owner_name_idx"));
+		assertTrue(SchemaMigration.isUsingIndex(indexOnlyScan, "tags_pkey"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRejectsPlansWithoutIndex() {
+		String seqScan = "Seq Scan on users  (cost=0.00..1.01 rows=1 width=200)\n  Filter: (email_address = 'x'::text)\n";
+		String otherIndex = "Index Scan using users_name_as_tag_idx_old on users  (cost=0.15..8.17 rows=1 width=200)\n";
+
+		assertFalse(SchemaMigration.isUsingIndex(seqScan, "users_email_address_idx"));
+		assertFalse(SchemaMigration.isUsingIndex(otherIndex, "users_name_as_tag_idx"));
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the SnapshotFile class.
+ */
+public class SnapshotFileTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("wahlzeit", ".snapshot");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadsWhatWasWritten() throws Exception {
+		SnapshotFile.Writer writer = new SnapshotFile.Writer(file);
+		writer.writeLong(42L);
+		writer.writeString("äöü:1:2");
+		writer.writeBoolean(true);
+		int noRows = writer.writeRows(createResultSet(new String[] { "id", "name", "praise", "visible", "ratio" },
+			new Object[] { 1, "anna", 10L, true, 0.5 },
+			new Object[] { 2, null, 0L, false, 1.5 }));
+		writer.writeInt(-1);
+		writer.commit();
+		writer.close();
+		assertEquals(2, noRows);
+
+		SnapshotFile.Reader reader = new SnapshotFile.Reader(file);
+		assertEquals(42L, reader.readLong());
+		assertEquals("äöü:1:2", reader.readString());
+		assertTrue(reader.readBoolean());
+
+		List<ColumnValues> rows = new ArrayList<ColumnValues>();
+		assertEquals(2, reader.readRows(rows::add));
+		assertEquals(-1, reader.readInt());
+
+		ResultSet first = rows.get(0).asResultSet();
+		assertEquals(1, first.getInt("id"));
+		assertEquals("anna", first.getString("name"));
+		assertEquals(10L, first.getLong("praise"));
+		assertTrue(first.getBoolean("visible"));
+		assertEquals(0.5, first.getDouble("ratio"), 0.0);
+
+		ResultSet second = rows.get(1).asResultSet();
+		assertNull(second.getString("name"));
+		assertTrue(second.wasNull());
+		assertFalse(second.getBoolean("visible"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUncommittedWriterKeepsPreviousFile() throws Exception {
+		SnapshotFile.Writer writer = new SnapshotFile.Writer(file);
+		writer.writeInt(1);
+		writer.commit();
+
+		writer = new SnapshotFile.Writer(file);
+		writer.writeInt(2);
+		writer.close();
+
+		assertEquals(1, new SnapshotFile.Reader(file).readInt());
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IOException.class)
+	public void testRejectsOtherFiles() throws Exception {
+		Files.write(file.toPath(), "not a snapshot".getBytes());
+		new SnapshotFile.Reader(file);
+	}
+
+	/**
+	 * Returns a forward-only ResultSet over rows
+	 */
+	private ResultSet createResultSet(String[] columnNames, Object[]... rows) {
+		ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSetMetaData.class }, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getColumnCount":
+					return columnNames.length;
+				case "getColumnLabel":
+					return columnNames[(Integer) args[0] - 1];
+				case "getColumnType":
+					return Types.OTHER;
+				default:
+					return null;
+			}
+		});
+
+		int[] rowIndex = { -1 };
+		return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getMetaData":
+					return metaData;
+				case "next":
+					return ++rowIndex[0] < rows.length;
+				case "getObject":
+					return rows[rowIndex[0]][(Integer) args[0] - 1];
+				default:
+					return null;
+			}
+		});
+	}
+
+}
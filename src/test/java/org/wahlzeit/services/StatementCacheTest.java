@@ -0,0 +1,103 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the StatementCache class, run against fake prepared statements.
+ */
+public class StatementCacheTest {
+
+	private StatementCache cache;
+	private Set<PreparedStatement> closedStatements;
+
+	@Before
+	public void setUp() {
+		cache = new StatementCache(2);
+		closedStatements = new HashSet<PreparedStatement>();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCountsHitsAndMisses() {
+		assertNull(cache.get("SELECT 1"));
+		PreparedStatement stmt = createFakeStatement();
+		cache.put("SELECT 1", stmt);
+
+		assertSame(stmt, cache.get("SELECT 1"));
+		assertSame(stmt, cache.get("SELECT 1"));
+		assertEquals(2, cache.getNoHits());
+		assertEquals(1, cache.getNoMisses());
+		assertEquals(2.0 / 3.0, cache.getHitRate(), 0.001);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictsAndClosesLeastRecentlyUsedStatement() {
+		PreparedStatement first = createFakeStatement();
+		PreparedStatement second = createFakeStatement();
+		PreparedStatement third = createFakeStatement();
+		cache.put("SELECT 1", first);
+		cache.put("SELECT 2", second);
+		cache.get("SELECT 1");
+
+		cache.put("SELECT 3", third);
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getNoEvictions());
+		assertEquals(Collections.singleton(second), closedStatements);
+		assertSame(first, cache.get("SELECT 1"));
+		assertNull(cache.get("SELECT 2"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testClearClosesAllStatements() {
+		cache.put("SELECT 1", createFakeStatement());
+		cache.put("SELECT 2", createFakeStatement());
+
+		cache.clear();
+
+		assertEquals(0, cache.size());
+		assertEquals(2, closedStatements.size());
+	}
+
+	/**
+	 *
+	 */
+	private PreparedStatement createFakeStatement() {
+		PreparedStatement[] result = new PreparedStatement[1];
+		result[0] = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "close":
+					closedStatements.add(result[0]);
+					return null;
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				default:
+					return null;
+			}
+		});
+		return result[0];
+	}
+
+}
@@ -0,0 +1,238 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the WriteBehindQueue class.
+ */
+public class WriteBehindQueueTest {
+
+	private WriteBehindQueue queue;
+	private List<Persistent> written;
+
+	@Before
+	public void setUp() {
+		queue = new WriteBehindQueue();
+		written = new ArrayList<Persistent>();
+		queue.setWriter(Item.class, objects -> {
+			for (Persistent obj : objects) {
+				written.add(obj);
+				obj.resetWriteCount();
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDeduplicatesById() {
+		Item item = new Item(1);
+		queue.add(item);
+		queue.add(item);
+		queue.add(new Item(2));
+
+		assertEquals(2, queue.getSize());
+		assertEquals(2, queue.flush());
+		assertEquals(0, queue.getSize());
+		assertEquals(2, written.size());
+		assertEquals(1, queue.getNoFlushes());
+		assertEquals(2, queue.getNoWrittenObjects());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIgnoresObjectsWithoutWriter() {
+		WriteBehindQueue otherQueue = new WriteBehindQueue();
+		otherQueue.add(new Item(1));
+		assertEquals(0, otherQueue.getSize());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testQueuesObjectsOfFailedWritesAgain() {
+		queue.setWriter(Item.class, objects -> {
+			throw new SQLException("database is down");
+		});
+		queue.add(new Item(1));
+
+		assertEquals(0, queue.flush());
+		assertEquals(1, queue.getSize());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFullQueueMakesProducersWaitForFlusher() throws Exception {
+		queue.setLimits(2, 2, 5000);
+		Thread flusher = new Thread(() -> {
+			try {
+				queue.awaitFlush(5000);
+				queue.flush();
+			} catch (InterruptedException ex) {
+				// test fails below
+			}
+		});
+		flusher.start();
+		while (queue.flusherThread == null) {
+			Thread.sleep(1);
+		}
+
+		queue.add(new Item(1));
+		queue.add(new Item(2)); // fills queue, waits until flusher made room
+		flusher.join(5000);
+
+		assertEquals(1, queue.getNoWaits());
+		assertEquals(0, queue.getSize());
+		assertEquals(2, written.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testResetsChangesCoveredByWrite() {
+		Item item = new Item(1);
+		item.setName("Anna");
+		queue.setWriter(Item.class, objects -> {
+			for (Persistent obj : objects) {
+				ColumnValues values = ColumnValues.getChangesFrom(obj);
+				assertEquals(Arrays.asList("name"), values.getUpdateColumnNames());
+				obj.resetWriteCount(values.getWriteState());
+			}
+		});
+		queue.add(item);
+
+		assertEquals(1, queue.flush());
+		assertFalse(item.isDirty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testKeepsObjectChangedDuringWriteDirty() {
+		Item item = new Item(1);
+		item.setName("Anna");
+		queue.setWriter(Item.class, objects -> {
+			for (Persistent obj : objects) {
+				ColumnValues values = ColumnValues.getChangesFrom(obj);
+				item.setCount(2); // changed by another thread before the write committed
+				obj.resetWriteCount(values.getWriteState());
+			}
+		});
+		queue.add(item);
+
+		assertEquals(1, queue.flush());
+		assertTrue(item.isDirty());
+		assertTrue(item.isChangedColumn("count"));
+
+		queue.setWriter(Item.class, objects -> {
+			for (Persistent obj : objects) {
+				ColumnValues values = ColumnValues.getChangesFrom(obj);
+				assertTrue(values.getUpdateColumnNames().contains("count"));
+				obj.resetWriteCount(values.getWriteState());
+			}
+		});
+		queue.add(item);
+
+		assertEquals(1, queue.flush());
+		assertFalse(item.isDirty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRemembersRecentWritesWithinWindow() throws Exception {
+		queue.setReadYourWritesWindow(60000);
+		queue.add(new Item(1));
+
+		assertTrue(queue.hasRecentWrite(Item.class, "1")); // queued
+		assertFalse(queue.hasRecentWrite(Item.class, "2"));
+
+		queue.flush();
+		assertTrue(queue.hasRecentWrite(Item.class, "1")); // written, replicas may lag
+
+		queue.setReadYourWritesWindow(1);
+		Thread.sleep(5);
+		assertFalse(queue.hasRecentWrite(Item.class, "1"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRemembersNoWritesWithoutWindow() {
+		queue.add(new Item(1));
+		queue.flush();
+
+		assertFalse(queue.hasRecentWrite(Item.class, "1"));
+		assertTrue(queue.writeTimes.isEmpty());
+	}
+
+	/**
+	 * Minimal persistent object; the queue under test is not the one it adds itself to
+	 */
+	private static class Item extends DataObject {
+
+		private static final ColumnMask COLUMNS = new ColumnMask("name", "count");
+
+		private final int id;
+		private String name = "";
+		private int count = 0;
+
+		Item(int myId) {
+			id = myId;
+		}
+
+		void setName(String newName) {
+			name = newName;
+			incWriteCount(COLUMNS.get("name"));
+		}
+
+		void setCount(int newCount) {
+			count = newCount;
+			incWriteCount(COLUMNS.get("count"));
+		}
+
+		protected ColumnMask getColumnMask() {
+			return COLUMNS;
+		}
+
+		public String getIdAsString() {
+			return String.valueOf(id);
+		}
+
+		public void readFrom(ResultSet rset) {
+			// not needed
+		}
+
+		public void writeOn(ResultSet rset) throws SQLException {
+			rset.updateInt("id", id);
+			rset.updateString("name", name);
+			rset.updateInt("count", count);
+		}
+
+		public void writeId(PreparedStatement stmt, int pos) {
+			// not needed
+		}
+	}
+
+}
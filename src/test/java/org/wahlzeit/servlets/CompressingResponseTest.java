@@ -0,0 +1,138 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.servlets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the CompressingResponse class and accepted encodings of the CompressionFilter, run against a fake response.
+ */
+public class CompressingResponseTest {
+
+	private ByteArrayOutputStream body;
+	private Map<String, String> headers;
+	private String contentType;
+
+	@Before
+	public void setUp() {
+		body = new ByteArrayOutputStream();
+		headers = new HashMap<String, String>();
+		contentType = "text/html; charset=UTF-8";
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPrefersGzipAndHonorsQualityValues() {
+		assertEquals("gzip", CompressionFilter.getAcceptedEncoding("gzip, deflate, br"));
+		assertEquals("deflate", CompressionFilter.getAcceptedEncoding("deflate;q=0.5, gzip;q=0"));
+		assertEquals("gzip", CompressionFilter.getAcceptedEncoding("*"));
+		assertNull(CompressionFilter.getAcceptedEncoding("identity"));
+		assertNull(CompressionFilter.getAcceptedEncoding(null));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCompressesLargeResponses() throws IOException {
+		String page = String.join("", Collections.nCopies(500, "<p>Wahlzeit</p>"));
+		CompressingResponse response = new CompressingResponse(createFakeResponse(), CompressingResponse.GZIP, 1024);
+		response.setContentLength(page.length());
+		response.getOutputStream().write(page.getBytes(StandardCharsets.UTF_8));
+		response.finish();
+
+		assertTrue(response.isCompressed());
+		assertEquals("gzip", headers.get("Content-Encoding"));
+		assertNull(headers.get("Content-Length"));
+		assertTrue(body.size() < page.length() / 5);
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))) {
+			assertEquals(page, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSendsSmallOrBinaryResponsesAsTheyAre() throws IOException {
+		CompressingResponse response = new CompressingResponse(createFakeResponse(), CompressingResponse.DEFLATE, 1024);
+		response.getWriter().write("<p>short</p>");
+		response.finish();
+
+		assertFalse(response.isCompressed());
+		assertNull(headers.get("Content-Encoding"));
+		assertEquals("12", headers.get("Content-Length"));
+		assertEquals("<p>short</p>", body.toString("ISO-8859-1"));
+
+		setUp();
+		contentType = "image/jpeg";
+		byte[] image = new byte[4096];
+		response = new CompressingResponse(createFakeResponse(), CompressingResponse.GZIP, 1024);
+		response.setContentLength(image.length);
+		response.getOutputStream().write(image);
+		response.finish();
+
+		assertFalse(response.isCompressed());
+		assertEquals("4096", headers.get("Content-Length"));
+		assertEquals(image.length, body.size());
+	}
+
+	/**
+	 *
+	 */
+	private HttpServletResponse createFakeResponse() {
+		ServletOutputStream out = new ServletOutputStream() {
+			public void write(int b) {
+				body.write(b);
+			}
+
+			public boolean isReady() {
+				return true;
+			}
+
+			public void setWriteListener(WriteListener listener) {
+				// not needed
+			}
+		};
+
+		return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getOutputStream":
+					return out;
+				case "getContentType":
+					return contentType;
+				case "getCharacterEncoding":
+					return null;
+				case "setHeader":
+					headers.put((String) args[0], (String) args[1]);
+					return null;
+				case "containsHeader":
+					return headers.containsKey(args[0]);
+				case "setContentLength":
+				case "setContentLengthLong":
+					headers.put("Content-Length", String.valueOf(args[0]));
+					return null;
+				default:
+					return null;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the CompressedBitmap class.
+ */
+public class CompressedBitmapTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddRemoveContains() {
+		CompressedBitmap bitmap = new CompressedBitmap();
+
+		assertTrue(bitmap.add(3));
+		assertFalse(bitmap.add(3));
+		assertTrue(bitmap.add(70000));
+		assertTrue(bitmap.add(0));
+
+		assertTrue(bitmap.contains(3));
+		assertTrue(bitmap.contains(70000));
+		assertFalse(bitmap.contains(4));
+		assertFalse(bitmap.contains(-1));
+		assertEquals(3, bitmap.getCardinality());
+		assertArrayEquals(new int[] { 0, 3, 70000 }, bitmap.asArray());
+
+		assertTrue(bitmap.remove(70000));
+		assertFalse(bitmap.remove(70000));
+		assertEquals(2, bitmap.getCardinality());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDenseChunkConvertsBackAndForth() {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		for (int i = 0; i < 10000; i++) {
+			bitmap.add(2 * i);
+		}
+
+		assertEquals(10000, bitmap.getCardinality());
+		assertTrue(bitmap.contains(19998));
+		assertFalse(bitmap.contains(19999));
+		assertEquals(2 * 5000, bitmap.select(5000));
+
+		for (int i = 0; i < 9990; i++) {
+			bitmap.remove(2 * i);
+		}
+
+		assertEquals(10, bitmap.getCardinality());
+		assertEquals(19980, bitmap.select(0));
+		assertTrue(bitmap.getSizeInBytes() < 1024);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAgreesWithTreeSet() {
+		Random random = new Random(42);
+		CompressedBitmap bitmap = new CompressedBitmap();
+		TreeSet<Integer> expected = new TreeSet<Integer>();
+		for (int i = 0; i < 50000; i++) {
+			int value = random.nextInt(300000);
+			if (random.nextInt(4) == 0) {
+				assertEquals(expected.remove(value), bitmap.remove(value));
+			} else {
+				assertEquals(expected.add(value), bitmap.add(value));
+			}
+		}
+
+		assertEquals(expected.size(), bitmap.getCardinality());
+		int rank = 0;
+		for (int value : expected) {
+			assertEquals(value, bitmap.select(rank++));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAndAndNot() {
+		CompressedBitmap multiplesOfTwo = new CompressedBitmap();
+		CompressedBitmap multiplesOfThree = new CompressedBitmap();
+		for (int i = 0; i < 200000; i++) {
+			if ((i % 2) == 0) {
+				multiplesOfTwo.add(i);
+			}
+			if ((i % 3) == 0) {
+				multiplesOfThree.add(i);
+			}
+		}
+
+		CompressedBitmap both = CompressedBitmap.and(multiplesOfTwo, multiplesOfThree);
+		CompressedBitmap onlyTwo = CompressedBitmap.andNot(multiplesOfTwo, multiplesOfThree);
+
+		assertEquals(200000 / 6 + 1, both.getCardinality());
+		assertEquals(multiplesOfTwo.getCardinality() - both.getCardinality(), onlyTwo.getCardinality());
+		assertTrue(both.contains(199998));
+		assertFalse(onlyTwo.contains(6));
+		assertTrue(onlyTwo.contains(4));
+		assertEquals(100000, multiplesOfTwo.getCardinality()); // operands are not modified
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsNegativeValues() {
+		new CompressedBitmap().add(-1);
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the RenderedPartCache class, with templates put into the WebPartTemplateService directly.
+ */
+public class RenderedPartCacheTest {
+
+	private static final String SHORT_NAME = "en" + File.separator + "infos/TestInfo";
+
+	@After
+	public void tearDown() {
+		WebPartTemplateService service = WebPartTemplateService.getInstance();
+		Map<String, WebPartTemplate> templates = new HashMap<String, WebPartTemplate>(service.templates);
+		templates.remove(SHORT_NAME);
+		service.templates = templates;
+		RenderedPartCache.getInstance().clear();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRendersOncePerVariant() throws IOException {
+		putTemplate("<p>{$greeting} Wahlzeit</p>");
+		RenderedPartCache cache = RenderedPartCache.getInstance();
+
+		RenderedPart part = cache.getRenderedPart("en", "infos/TestInfo");
+		assertSame(part, cache.getRenderedPart("en", "infos/TestInfo"));
+		assertEquals("<p> Wahlzeit</p>", asString(part));
+
+		RenderedPart welcome = cache.getRenderedPart("en", "infos/TestInfo", "welcome", webPart -> webPart.addString("greeting", "Welcome to"));
+		assertEquals("<p>Welcome to Wahlzeit</p>", asString(welcome));
+		assertEquals(2, cache.getNoRenderedParts());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReloadedTemplateIsRenderedAgain() throws IOException {
+		putTemplate("<p>old</p>");
+		RenderedPartCache cache = RenderedPartCache.getInstance();
+		RenderedPart part = cache.getRenderedPart("en", "infos/TestInfo");
+
+		putTemplate("<p>new</p>");
+
+		assertNotSame(part, cache.getRenderedPart("en", "infos/TestInfo"));
+		assertEquals("<p>new</p>", asString(cache.getRenderedPart("en", "infos/TestInfo")));
+	}
+
+	/**
+	 *
+	 */
+	private void putTemplate(String source) {
+		WebPartTemplate template = new WebPartTemplate(SHORT_NAME);
+		template.initialize(source);
+		WebPartTemplateService.getInstance().putTemplates(Collections.singletonMap(SHORT_NAME, template));
+	}
+
+	/**
+	 *
+	 */
+	private String asString(Writable part) throws IOException {
+		PageBuffer buffer = new PageBuffer();
+		part.writeOn(buffer);
+		StringWriter writer = new StringWriter();
+		part.writeOn(writer);
+		assertEquals(buffer.toString(), writer.toString());
+		return buffer.toString();
+	}
+
+}
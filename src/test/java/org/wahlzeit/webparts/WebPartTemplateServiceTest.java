@@ -0,0 +1,108 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.services.ConfigDir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for preloading and reloading templates of the WebPartTemplateService, using a temporary template directory.
+ */
+public class WebPartTemplateServiceTest {
+
+	private Path rootDir;
+	private WebPartTemplateService service;
+
+	@Before
+	public void setUp() throws IOException {
+		rootDir = Files.createTempDirectory("wahlzeit");
+		service = new WebPartTemplateService();
+		service.setTemplatesDir(new ConfigDir(rootDir.toString(), "templates"));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		service.stopWatching();
+		try (Stream<Path> files = Files.walk(rootDir)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPreloadsAllTemplatesOfLanguages() throws IOException {
+		writeTemplate("en", "infos/AboutInfo", "<p>About {$domainName}</p>");
+		writeTemplate("en", "pages/ShowNotePage", "<p>{$note}</p>");
+		writeTemplate("de", "infos/AboutInfo", "<p>Über {$domainName}</p>");
+		writeTemplate("ja", "infos/AboutInfo", "<p>not preloaded</p>");
+
+		assertEquals(3, service.preloadTemplates(Arrays.asList("en", "de")));
+
+		assertEquals(3, service.getNoTemplates());
+		assertEquals("<p>Über </p>", service.getTemplate("de", "infos/AboutInfo").asString());
+		assertArrayEquals(new String[] { "note" }, service.getTemplate("en", "pages/ShowNotePage").getKeys());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDoesNotTruncateLargeTemplates() throws IOException {
+		String source = String.join("", Collections.nCopies(20000, "<p>x</p>")) + "{$end}";
+		writeTemplate("en", "pages/LargePage", source);
+
+		WebPartTemplate template = service.getTemplate("en", "pages/LargePage");
+
+		assertEquals(source.length() - "{$end}".length(), template.asString().length());
+		assertArrayEquals(new String[] { "end" }, template.getKeys());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReloadsChangedTemplates() throws Exception {
+		writeTemplate("en", "infos/AboutInfo", "<p>old</p>");
+		service.preloadTemplates(Collections.singletonList("en"));
+		WebPartTemplate oldTemplate = service.getTemplate("en", "infos/AboutInfo");
+		service.startWatching(Collections.singletonList("en"));
+
+		writeTemplate("en", "infos/AboutInfo", "<p>new</p>");
+		int noReloaded = 0;
+		for (int i = 0; (i < 100) && (noReloaded == 0); i++) {
+			Thread.sleep(50);
+			noReloaded = service.reloadChangedTemplates();
+		}
+
+		assertEquals(1, noReloaded);
+		assertNotSame(oldTemplate, service.getTemplate("en", "infos/AboutInfo"));
+		assertEquals("<p>new</p>", service.getTemplate("en", "infos/AboutInfo").asString());
+	}
+
+	/**
+	 *
+	 */
+	private void writeTemplate(String lang, String name, String source) throws IOException {
+		Path file = rootDir.resolve(Paths.get("templates", ConfigDir.DEFAULT_DIR_NAME, lang, name + WebPartTemplateService.TEMPLATE_FILE_EXTENSION));
+		Files.createDirectories(file.getParent());
+		Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
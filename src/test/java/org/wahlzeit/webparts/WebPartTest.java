@@ -0,0 +1,75 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle <dirk@riehle.org> https://dirkriehle.com
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for rendering WebParts into PageBuffers.
+ */
+public class WebPartTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBytesMatchWrittenCharacters() throws IOException {
+		WebPartTemplate template = new WebPartTemplate("test");
+		template.initialize("<h1>{$heading}</h1><p>Grüße {$name}</p>{$list}{$missing}.");
+		WebPart part = new WebPart(template);
+		part.addString("heading", "Wahlzeit");
+		part.addString("name", "Jürgen & Anna");
+		part.addWritable("list", new WritableList().append(out -> out.write("<i>€</i>")));
+
+		StringWriter writer = new StringWriter();
+		part.writeOn(writer);
+		PageBuffer buffer = new PageBuffer(8);
+		part.writeOn(buffer);
+
+		assertEquals("<h1>Wahlzeit</h1><p>Grüße Jürgen & Anna</p><i>€</i>.", writer.toString());
+		assertEquals(writer.toString(), buffer.toString());
+		assertEquals(writer.toString().getBytes(StandardCharsets.UTF_8).length, buffer.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRepeatedKeysShareOneValue() throws IOException {
+		WebPartTemplate template = new WebPartTemplate("test");
+		template.initialize("{$a}-{$b}-{$a}");
+		WebPart part = new WebPart(template);
+		part.addString("a", "x");
+		part.addString("other", "y");
+
+		assertEquals(2, template.getNoKeys());
+		assertEquals("x", part.getValue("a"));
+		assertEquals("y", part.getValue("other"));
+		assertNull(part.getValue("b"));
+
+		PageBuffer buffer = new PageBuffer();
+		part.writeOn(buffer);
+		assertEquals("x--x", buffer.toString());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPooledBufferIsReset() {
+		PageBuffer buffer = PageBuffer.getInstance();
+		buffer.writeString("some page");
+
+		assertSame(buffer, PageBuffer.getInstance());
+		assertEquals(0, buffer.size());
+	}
+
+}